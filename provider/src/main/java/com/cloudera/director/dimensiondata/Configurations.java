@@ -55,4 +55,69 @@ public class Configurations {
    * The HOCON path prefix for Cloud SQL regions configuration.
    */
   public static final String CLOUD_SQL_REGIONS_ALIASES_SECTION = "dimensiondata.cloudSQL.regions.toComputeRegion.";
+
+  /**
+   * The HOCON path prefix for server deployment configuration.
+   */
+  public static final String COMPUTE_DEPLOYMENT_SECTION = "dimensiondata.compute.deployment.";
+
+  /**
+   * The HOCON path prefix for the polling of pending MCP operations.
+   */
+  public static final String COMPUTE_POLLING_SECTION = "dimensiondata.compute.polling.";
+
+  /**
+   * The HOCON path prefix for MCP API rate limiting configuration.
+   */
+  public static final String COMPUTE_THROTTLE_SECTION = "dimensiondata.compute.throttle.";
+
+  /**
+   * The HOCON path prefix for the standby server pool configuration.
+   */
+  public static final String COMPUTE_STANDBY_SECTION = "dimensiondata.compute.standby.";
+
+  /**
+   * The HOCON path prefix for the cache of observed servers.
+   */
+  public static final String COMPUTE_CACHE_SECTION = "dimensiondata.compute.cache.";
+
+  /**
+   * The HOCON path prefix for the lookup of existing servers.
+   */
+  public static final String COMPUTE_LOOKUP_SECTION = "dimensiondata.compute.lookup.";
+
+  /**
+   * The HOCON path prefix for the index of the servers of the account.
+   */
+  public static final String COMPUTE_INVENTORY_SECTION = "dimensiondata.compute.inventory.";
+
+  /**
+   * The HOCON path prefix for the network domains and VLANs of templates.
+   */
+  public static final String COMPUTE_NETWORK_SECTION = "dimensiondata.compute.network.";
+
+  /**
+   * The HOCON path prefix for the deletion of servers in the background.
+   */
+  public static final String COMPUTE_DELETION_SECTION = "dimensiondata.compute.deletion.";
+
+  /**
+   * The HOCON path prefix for the parking of the servers of deleted instances.
+   */
+  public static final String COMPUTE_HIBERNATION_SECTION = "dimensiondata.compute.hibernation.";
+
+  /**
+   * The HOCON path prefix for the catalog of the images of the account.
+   */
+  public static final String COMPUTE_IMAGES_SECTION = "dimensiondata.compute.images.";
+
+  /**
+   * The HOCON path prefix for the index of the VLANs of the account.
+   */
+  public static final String COMPUTE_VLANS_SECTION = "dimensiondata.compute.vlans.";
+
+  /**
+   * The HOCON path prefix for the MCP client.
+   */
+  public static final String COMPUTE_CLIENT_SECTION = "dimensiondata.compute.client.";
 }
@@ -16,6 +16,7 @@
 
 package com.cloudera.director.dimensiondata;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -44,6 +45,7 @@ public class DimensionDataCloudProvider extends AbstractCloudProvider {
   private DimensionDataCredentials credentials;
   private Config applicationProperties;
   private Config dimensiondataConfig;
+  private File configurationDirectory;
 
   protected static final CloudProviderMetadata METADATA = new SimpleCloudProviderMetadataBuilder()
       .id(ID)
@@ -56,11 +58,21 @@ public class DimensionDataCloudProvider extends AbstractCloudProvider {
 
   public DimensionDataCloudProvider(DimensionDataCredentials credentials, Config applicationProperties, Config dimensiondataConfig,
       LocalizationContext rootLocalizationContext) {
+    this(credentials, applicationProperties, dimensiondataConfig, null, rootLocalizationContext);
+  }
+
+  /**
+   * Creates a cloud provider whose compute providers keep their state in Director's plugin
+   * configuration directory, or nowhere on disk if the directory is {@code null}.
+   */
+  public DimensionDataCloudProvider(DimensionDataCredentials credentials, Config applicationProperties, Config dimensiondataConfig,
+      File configurationDirectory, LocalizationContext rootLocalizationContext) {
     super(METADATA, rootLocalizationContext);
 
     this.credentials = credentials;
     this.applicationProperties = applicationProperties;
     this.dimensiondataConfig = dimensiondataConfig;
+    this.configurationDirectory = configurationDirectory;
   }
 
   @Override
@@ -81,7 +93,7 @@ public class DimensionDataCloudProvider extends AbstractCloudProvider {
 
     if (DimensionDataComputeProvider.METADATA.getId().equals(resourceProviderId)) {
       return new DimensionDataComputeProvider(configuration, credentials, applicationProperties, dimensiondataConfig,
-          getLocalizationContext());
+          configurationDirectory, getLocalizationContext());
     }
 
     throw new NoSuchElementException("Invalid provider id: " + resourceProviderId);
@@ -45,9 +45,11 @@ public class DimensionDataCredentialsProvider implements CredentialsProvider<Dim
       new SimpleCredentialsProviderMetadata(CONFIGURATION_PROPERTIES);
 
   private Config applicationProperties;
+  private Config dimensiondataConfig;
 
-  public DimensionDataCredentialsProvider(Config applicationProperties) {
+  public DimensionDataCredentialsProvider(Config applicationProperties, Config dimensiondataConfig) {
     this.applicationProperties = applicationProperties;
+    this.dimensiondataConfig = dimensiondataConfig;
   }
 
   @Override
@@ -60,6 +62,7 @@ public class DimensionDataCredentialsProvider implements CredentialsProvider<Dim
       LocalizationContext localizationContext) {
     return new DimensionDataCredentials(
         applicationProperties,
+        dimensiondataConfig,
         configuration.getConfigurationValue(USERNAME, localizationContext),
         configuration.getConfigurationValue(PASSWORD, localizationContext),
         configuration.getConfigurationValue(REGION, localizationContext)
@@ -29,8 +29,6 @@ import com.cloudera.director.spi.v1.provider.CloudProvider;
 import com.cloudera.director.spi.v1.provider.CredentialsProvider;
 import com.cloudera.director.spi.v1.provider.util.AbstractLauncher;
 import com.dimensiondata.cloud.client.Cloud;
-import com.dimensiondata.cloud.client.OrderBy;
-import com.dimensiondata.cloud.client.model.Datacenters;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigParseOptions;
@@ -42,6 +40,8 @@ public class DimensionDataLauncher extends AbstractLauncher {
 
   protected Config dimensiondataConfig = null;
 
+  private File configurationDirectory = null;
+
   public DimensionDataLauncher() {
     super(Collections.singletonList(DimensionDataCloudProvider.METADATA), null);
   }
@@ -53,6 +53,7 @@ public class DimensionDataLauncher extends AbstractLauncher {
    */
   @Override
   public void initialize(File configurationDirectory, HttpProxyParameters httpProxyParameters) {
+    this.configurationDirectory = configurationDirectory;
     try {
       dimensiondataConfig = parseConfigFromClasspath(Configurations.DIMENSIONDATA_CONFIG_QUALIFIED_FILENAME);
       applicationProperties = parseConfigFromClasspath(Configurations.APPLICATION_PROPERTIES_FILENAME);
@@ -117,7 +118,8 @@ public class DimensionDataLauncher extends AbstractLauncher {
     // At this point the configuration object will already contain
     // the required data for authentication.
 
-    CredentialsProvider<DimensionDataCredentials> provider = new DimensionDataCredentialsProvider(applicationProperties);
+    CredentialsProvider<DimensionDataCredentials> provider = new DimensionDataCredentialsProvider(applicationProperties,
+        dimensiondataConfig);
     DimensionDataCredentials credentials = provider.createCredentials(configuration, localizationContext);
     Cloud compute = credentials.getCompute();
 
@@ -128,13 +130,14 @@ public class DimensionDataLauncher extends AbstractLauncher {
     	
       try {
         // Attempt CloudControl api call to verify credentials.
-        Datacenters datacenter = compute.datacenter().listDatacenters(2, 1, OrderBy.EMPTY);
+        credentials.verify();
       } catch (Exception e) {
         throw new InvalidCredentialsException(
             "Invalid cloud provider credentials for user '" + user + "'.", e);
       }
     }
 
-    return new DimensionDataCloudProvider(credentials, applicationProperties, dimensiondataConfig, localizationContext);
+    return new DimensionDataCloudProvider(credentials, applicationProperties, dimensiondataConfig,
+        configurationDirectory, localizationContext);
   }
 }
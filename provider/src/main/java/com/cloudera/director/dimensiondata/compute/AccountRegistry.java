@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The instances of a component shared by all providers of the same account, such as its standby
+ * pool. The instance of an account is created with the settings of the first provider asking for
+ * it. Since it is shared, later providers of the account with other settings are given the same
+ * instance, and each conflicting setting is logged once. Instances are shut down when the JVM
+ * exits, as plugins are not told when they are unloaded.
+ *
+ * @param <T> the type of the instances
+ */
+class AccountRegistry<T> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AccountRegistry.class);
+
+  private static final List<AccountRegistry<?>> REGISTRIES = new CopyOnWriteArrayList<AccountRegistry<?>>();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(AccountRegistry::shutdownAll, "dimensiondata-shutdown"));
+  }
+
+  private final String component;
+  private final Consumer<T> shutdown;
+  private final ConcurrentMap<String, Registration<T>> registrations =
+      new ConcurrentHashMap<String, Registration<T>>();
+
+  /**
+   * Creates a registry with the specified parameters.
+   *
+   * @param component the name of the component in log messages
+   * @param shutdown  shuts down an instance that is no longer used
+   */
+  AccountRegistry(String component, Consumer<T> shutdown) {
+    this.component = component;
+    this.shutdown = shutdown;
+    REGISTRIES.add(this);
+  }
+
+  /**
+   * Returns the instance of the specified account, creating it if needed.
+   *
+   * @param account  the account
+   * @param settings the settings the instance is created with, compared with {@code equals}
+   * @param factory  creates the instance
+   * @return the instance
+   */
+  T get(String account, Object settings, Supplier<T> factory) {
+    Registration<T> registration = registrations.computeIfAbsent(account,
+        key -> new Registration<T>(factory.get(), settings));
+    if (!registration.settings.equals(settings) && registration.conflicts.add(settings)) {
+      LOG.warn(">> The {} of account '{}' is in use with settings {}, ignoring settings {}.", component, account,
+          registration.settings, settings);
+    }
+    return registration.instance;
+  }
+
+  /**
+   * Shuts down and forgets every instance, so that the next provider of an account creates a new
+   * one.
+   */
+  void shutdown() {
+    for (String account : registrations.keySet()) {
+      Registration<T> registration = registrations.remove(account);
+      if (registration != null) {
+        try {
+          shutdown.accept(registration.instance);
+        } catch (RuntimeException e) {
+          LOG.warn(">> Failed to shut down the {} of account '{}'.", component, account, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Shuts down the instances of every registry.
+   */
+  static void shutdownAll() {
+    for (AccountRegistry<?> registry : REGISTRIES) {
+      registry.shutdown();
+    }
+  }
+
+  private static class Registration<T> {
+
+    private final T instance;
+    private final Object settings;
+    private final Set<Object> conflicts = ConcurrentHashMap.newKeySet();
+
+    Registration(T instance, Object settings) {
+      this.instance = instance;
+      this.settings = settings;
+    }
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.Configurations;
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.cloudera.director.dimensiondata.util.WorkerPools;
+import com.dimensiondata.cloud.client.http.ForbiddenException;
+import com.dimensiondata.cloud.client.http.NotFoundException;
+import com.dimensiondata.cloud.client.http.UnauthorizedException;
+import com.google.common.hash.Hashing;
+import com.typesafe.config.Config;
+
+/**
+ * Deletes servers in the background and verifies that they are gone, so that deleting instances
+ * does not have to wait for MCP. Every deletion is recorded in an append-only journal before it is
+ * acknowledged and marked as done once the server no longer exists, and deletions that are still
+ * pending when the plugin restarts are resumed by replaying the journal. Failed deletions are
+ * retried with a backoff that doubles up to a limit, except when the account is not allowed to
+ * delete the server. Attempts run on a bounded worker pool, as throttled MCP calls may wait, and
+ * the scheduler only times the backoffs. Reapers are shared by all providers of the same account.
+ */
+class DeletionReaper {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DeletionReaper.class);
+
+  private static final ConcurrentMap<File, DeletionReaper> REAPERS = new ConcurrentHashMap<File, DeletionReaper>();
+
+  private static final String PENDING = "PENDING";
+  private static final String DONE = "DONE";
+  private static final String FAILED = "FAILED";
+
+  private final File journal;
+  private final DimensionDataCredentials credentials;
+  private final OperationPoller poller;
+  private final int maxAttempts;
+  private final long initialBackoffSeconds;
+  private final long maxBackoffSeconds;
+
+  private final Executor executor;
+  private final ScheduledExecutorService scheduler;
+  private final AtomicBoolean started = new AtomicBoolean();
+
+  /**
+   * The datacenter of every server whose deletion is not done yet, by server ID.
+   */
+  private final Map<String, String> pending = new LinkedHashMap<String, String>();
+  private final ConcurrentMap<String, CompletableFuture<Void>> outcomes =
+      new ConcurrentHashMap<String, CompletableFuture<Void>>();
+
+  /**
+   * Returns the reaper of the account of the specified credentials, creating it if needed. The
+   * journal of the account is kept in the specified directory.
+   *
+   * @param credentials         the credentials used to delete servers
+   * @param dimensiondataConfig the Dimension Data configuration
+   * @param journalDirectory    the directory of the journal
+   * @return the reaper
+   */
+  static DeletionReaper forAccount(DimensionDataCredentials credentials, Config dimensiondataConfig,
+      File journalDirectory) {
+    String account = Hashing.sha256()
+        .hashString(credentials.getAccount(), StandardCharsets.UTF_8)
+        .toString().substring(0, 12);
+    File journal = new File(journalDirectory, "dimensiondata-deletions-" + account + ".journal");
+    return REAPERS.computeIfAbsent(journal, key -> new DeletionReaper(key, credentials,
+        new OperationPoller(credentials, dimensiondataConfig),
+        dimensiondataConfig.getInt(Configurations.COMPUTE_DELETION_SECTION + "maxConcurrentDeletions"),
+        dimensiondataConfig.getInt(Configurations.COMPUTE_DELETION_SECTION + "maxAttempts"),
+        dimensiondataConfig.getLong(Configurations.COMPUTE_DELETION_SECTION + "initialBackoffSeconds"),
+        dimensiondataConfig.getLong(Configurations.COMPUTE_DELETION_SECTION + "maxBackoffSeconds")));
+  }
+
+  /**
+   * Creates a reaper with the specified parameters.
+   *
+   * @param journal               the journal file
+   * @param credentials           the credentials used to delete servers
+   * @param poller                the poller used to wait for servers to be gone
+   * @param maxConcurrentAttempts the maximum number of deletions attempted at the same time
+   * @param maxAttempts           the number of times a deletion is attempted before it is given up
+   * @param initialBackoffSeconds the seconds before a failed deletion is attempted again
+   * @param maxBackoffSeconds     the maximum seconds between two attempts
+   */
+  DeletionReaper(File journal, DimensionDataCredentials credentials, OperationPoller poller,
+      int maxConcurrentAttempts, int maxAttempts, long initialBackoffSeconds, long maxBackoffSeconds) {
+    this.journal = journal;
+    this.credentials = credentials;
+    this.poller = poller;
+    this.maxAttempts = Math.max(maxAttempts, 1);
+    this.initialBackoffSeconds = initialBackoffSeconds;
+    this.maxBackoffSeconds = maxBackoffSeconds;
+    this.executor = WorkerPools.newBoundedPool("dimensiondata-reaper-%d", Math.max(maxConcurrentAttempts, 1));
+    this.scheduler = WorkerPools.newScheduler("dimensiondata-reaper-backoff-%d");
+  }
+
+  /**
+   * Resumes the deletions left pending by a previous run, the first time it is called.
+   */
+  void start() {
+    if (!started.compareAndSet(false, true)) {
+      return;
+    }
+    Map<String, String> replayed;
+    try {
+      replayed = replay();
+    } catch (IOException e) {
+      LOG.error("Unable to replay deletion journal '{}': {}", journal, e.getMessage());
+      return;
+    }
+    if (!replayed.isEmpty()) {
+      LOG.info(">> Resuming {} pending server deletions from '{}'.", replayed.size(), journal);
+    }
+    for (Map.Entry<String, String> entry : replayed.entrySet()) {
+      reap(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Records the deletion of the specified server and deletes it in the background. The deletion is
+   * in the journal once this returns.
+   *
+   * @param serverId     the server ID
+   * @param datacenterId the datacenter of the server
+   * @return a future that completes once the server is gone, or fails if the deletion is given up
+   * @throws UncheckedIOException if the deletion cannot be recorded
+   */
+  CompletableFuture<Void> submit(String serverId, String datacenterId) {
+    synchronized (this) {
+      CompletableFuture<Void> outcome = outcomes.get(serverId);
+      if (outcome != null) {
+        return outcome;
+      }
+      try {
+        append(PENDING + " " + serverId + " " + datacenterId);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to record the deletion of server '" + serverId + "'", e);
+      }
+      pending.put(serverId, datacenterId);
+    }
+    return reap(serverId, datacenterId);
+  }
+
+  private CompletableFuture<Void> reap(String serverId, String datacenterId) {
+    CompletableFuture<Void> outcome = new CompletableFuture<Void>();
+    CompletableFuture<Void> previous = outcomes.putIfAbsent(serverId, outcome);
+    if (previous != null) {
+      return previous;
+    }
+    executor.execute(() -> attempt(serverId, datacenterId, 1, outcome));
+    return outcome;
+  }
+
+  private void attempt(String serverId, String datacenterId, int attempt, CompletableFuture<Void> outcome) {
+    CompletableFuture<Void> deletion;
+    try {
+      LOG.info(">> Deleting server '{}' (attempt {} of {}).", serverId, attempt, maxAttempts);
+      credentials.getCompute().server().deleteServer(serverId);
+      deletion = poller.awaitServerDeleted(serverId, datacenterId).thenApply(server -> null);
+    } catch (NotFoundException e) {
+      deletion = CompletableFuture.completedFuture(null);
+    } catch (RuntimeException e) {
+      deletion = new CompletableFuture<Void>();
+      deletion.completeExceptionally(e);
+    }
+
+    deletion.whenComplete((result, e) -> {
+      if (e == null) {
+        LOG.info(">> Server '{}' deleted.", serverId);
+        finish(serverId, DONE, null);
+        outcome.complete(null);
+        return;
+      }
+      Throwable cause = OperationPoller.unwrap(e);
+      if (attempt >= maxAttempts || cause instanceof ForbiddenException || cause instanceof UnauthorizedException) {
+        LOG.error("Giving up deleting server '{}' after {} attempts: {}", serverId, attempt, cause.getMessage());
+        finish(serverId, FAILED, cause.getMessage());
+        outcome.completeExceptionally(cause);
+        return;
+      }
+      long backoffSeconds = backoffSeconds(attempt);
+      LOG.warn("Unable to delete server '{}' ({}), retrying in {} seconds.", serverId, cause.getMessage(),
+          backoffSeconds);
+      scheduler.schedule(() -> executor.execute(() -> attempt(serverId, datacenterId, attempt + 1, outcome)),
+          backoffSeconds, TimeUnit.SECONDS);
+    });
+  }
+
+  private long backoffSeconds(int attempt) {
+    return Math.min(initialBackoffSeconds << Math.min(attempt - 1, 20), maxBackoffSeconds);
+  }
+
+  /**
+   * Records the end of a deletion. The journal is emptied once no deletion is pending anymore, so
+   * that it does not grow forever.
+   */
+  private synchronized void finish(String serverId, String outcome, String message) {
+    pending.remove(serverId);
+    outcomes.remove(serverId);
+    try {
+      if (pending.isEmpty()) {
+        compact();
+      } else {
+        append(outcome + " " + serverId + (message == null ? "" : " " + message.replace('\n', ' ')));
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to record the end of the deletion of server '{}': {}", serverId, e.getMessage());
+    }
+  }
+
+  /**
+   * Reads the deletions that are not done yet from the journal and rewrites it with only those.
+   */
+  private synchronized Map<String, String> replay() throws IOException {
+    if (journal.exists()) {
+      for (String line : Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8)) {
+        String[] fields = line.split(" ", 3);
+        if (fields.length >= 3 && PENDING.equals(fields[0])) {
+          pending.put(fields[1], fields[2]);
+        } else if (fields.length >= 2 && (DONE.equals(fields[0]) || FAILED.equals(fields[0]))) {
+          pending.remove(fields[1]);
+        } else if (!line.isEmpty()) {
+          // A line cut short by a crash while it was appended.
+          LOG.warn("Ignoring malformed deletion journal entry: {}", line);
+        }
+      }
+      compact();
+    }
+    return new LinkedHashMap<String, String>(pending);
+  }
+
+  private void compact() throws IOException {
+    StringBuilder lines = new StringBuilder();
+    for (Map.Entry<String, String> entry : pending.entrySet()) {
+      lines.append(PENDING + " " + entry.getKey() + " " + entry.getValue() + "\n");
+    }
+    File compacted = new File(journal.getPath() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(compacted)) {
+      out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+      out.getFD().sync();
+    }
+    Files.move(compacted.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Appends a line to the journal and syncs it, so that neither a deletion nor its end is lost or
+   * repeated after a crash.
+   */
+  private void append(String line) throws IOException {
+    File directory = journal.getParentFile();
+    if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create directory '" + directory + "'");
+    }
+    try (FileOutputStream out = new FileOutputStream(journal, true)) {
+      out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+      out.getFD().sync();
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.cloudera.director.dimensiondata.compute;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -46,6 +47,19 @@ public class DimensionDataComputeInstanceTemplate extends ComputeInstanceTemplat
     return CONFIGURATION_PROPERTIES;
   }
 
+  /**
+   * Returns the list of configuration properties, suggesting the specified images.
+   *
+   * @param imageNames the image names suggested for the image of templates
+   * @return the list of configuration properties
+   */
+  static List<ConfigurationProperty> getConfigurationProperties(List<String> imageNames) {
+    return ConfigurationPropertiesUtil.merge(CONFIGURATION_PROPERTIES, Collections.singletonList(
+        DimensionDataComputeInstanceTemplateConfigurationProperty.imageName()
+            .addValidValues(imageNames.toArray(new String[imageNames.size()]))
+            .build()));
+  }
+
   /**
    * Creates a Dimension Data instance template with the specified parameters.
    *
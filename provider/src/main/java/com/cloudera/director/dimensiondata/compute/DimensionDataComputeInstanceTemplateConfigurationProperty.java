@@ -27,16 +27,7 @@ import com.cloudera.director.spi.v1.model.util.SimpleConfigurationPropertyBuilde
  */
 public enum DimensionDataComputeInstanceTemplateConfigurationProperty implements ConfigurationPropertyToken {
 
-  IMAGE_NAME(new SimpleConfigurationPropertyBuilder()
-      .configKey(ComputeInstanceTemplateConfigurationPropertyToken.IMAGE.unwrap().getConfigKey())
-      .name("Image name")
-      .addValidValues("REDHAT764", "REDHAT664")
-      .defaultValue("4ef9c9d4-b188-4b71-9c94-c85e8f257b9e")
-      .defaultDescription("OS image name for server. Default value is RedHat 6 64 Bit image with 4 CPU and 8GB RAM")
-      .defaultErrorMessage("Image name is mandatory")
-      .widget(ConfigurationProperty.Widget.OPENLIST)
-      .required(true)
-      .build()),
+  IMAGE_NAME(imageName().build()),
   
   DATACENTER(new SimpleConfigurationPropertyBuilder()
 	      .configKey("datacenter")
@@ -160,4 +151,21 @@ public enum DimensionDataComputeInstanceTemplateConfigurationProperty implements
   public ConfigurationProperty unwrap() {
     return configurationProperty;
   }
+
+  /**
+   * Returns a builder of the image name property. The aliases and names of the images available
+   * to the account are added as valid values once they are known.
+   *
+   * @return a builder of the image name property
+   */
+  static SimpleConfigurationPropertyBuilder imageName() {
+    return new SimpleConfigurationPropertyBuilder()
+        .configKey(ComputeInstanceTemplateConfigurationPropertyToken.IMAGE.unwrap().getConfigKey())
+        .name("Image name")
+        .defaultValue("4ef9c9d4-b188-4b71-9c94-c85e8f257b9e")
+        .defaultDescription("OS image name for server. Default value is RedHat 6 64 Bit image with 4 CPU and 8GB RAM")
+        .defaultErrorMessage("Image name is mandatory")
+        .widget(ConfigurationProperty.Widget.OPENLIST)
+        .required(true);
+  }
 }
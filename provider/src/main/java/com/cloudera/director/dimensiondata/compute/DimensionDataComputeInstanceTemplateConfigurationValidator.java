@@ -29,32 +29,26 @@ import static com.cloudera.director.spi.v1.model.InstanceTemplate.InstanceTempla
 import static com.cloudera.director.spi.v1.model.util.Validations.addError;
 
 import java.security.InvalidParameterException;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.cloudera.director.dimensiondata.util.WorkerPools;
 import com.cloudera.director.spi.v1.model.ConfigurationValidator;
 import com.cloudera.director.spi.v1.model.Configured;
 import com.cloudera.director.spi.v1.model.LocalizationContext;
 import com.cloudera.director.spi.v1.model.exception.PluginExceptionConditionAccumulator;
 import com.cloudera.director.spi.v1.model.exception.TransientProviderException;
 import com.dimensiondata.cloud.client.ClientRuntimeException;
-import com.dimensiondata.cloud.client.Cloud;
-import com.dimensiondata.cloud.client.Filter;
-import com.dimensiondata.cloud.client.OrderBy;
-import com.dimensiondata.cloud.client.Param;
 import com.dimensiondata.cloud.client.http.ForbiddenException;
 import com.dimensiondata.cloud.client.http.NotFoundException;
 import com.dimensiondata.cloud.client.http.RequestException;
 import com.dimensiondata.cloud.client.http.ServiceUnavailableException;
 import com.dimensiondata.cloud.client.http.UnauthorizedException;
 import com.dimensiondata.cloud.client.model.DatacenterType;
-import com.dimensiondata.cloud.client.model.NetworkDomainType;
-import com.dimensiondata.cloud.client.model.NetworkDomains;
-import com.dimensiondata.cloud.client.model.VlanType;
-import com.dimensiondata.cloud.client.model.Vlans;
 
 /**
  * Validates Google compute instance template configuration.
@@ -86,6 +80,8 @@ public class DimensionDataComputeInstanceTemplateConfigurationValidator implemen
  
   static final String IMAGE_NOT_FOUND_MSG = "Image '%s' not found for project '%s'.";
 
+  static final String IMAGE_IN_OTHER_DATACENTER_MSG = "Image '%s' is in datacenter '%s', not in '%s'.";
+
   static final String MALFORMED_IMAGE_URL_MSG = "Malformed image url '%s'.";
 
   static final String INVALID_BOOT_DISK_TYPE_MSG =
@@ -140,6 +136,18 @@ public class DimensionDataComputeInstanceTemplateConfigurationValidator implemen
       "The first character must be a lowercase letter, and all following characters must be a dash, lowercase " +
       "letter, or digit.";
 
+  /**
+   * The number of remote checks of a validation that may run at the same time.
+   */
+  private static final int VALIDATION_THREADS = 4;
+
+  /**
+   * The pool the remote checks of every validation run on. Validations have a pool of their own, so that they never
+   * wait behind the deployments, claims and lookups queued on the worker pool of a provider.
+   */
+  private static final ExecutorService VALIDATION_POOL =
+      WorkerPools.newBoundedPool("dimensiondata-validation-%d", VALIDATION_THREADS);
+
   /**
    * The Dimension Data compute provider.
    */
@@ -167,27 +175,34 @@ public class DimensionDataComputeInstanceTemplateConfigurationValidator implemen
   public void validate(String name, Configured configuration,
       PluginExceptionConditionAccumulator accumulator, LocalizationContext localizationContext) {
 
-    checkDataCenter(configuration, accumulator, localizationContext);
-    checkImage(configuration, accumulator, localizationContext);
-    checkBootDiskType(configuration, accumulator, localizationContext);
-    checkBootDiskSize(configuration, accumulator, localizationContext);
-    checkDataDiskCount(configuration, accumulator, localizationContext);
-    checkDataDiskType(configuration, accumulator, localizationContext);
-    checkDataDiskSize(configuration, accumulator, localizationContext);
- //   checkMachineType(configuration, accumulator, localizationContext);
-    checkNetworkDomain(configuration, accumulator, localizationContext);
-    checkVlan(configuration, accumulator, localizationContext);
-    checkPrefix(configuration, accumulator, localizationContext);
+    // The remote checks run concurrently on the validation pool, the network checks once the resources they live in
+    // were found, while the local checks run right away. Conditions are reported in the order below whichever check
+    // finishes first. Every MCP read is shared by the checks.
+    ValidationSession session = new ValidationSession(provider.getCredentials().getCompute());
+    new ValidationGraph()
+        .add("datacenter", checks -> checkDataCenter(session, configuration, checks, localizationContext))
+        .add("image", checks -> checkImage(session, configuration, checks, localizationContext))
+        .addLocal("bootDiskType", checks -> checkBootDiskType(configuration, checks, localizationContext))
+        .addLocal("bootDiskSize", checks -> checkBootDiskSize(configuration, checks, localizationContext))
+        .addLocal("dataDiskCount", checks -> checkDataDiskCount(configuration, checks, localizationContext))
+        .addLocal("dataDiskType", checks -> checkDataDiskType(configuration, checks, localizationContext))
+        .addLocal("dataDiskSize", checks -> checkDataDiskSize(configuration, checks, localizationContext))
+        .add("networkDomain", checks -> checkNetworkDomain(session, configuration, checks, localizationContext),
+            "datacenter")
+        .add("vlan", checks -> checkVlan(session, configuration, checks, localizationContext), "networkDomain")
+        .addLocal("prefix", checks -> checkPrefix(configuration, checks, localizationContext))
+        .run(VALIDATION_POOL, accumulator);
   }
 
   /**
    * Validates the configured datacenter.
    *
+   * @param session             the MCP reads of the validation
    * @param configuration       the configuration to be validated
    * @param accumulator         the exception condition accumulator
    * @param localizationContext the localization context
    */
-  void checkDataCenter(Configured configuration,
+  void checkDataCenter(ValidationSession session, Configured configuration,
       PluginExceptionConditionAccumulator accumulator,
       LocalizationContext localizationContext) {
 
@@ -196,12 +211,8 @@ public class DimensionDataComputeInstanceTemplateConfigurationValidator implemen
     if (dcName != null) {
       LOG.info(">> Querying Datacenter '{}'", dcName);
 
-      DimensionDataCredentials credentials = provider.getCredentials();
-      Cloud compute = credentials.getCompute();
-      //String regionName = credentials.getRegion();
-
       try {
-    	  compute.datacenter().getDatacenter(dcName);
+    	  session.getDatacenter(dcName);
       } catch (ForbiddenException | InvalidParameterException | NotFoundException | RequestException | ServiceUnavailableException | UnauthorizedException  e) {
         if (e.getClass() == NotFoundException.class) {
           addError(accumulator, DATACENTER, localizationContext, null, DATACENTER_NOT_FOUND_MSG,
@@ -218,22 +229,38 @@ public class DimensionDataComputeInstanceTemplateConfigurationValidator implemen
   /**
    * Validates the configured image.
    *
+   * @param session             the MCP reads of the validation
    * @param configuration       the configuration to be validated
    * @param accumulator         the exception condition accumulator
    * @param localizationContext the localization context
    */
-  void checkImage(Configured configuration,
+  void checkImage(ValidationSession session, Configured configuration,
       PluginExceptionConditionAccumulator accumulator,
       LocalizationContext localizationContext) {
 
     String sourceImage = configuration.getConfigurationValue(IMAGE_NAME, localizationContext);
 
       if (sourceImage != null && !sourceImage.isEmpty()) {
-        DimensionDataCredentials credentials = provider.getCredentials();
-        Cloud compute = credentials.getCompute();
-
+        // Images in the catalog are known without asking MCP. Others may have been created since it was listed.
+        String datacenterId = configuration.getConfigurationValue(DATACENTER, localizationContext);
+        ImageCatalog imageCatalog = provider.getImageCatalog();
+        boolean loaded = imageCatalog.awaitLoaded();
+        if (imageCatalog.resolve(datacenterId, sourceImage) != null) {
+          return;
+        }
+        String imageDatacenterId = imageCatalog.getOtherDatacenterId(datacenterId, sourceImage);
+        if (imageDatacenterId != null) {
+          addError(accumulator, IMAGE_NAME, localizationContext, null, IMAGE_IN_OTHER_DATACENTER_MSG,
+              sourceImage, imageDatacenterId, datacenterId);
+          return;
+        }
+        if (!loaded && imageCatalog.isAlias(sourceImage)) {
+          // MCP only knows images by ID and name, so an alias cannot be checked without the catalog.
+          LOG.info("Image '{}' not being checked since images are not listed yet.", sourceImage);
+          return;
+        }
         try {
-            compute.image().getOsImage(sourceImage);
+            session.getOsImage(sourceImage);
         }catch (ForbiddenException | InvalidParameterException | NotFoundException | RequestException | ServiceUnavailableException | UnauthorizedException  e) 
         {
            if (e.getClass() == NotFoundException.class) {
@@ -260,7 +287,13 @@ public class DimensionDataComputeInstanceTemplateConfigurationValidator implemen
       PluginExceptionConditionAccumulator accumulator,
       LocalizationContext localizationContext) {
 
-  	}
+    String bootDiskType = configuration.getConfigurationValue(BOOT_DISK_TYPE, localizationContext);
+
+    if (bootDiskType != null && !DiskProvisioner.SPEEDS_BY_DISK_TYPE.containsKey(bootDiskType)) {
+      addError(accumulator, BOOT_DISK_TYPE, localizationContext, null, INVALID_BOOT_DISK_TYPE_MSG,
+          bootDiskType, String.join(", ", DiskProvisioner.SPEEDS_BY_DISK_TYPE.keySet()));
+    }
+  }
 
 
   /**
@@ -331,6 +364,10 @@ public class DimensionDataComputeInstanceTemplateConfigurationValidator implemen
 
     String dataDiskType = configuration.getConfigurationValue(DATA_DISK_TYPE, localizationContext);
 
+    if (dataDiskType != null && !DiskProvisioner.SPEEDS_BY_DISK_TYPE.containsKey(dataDiskType)) {
+      addError(accumulator, DATA_DISK_TYPE, localizationContext, null, INVALID_DATA_DISK_TYPE_MSG,
+          dataDiskType, String.join(", ", DiskProvisioner.SPEEDS_BY_DISK_TYPE.keySet()));
+    }
   }
 
   /**
@@ -409,11 +446,12 @@ public class DimensionDataComputeInstanceTemplateConfigurationValidator implemen
   /**
    * Validates the configured network domain.
    *
+   * @param session             the MCP reads of the validation
    * @param configuration       the configuration to be validated
    * @param accumulator         the exception condition accumulator
    * @param localizationContext the localization context
    */
-  void checkNetworkDomain(Configured configuration,
+  void checkNetworkDomain(ValidationSession session, Configured configuration,
       PluginExceptionConditionAccumulator accumulator,
       LocalizationContext localizationContext) {
 	  
@@ -423,20 +461,10 @@ public class DimensionDataComputeInstanceTemplateConfigurationValidator implemen
     if (networkName != null) {
       LOG.info(">> Querying network '{}'", networkName);
 
-      DimensionDataCredentials credentials = provider.getCredentials();
-      Cloud compute = credentials.getCompute();
-      
       try {
-        DatacenterType datacenterType = compute.datacenter().getDatacenter(datacenterId);
-        NetworkDomains networkDomains = compute.networkDomain().listNetworkDomains(20, 1, OrderBy.EMPTY, new Filter(
-        	    											new Param("datacenterId", datacenterType.getId())));
-        boolean found = false;
-        for(NetworkDomainType network: networkDomains.getNetworkDomain()){
-        	if(network.getName().equals(networkName)){
-        		found = true;
-        		break;
-        	}
-        }
+        DatacenterType datacenterType = session.getDatacenter(datacenterId);
+        boolean found = session.listNetworkDomains(datacenterType.getId()).stream()
+            .anyMatch(network -> network.getName().equals(networkName));
         if(!found){
         	throw new NotFoundException();
         }
@@ -456,11 +484,12 @@ public class DimensionDataComputeInstanceTemplateConfigurationValidator implemen
   /**
    * Validates the configured vlan.
    *
+   * @param session             the MCP reads of the validation
    * @param configuration       the configuration to be validated
    * @param accumulator         the exception condition accumulator
    * @param localizationContext the localization context
    */
-  void checkVlan(Configured configuration,
+  void checkVlan(ValidationSession session, Configured configuration,
       PluginExceptionConditionAccumulator accumulator,
       LocalizationContext localizationContext) {
 
@@ -471,26 +500,10 @@ public class DimensionDataComputeInstanceTemplateConfigurationValidator implemen
     if (vlanIp != null) {
       LOG.info(">> Querying vlan '{}'", vlanIp);
 
-      DimensionDataCredentials credentials = provider.getCredentials();
-      Cloud compute = credentials.getCompute();
-      
       try {
-    	DatacenterType datacenterType = compute.datacenter().getDatacenter(datacenterId);
-        NetworkDomains networkDomains = compute.networkDomain().listNetworkDomains(20, 1, OrderBy.EMPTY, new Filter(
-          	    											new Param("datacenterId", datacenterType.getId())));
-        boolean found = false;
-        for(NetworkDomainType network: networkDomains.getNetworkDomain()){
-        	if(network.getName().equals(networkName)){
-        		Vlans vlans = compute.vlan().listVlans(20, 1, OrderBy.EMPTY, new Filter(
-          	    											new Param("networkDomainId", network.getId())));
-        		for(VlanType vlan: vlans.getVlan()){
-        			if(vlan.getIpv4GatewayAddress().equals(vlanIp)){
-        				found = true;
-        				break;
-        			}
-        		}
-        	}
-        }
+    	DatacenterType datacenterType = session.getDatacenter(datacenterId);
+        boolean found = provider.getVlanIndex().find(datacenterType.getId(), networkName, vlanIp,
+            () -> session.listNetworkDomains(datacenterType.getId())) != null;
         
         if(!found){
         	throw new NotFoundException();
@@ -16,27 +16,35 @@
 
 package com.cloudera.director.dimensiondata.compute;
 
-import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.DATACENTER;
-import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.IMAGE_NAME;
-import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.NETWORK_NAME;
-import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.TYPE;
-import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.VLAN_IPV4;
-import static com.cloudera.director.spi.v1.compute.ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken.SSH_PASSWORD;
-import static com.cloudera.director.spi.v1.compute.ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken.SSH_USERNAME;
-import static com.cloudera.director.spi.v1.model.InstanceTemplate.InstanceTemplateConfigurationPropertyToken.INSTANCE_NAME_PREFIX;
-
+import java.io.File;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.director.dimensiondata.Configurations;
+import com.cloudera.director.dimensiondata.compute.DiskProvisioner.DataDisks;
+import com.cloudera.director.dimensiondata.compute.NetworkTopologyResolver.NetworkLease;
+import com.cloudera.director.dimensiondata.compute.NetworkTopologyResolver.NetworkTopology;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.PendingDeployment;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.ServerDeployment;
 import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.cloudera.director.dimensiondata.util.PagedListings;
+import com.cloudera.director.dimensiondata.util.WorkerPools;
 import com.cloudera.director.spi.v1.compute.util.AbstractComputeProvider;
 import com.cloudera.director.spi.v1.model.ConfigurationProperty;
 import com.cloudera.director.spi.v1.model.ConfigurationValidator;
@@ -47,10 +55,10 @@ import com.cloudera.director.spi.v1.model.LocalizationContext;
 import com.cloudera.director.spi.v1.model.Resource;
 import com.cloudera.director.spi.v1.model.exception.PluginExceptionConditionAccumulator;
 import com.cloudera.director.spi.v1.model.exception.PluginExceptionDetails;
+import com.cloudera.director.spi.v1.model.exception.TransientProviderException;
 import com.cloudera.director.spi.v1.model.exception.UnrecoverableProviderException;
 import com.cloudera.director.spi.v1.model.util.CompositeConfigurationValidator;
 import com.cloudera.director.spi.v1.model.util.SimpleInstanceState;
-import com.cloudera.director.spi.v1.model.util.SimpleResourceTemplate;
 import com.cloudera.director.spi.v1.provider.ResourceProviderMetadata;
 import com.cloudera.director.spi.v1.provider.util.SimpleResourceProviderMetadata;
 import com.cloudera.director.spi.v1.util.ConfigurationPropertiesUtil;
@@ -64,16 +72,13 @@ import com.dimensiondata.cloud.client.http.NotFoundException;
 import com.dimensiondata.cloud.client.http.RequestException;
 import com.dimensiondata.cloud.client.http.ServiceUnavailableException;
 import com.dimensiondata.cloud.client.http.UnauthorizedException;
-import com.dimensiondata.cloud.client.model.DeployNetworkDomainType;
 import com.dimensiondata.cloud.client.model.DeployServerType;
-import com.dimensiondata.cloud.client.model.DeployVlanType;
 import com.dimensiondata.cloud.client.model.NewNicType;
-import com.dimensiondata.cloud.client.model.ResponseType;
 import com.dimensiondata.cloud.client.model.ServerType;
-import com.dimensiondata.cloud.client.model.Servers;
-import com.google.common.collect.Lists;
-import com.jayway.awaitility.Awaitility;
-import com.jayway.awaitility.core.ConditionTimeoutException;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
 import com.typesafe.config.Config;
 
 /**
@@ -92,11 +97,8 @@ public class DimensionDataComputeProvider
 	 */
 	public static final String ID = DimensionDataComputeProvider.class.getCanonicalName();
 
-	public static final ResourceProviderMetadata METADATA = SimpleResourceProviderMetadata.builder().id(ID)
-			.name("Dimension Data provider").description("Dimension Data Managed Cloud Platform - Compute")
-			.providerClass(DimensionDataComputeProvider.class).providerConfigurationProperties(CONFIGURATION_PROPERTIES)
-			.resourceTemplateConfigurationProperties(DimensionDataComputeInstanceTemplate.getConfigurationProperties())
-			.resourceDisplayProperties(DimensionDataComputeInstance.getDisplayProperties()).build();
+	public static final ResourceProviderMetadata METADATA =
+			buildMetadata(DimensionDataComputeInstanceTemplate.getConfigurationProperties());
 
 	private DimensionDataCredentials credentials;
 	private Config applicationProperties;
@@ -104,18 +106,51 @@ public class DimensionDataComputeProvider
 
 	private final ConfigurationValidator resourceTemplateConfigurationValidator;
 
+	private final ExecutorService executor;
+	private final OperationPoller poller;
+	private final NetworkTopologyResolver topologyResolver;
+	private final ServerDeploymentEngine deploymentEngine;
+	private final StandbyPool standbyPool;
+	private final ParkedServerPool parkedServers;
+	private final ServerSnapshotCache serverSnapshots;
+	private final ServerInventory serverInventory;
+	private final int findTimeoutSeconds;
+	private final boolean releaseUnusedNetworks;
+	private final DeletionReaper deletionReaper;
+	private final boolean deleteInBackground;
+	private final ImageCatalog imageCatalog;
+	private final VlanIndex vlanIndex;
+	private final FingerprintKey fingerprintKey;
+
+	/**
+	 * The metadata suggesting the images of the catalog, and the suggestions it was built with.
+	 */
+	private ResourceProviderMetadata imageMetadata;
+	private List<String> suggestedImageNames;
+
+	/**
+	 * The compiled plans of the templates in use, by template identity.
+	 */
+	private final LoadingCache<DimensionDataComputeInstanceTemplate, TemplatePlan> templatePlans = CacheBuilder
+			.newBuilder().weakKeys().build(new CacheLoader<DimensionDataComputeInstanceTemplate, TemplatePlan>() {
+				@Override
+				public TemplatePlan load(DimensionDataComputeInstanceTemplate template) {
+					return TemplatePlan.compile(template, getLocalizationContext(), fingerprintKey);
+				}
+			});
+
 	public DimensionDataComputeProvider(Configured configuration, DimensionDataCredentials credentials,
-			Config applicationProperties, Config dimensiondataConfig, LocalizationContext cloudLocalizationContext) {
+			Config applicationProperties, Config dimensiondataConfig, File configurationDirectory,
+			LocalizationContext cloudLocalizationContext) {
 		super(configuration, METADATA, cloudLocalizationContext);
 
 		this.credentials = credentials;
 		this.applicationProperties = applicationProperties;
 		this.dimensiondataConfig = dimensiondataConfig;
 
-		Cloud compute = credentials.getCompute();
-		// Verify credentials and connectivity
+		// Verify credentials and connectivity, unless the launcher or another provider just did
 		try {
-			compute.datacenter().listDatacenters(1, 1, OrderBy.EMPTY);
+			credentials.verify();
 		} catch (ForbiddenException | InvalidParameterException | NotFoundException | RequestException
 				| ServiceUnavailableException | UnauthorizedException e) {
 			throw new ClientRuntimeException("Unable to list datacenters: " + e);
@@ -124,11 +159,65 @@ public class DimensionDataComputeProvider
 		this.resourceTemplateConfigurationValidator = new CompositeConfigurationValidator(
 				METADATA.getResourceTemplateConfigurationValidator(),
 				new DimensionDataComputeInstanceTemplateConfigurationValidator(this));
+
+		this.executor = WorkerPools.newBoundedPool("dimensiondata-worker-%d",
+				dimensiondataConfig.getInt(Configurations.COMPUTE_DEPLOYMENT_SECTION + "maxConcurrentDeployments"));
+		this.poller = new OperationPoller(credentials, dimensiondataConfig);
+		this.vlanIndex = VlanIndex.forAccount(credentials, dimensiondataConfig);
+		this.topologyResolver = new NetworkTopologyResolver(credentials, poller, executor, vlanIndex);
+		this.deploymentEngine = new ServerDeploymentEngine(credentials, poller, executor,
+				dimensiondataConfig.getInt(Configurations.COMPUTE_DEPLOYMENT_SECTION + "stragglerTimeoutSeconds"));
+		this.standbyPool = StandbyPool.forAccount(credentials, dimensiondataConfig, configurationDirectory);
+		this.fingerprintKey = FingerprintKey.forDirectory(configurationDirectory);
+		this.parkedServers = ParkedServerPool.forAccount(credentials, dimensiondataConfig);
+		this.serverSnapshots = new ServerSnapshotCache(
+				dimensiondataConfig.getLong(Configurations.COMPUTE_CACHE_SECTION + "serverTtlMillis"),
+				dimensiondataConfig.getLong(Configurations.COMPUTE_CACHE_SECTION + "absentTtlSeconds"),
+				dimensiondataConfig.getLong(Configurations.COMPUTE_CACHE_SECTION + "absentMaxSize"));
+		this.serverInventory = ServerInventory.forAccount(credentials, dimensiondataConfig);
+		this.serverInventory.start();
+		this.findTimeoutSeconds = dimensiondataConfig.getInt(Configurations.COMPUTE_LOOKUP_SECTION + "timeoutSeconds");
+		this.releaseUnusedNetworks = dimensiondataConfig.getBoolean(Configurations.COMPUTE_NETWORK_SECTION
+				+ "releaseUnused");
+
+		// Deletions left pending by a previous run are resumed even if deletions are no longer journaled.
+		this.deletionReaper = configurationDirectory != null
+				? DeletionReaper.forAccount(credentials, dimensiondataConfig, configurationDirectory)
+				: null;
+		if (deletionReaper != null) {
+			deletionReaper.start();
+		}
+		boolean fireAndForget = dimensiondataConfig.getBoolean(Configurations.COMPUTE_DELETION_SECTION
+				+ "fireAndForget");
+		if (fireAndForget && deletionReaper == null) {
+			LOG.warn("No configuration directory to journal deletions in, deleting servers in the foreground.");
+		}
+		this.deleteInBackground = fireAndForget && deletionReaper != null;
+
+		this.imageCatalog = ImageCatalog.forAccount(credentials, dimensiondataConfig);
+		this.imageCatalog.start();
+	}
+
+	private static ResourceProviderMetadata buildMetadata(List<ConfigurationProperty> templateProperties) {
+		return SimpleResourceProviderMetadata.builder().id(ID)
+				.name("Dimension Data provider").description("Dimension Data Managed Cloud Platform - Compute")
+				.providerClass(DimensionDataComputeProvider.class).providerConfigurationProperties(CONFIGURATION_PROPERTIES)
+				.resourceTemplateConfigurationProperties(templateProperties)
+				.resourceDisplayProperties(DimensionDataComputeInstance.getDisplayProperties()).build();
 	}
 
 	@Override
-	public ResourceProviderMetadata getProviderMetadata() {
-		return METADATA;
+	public synchronized ResourceProviderMetadata getProviderMetadata() {
+		if (imageCatalog == null) {
+			return METADATA;
+		}
+		// Suggest the images of the catalog, rebuilding the metadata only when the catalog was refreshed.
+		List<String> imageNames = imageCatalog.getSuggestions();
+		if (imageNames != suggestedImageNames) {
+			imageMetadata = buildMetadata(DimensionDataComputeInstanceTemplate.getConfigurationProperties(imageNames));
+			suggestedImageNames = imageNames;
+		}
+		return imageMetadata;
 	}
 
 	@Override
@@ -155,220 +244,353 @@ public class DimensionDataComputeProvider
 
 		PluginExceptionConditionAccumulator accumulator = new PluginExceptionConditionAccumulator();
 
-		LocalizationContext providerLocalizationContext = getLocalizationContext();
-		LocalizationContext templateLocalizationContext = SimpleResourceTemplate
-				.getTemplateLocalizationContext(providerLocalizationContext);
-
-		Cloud compute = credentials.getCompute();
-
-		// Save the server instance ID's for polling
-		List<ResponseType> serverInstanceIds = new ArrayList<ResponseType>();
-
-		// Compose the network domain
-		String networkDomainName = template.getConfigurationValue(NETWORK_NAME, templateLocalizationContext);
-		String networkDomainType = template.getConfigurationValue(TYPE, templateLocalizationContext);
-		String datacenter = template.getConfigurationValue(DATACENTER, templateLocalizationContext);
-
-		DeployNetworkDomainType networkDomain = new DeployNetworkDomainType();
-		networkDomain.setDatacenterId(datacenter);
-		networkDomain.setType(networkDomainType);
-		networkDomain.setName(networkDomainName);
-		networkDomain.setDescription("Cloudera Director 2.1.1 dedicated network.");
-
-		// Deploy the network domain
-		ResponseType networkdomain = null;
-		String networkDomainId = null;
-		try {
-			networkdomain = compute.networkDomain().deployNetworkDomain(networkDomain);
-			networkDomainId = compute.networkDomain().getIdFromDeployResponse(networkdomain);
-
-			LOG.info(">> Issue request to create network domain.");
-		} catch (ForbiddenException | InvalidParameterException | NotFoundException | RequestException
-				| ServiceUnavailableException | UnauthorizedException ec) {
-
-			LOG.error(ec.getMessage());
-		} catch (ConditionTimeoutException e) {
-			LOG.error(e.getMessage());
-		}
-
-		// Compose the vlan.
-		String vlanIp = template.getConfigurationValue(VLAN_IPV4, templateLocalizationContext);
-		DeployVlanType vlanType = new DeployVlanType();
-		vlanType.setNetworkDomainId(networkDomainId);
-		vlanType.setName(networkDomainName+"_Vlan");
-		vlanType.setPrivateIpv4BaseAddress(vlanIp);
-
-		// Deploy Vlan
-		ResponseType vlan = null;
-		String vlanId = null;
-		
-		if (pollPendingOperations("Network Domain", networkDomainId, "NETWORK", compute, accumulator)) {
-			LOG.info(">> Completed create network domain.");
-			LOG.info(">> Start creating Vlan.");
-			try {
-				vlan = compute.vlan().deployVlan(vlanType);
-				vlanId = compute.vlan().getIdFromDeployResponse(vlan);
-			} catch (ForbiddenException | InvalidParameterException | NotFoundException | RequestException
-					| ServiceUnavailableException | UnauthorizedException ec) {
-				ec.printStackTrace();
-			} catch (Exception c) {
-				c.printStackTrace();
-			}
+		TemplatePlan plan = planOf(template);
+		String datacenter = plan.getDatacenter();
+		for (String instanceId : instanceIds) {
+			serverSnapshots.beginDeployment(plan.getInstanceName(instanceId));
 		}
-		
-		if (pollPendingOperations("Vlan", vlanId, "VLAN", compute, accumulator)) {
-			// Compose the instance metadata containing the SSH user name,
-			// password and tags.
-			LOG.info(">> Completed creating the vlan.");
-			//List<Metadata.Items> metadataItemsList = new ArrayList<Metadata.Items>();
-
-			String sshUserName = template.getConfigurationValue(SSH_USERNAME, templateLocalizationContext);
-			String sshPassword = template.getConfigurationValue(SSH_PASSWORD, templateLocalizationContext);
-
-			/*for (Map.Entry<String, String> tag : template.getTags().entrySet()) {
-				metadataItemsList.add(new Metadata.Items().setKey(tag.getKey()).setValue(tag.getValue()));
-			}*/
 
+		// Resolve the network domain and vlan, creating them only if they do not exist yet. The network domain is leased
+		// so that it is not released before the servers using it have been submitted.
+		CompletableFuture<NetworkLease> lease = topologyResolver.lease(datacenter, plan.getNetworkDomainName());
+		CompletableFuture<NetworkTopology> topology = lease.thenCompose(leased -> topologyResolver.resolve(datacenter,
+				plan.getNetworkDomainName(), plan.getNetworkDomainType(), plan.getVlanIpv4()));
+
+		// Resolve the source image and compose the servers while the network is still pending.
+		CompletableFuture<Map<String, DeployServerType>> deployRequests = CompletableFuture
+				.supplyAsync(() -> resolveSourceImage(plan), executor)
+				.thenApply(imageId -> composeServers(plan, instanceIds, imageId));
+
+		// Attach the servers to the network, then fire off every request at once and track each server on its own.
+		// Stop waiting as soon as minCount servers are ready, or as soon as that is no longer possible.
+		CompletableFuture<List<PendingDeployment>> submitted = deployRequests
+				.thenCombine(topology, DimensionDataComputeProvider::attachToNetwork)
+				.thenApply(requests -> deployServers(requests, plan, topology.join()));
+		submitted.exceptionally(e -> {
+			// Nothing was deployed, so the instances may be known to be absent again.
 			for (String instanceId : instanceIds) {
-				LOG.info(">> Start creating server instance: "+ instanceId);
-				String decoratedInstanceName = decorateInstanceName(template, instanceId, templateLocalizationContext);
-
-				if (sshUserName != null && !sshUserName.isEmpty() && sshPassword != null && !sshPassword.isEmpty()) {
-					String sshKeysValue = sshUserName + ":" + sshPassword;
-
-					//metadataItemsList.add(new Metadata.Items().setKey("sshKeys").setValue(sshKeysValue));
+				serverSnapshots.endDeployment(plan.getInstanceName(instanceId));
+			}
+			return null;
+		});
+		submitted
+				.thenCompose(pending -> CompletableFuture.allOf(pending.stream()
+						.map(PendingDeployment::getSubmission)
+						.toArray(CompletableFuture<?>[]::new)))
+				.whenComplete((done, e) -> lease.thenAccept(NetworkLease::close));
+		CompletableFuture<List<PendingDeployment>> deployments = submitted
+				.thenCompose(pending -> ServerDeploymentEngine.awaitQuorum(pending, minCount).thenApply(quorum -> pending));
+
+		List<String> provisionedServerIds = new ArrayList<String>();
+		List<String> failedServerIds = new ArrayList<String>();
+		List<PendingDeployment> stragglers = new ArrayList<PendingDeployment>();
+
+		// The deployments are only missing if the pipeline failed before any server was submitted.
+		boolean submittedDeployments = OperationPoller.await(deployments, accumulator);
+		if (submittedDeployments) {
+			for (PendingDeployment pending : deployments.join()) {
+				ServerDeployment deployment = pending.getOutcome().getNow(null);
+				if (deployment == null) {
+					stragglers.add(pending);
+				} else if (deployment.isSuccessful()) {
+					provisionedServerIds.add(deployment.getServerId());
 				} else {
-					LOG.info("SSH credentials not set on instance '{}'. ", decoratedInstanceName);
+					LOG.error("Failed to create server instance '{}': {}", deployment.getInstanceId(),
+							deployment.getErrorMessage());
+					accumulator.addError(null, deployment.getErrorMessage());
+					if (deployment.getServerId() != null) {
+						failedServerIds.add(deployment.getServerId());
+					}
 				}
-
-				// Retrieve the source image.
-				String sourceImage = template.getConfigurationValue(IMAGE_NAME, templateLocalizationContext);
-
-				// Compose the instance.
-				DeployServerType serverType = new DeployServerType();
-				serverType.setName(decoratedInstanceName);
-				serverType.setStart(Boolean.TRUE);
-				serverType.setImageId(sourceImage);
-				serverType.setMemoryGb((long) 32);
-				DeployServerType.NetworkInfo networkInfoType = new DeployServerType.NetworkInfo();
-				networkInfoType.setNetworkDomainId(networkDomainId);
-				NewNicType newNicType = new NewNicType();
-				newNicType.setVlanId(vlanId);
-				networkInfoType.setPrimaryNic(newNicType);
-				serverType.setNetworkInfo(networkInfoType);
-				serverType.setAdministratorPassword(sshPassword);
-				DeployServerType.Cpu cpuType = new DeployServerType.Cpu();
-				cpuType.setCount((long) 4);
-				serverType.setCpu(cpuType);
-
-				// Fire off a request
-				ResponseType server = compute.server().deployServer(serverType);
-				pollPendingOperations("Server", networkDomainId, "SERVER", compute, accumulator);
-				// Save Response
-				serverInstanceIds.add(server);
-				LOG.info(">> Completed creating server instance: "+ instanceId);
 			}
 		}
-/*		// Clone a copy of all instances
-		List<ResponseType> successfulServers = new ArrayList<ResponseType>(serverInstanceIds);
-
-		// Poll the server list in reverse order, since the last request will
-		// take the longest it might be more efficient.
-		for (ResponseType serverInstanceId : Lists.reverse(serverInstanceIds)) {
-			String id = compute.server().getIdFromDeployResponse((serverInstanceId));
-			if (serverInstanceId.getResponseCode().equalsIgnoreCase("200")) {
+		forgetServers(plan, instanceIds);
 
-			} else {
-				successfulServers.remove(serverInstanceId);
-			}
-		}
+		int successfulServersCount = provisionedServerIds.size();
 
-		int successfulServersCount = successfulServers.size();
+		if (!submittedDeployments) {
+			LOG.info("No instances were provisioned out of {}, the allocation failed before any was deployed.",
+					instanceIds.size());
 
-		if (successfulServersCount < minCount) {
+			PluginExceptionDetails pluginExceptionDetails = new PluginExceptionDetails(
+					accumulator.getConditionsByKey());
+			throw new UnrecoverableProviderException("Problem allocating instances.", pluginExceptionDetails);
+		} else if (successfulServersCount < minCount) {
 			LOG.info("Provisioned {} instances out of {}. minCount is {}. Tearing down provisioned instances.",
 					successfulServersCount, instanceIds.size(), minCount);
 
-			tearDownResources(serverInstanceIds, compute, accumulator);
+			for (PendingDeployment straggler : stragglers) {
+				deploymentEngine.discard(straggler);
+			}
+			provisionedServerIds.addAll(failedServerIds);
+			tearDownResources(provisionedServerIds, datacenter, accumulator);
 
 			PluginExceptionDetails pluginExceptionDetails = new PluginExceptionDetails(
 					accumulator.getConditionsByKey());
 			throw new UnrecoverableProviderException("Problem allocating instances.", pluginExceptionDetails);
 		} else if (successfulServersCount < instanceIds.size()) {
-			LOG.info("Provisioned {} instances out of {}. minCount is {}.", successfulServersCount, instanceIds.size(),
-					minCount);*/
-
-			// Even through we are not throwing an exception, we still want to
-			// log the errors.
-			/*
-			 * if (accumulator.hasError()) { Map<String,
-			 * Collection<PluginExceptionCondition>> conditionsByKeyMap =
-			 * accumulator.getConditionsByKey();
-			 * 
-			 * for (Map.Entry<String, Collection<PluginExceptionCondition>>
-			 * keyToCondition : conditionsByKeyMap.entrySet()) { String key =
-			 * keyToCondition.getKey();
-			 * 
-			 * if (key != null) { for (PluginExceptionCondition condition :
-			 * keyToCondition.getValue()) { LOG.info("({}) {}: {}",
-			 * condition.getType(), key, condition.getMessage()); } } else { for
-			 * (PluginExceptionCondition condition : keyToCondition.getValue())
-			 * { LOG.info("({}) {}", condition.getType(),
-			 * condition.getMessage()); } } } }
-			 */
-	//	}
-
-		// TODO
-		/*
-		 * // Compose the tags for the instance, including a tag identifying the
-		 * plugin and version used to create it. // This is not the same as the
-		 * template 'tags' which are propagated as instance metadata. String
-		 * applicationNameVersionTag =
-		 * Names.buildApplicationNameVersionTag(applicationProperties); //
-		 * Massage it into a form acceptable for use as a tag (only allows
-		 * lowercase letters, numbers and hyphens). applicationNameVersionTag =
-		 * applicationNameVersionTag.toLowerCase().replaceAll("\\.|/", "-");
-		 */
+			LOG.info("Provisioned {} instances out of {}. minCount is {}. {} instances are still pending.",
+					successfulServersCount, instanceIds.size(), minCount, stragglers.size());
+
+			// The remaining servers finish in the background, failed ones are not worth keeping.
+			deploymentEngine.finishInBackground(stragglers);
+			if (!failedServerIds.isEmpty()) {
+				tearDownResources(failedServerIds, datacenter, accumulator);
+			}
+		}
+	}
+
+	/**
+	 * Returns the ID of the configured source image, failing if the image does not exist or is in another
+	 * datacenter. Images are resolved from the catalog first, which also knows them by name and alias.
+	 */
+	private String resolveSourceImage(TemplatePlan plan) {
+		String sourceImage = plan.getImage();
+		boolean loaded = imageCatalog.awaitLoaded();
+		String imageId = imageCatalog.resolve(plan.getDatacenter(), sourceImage);
+		if (imageId != null) {
+			return imageId;
+		}
+		String imageDatacenter = imageCatalog.getOtherDatacenterId(plan.getDatacenter(), sourceImage);
+		if (imageDatacenter != null) {
+			throw new ClientRuntimeException(String.format("Image '%s' is in datacenter '%s', not in '%s'.",
+					sourceImage, imageDatacenter, plan.getDatacenter()));
+		}
+		if (!loaded && imageCatalog.isAlias(sourceImage)) {
+			throw new ClientRuntimeException(String.format("Image '%s' cannot be resolved until images are listed.",
+					sourceImage));
+		}
+		try {
+			return credentials.getCompute().image().getOsImage(sourceImage).getId();
+		} catch (NotFoundException e) {
+			throw new ClientRuntimeException(String.format("Image '%s' not found.", sourceImage));
+		}
+	}
+
+	/**
+	 * Composes the deployment request of every instance. The requests are not attached to a network yet.
+	 */
+	private static Map<String, DeployServerType> composeServers(TemplatePlan plan, Collection<String> instanceIds,
+			String imageId) {
+		String sshUserName = plan.getSshUserName();
+		String sshPassword = plan.getSshPassword();
+		String bootDiskSpeed = plan.getBootDiskSpeed();
+
+		Map<String, DeployServerType> deployRequests = new LinkedHashMap<String, DeployServerType>();
+		for (String instanceId : instanceIds) {
+			String decoratedInstanceName = plan.getInstanceName(instanceId);
+
+			if (sshUserName == null || sshUserName.isEmpty() || sshPassword == null || sshPassword.isEmpty()) {
+				LOG.info("SSH credentials not set on instance '{}'. ", decoratedInstanceName);
+			}
+
+			// Compose the instance.
+			DeployServerType serverType = new DeployServerType();
+			serverType.setName(decoratedInstanceName);
+			serverType.setStart(Boolean.TRUE);
+			serverType.setImageId(imageId);
+			serverType.setMemoryGb((long) 32);
+			serverType.setAdministratorPassword(sshPassword);
+			DeployServerType.Cpu cpuType = new DeployServerType.Cpu();
+			cpuType.setCount((long) 4);
+			serverType.setCpu(cpuType);
+			DeployServerType.Disk bootDisk = new DeployServerType.Disk();
+			bootDisk.setScsiId(0);
+			bootDisk.setSpeed(bootDiskSpeed);
+			serverType.getDisk().add(bootDisk);
+
+			deployRequests.put(instanceId, serverType);
+		}
+		return deployRequests;
+	}
+
+	/**
+	 * Attaches the composed deployment requests to the resolved network domain and vlan.
+	 */
+	private static Map<String, DeployServerType> attachToNetwork(Map<String, DeployServerType> deployRequests,
+			NetworkTopology topology) {
+		for (DeployServerType serverType : deployRequests.values()) {
+			DeployServerType.NetworkInfo networkInfoType = new DeployServerType.NetworkInfo();
+			networkInfoType.setNetworkDomainId(topology.getNetworkDomainId());
+			NewNicType newNicType = new NewNicType();
+			newNicType.setVlanId(topology.getVlanId());
+			networkInfoType.setPrimaryNic(newNicType);
+			serverType.setNetworkInfo(networkInfoType);
+		}
+		return deployRequests;
+	}
+
+	/**
+	 * Deploys every server at once, or restarts parked and standby servers when available, tracking each server on
+	 * its own.
+	 */
+	private List<PendingDeployment> deployServers(Map<String, DeployServerType> deployRequests, TemplatePlan plan,
+			NetworkTopology topology) {
+		String datacenter = plan.getDatacenter();
+		DataDisks dataDisks = plan.getDataDisks();
+		List<PendingDeployment> deployments = new ArrayList<PendingDeployment>();
+		for (Map.Entry<String, DeployServerType> request : deployRequests.entrySet()) {
+			PendingDeployment deployment = parkedServers.isEnabled() || standbyPool.isEnabled()
+					? claimOrDeployServer(request.getKey(), request.getValue(), plan, dataDisks)
+					: deploymentEngine.deploy(request.getKey(), datacenter, request.getValue(), dataDisks);
+
+			// Stragglers included, the server exists once its deployment is submitted, and its state keeps changing
+			// until the deployment has an outcome.
+			String name = request.getValue().getName();
+			deployment.getSubmission().whenComplete((server, e) -> serverSnapshots.invalidate(name));
+			deployment.getSubmission().thenAccept(submitted -> {
+				// A deployment rejected before any server was created may be attached to a network domain or vlan that
+				// no longer exists, so the network is resolved again by the next allocation.
+				if (!submitted.isSuccessful() && submitted.getServerId() == null) {
+					topologyResolver.invalidate(datacenter, plan.getNetworkDomainName(), plan.getVlanIpv4(), topology);
+				}
+			});
+			deployment.getOutcome().whenComplete((server, e) -> serverSnapshots.endDeployment(name));
+			deployments.add(deployment);
+		}
+		if (standbyPool.isEnabled() && !deployRequests.isEmpty()) {
+			standbyPool.refill(datacenter, deployRequests.values().iterator().next());
+		}
+		return deployments;
+	}
+
+	/**
+	 * Claims a pooled server for an instance on the worker pool, deploying a new server if none is available. Every
+	 * instance claims on its own, so that claims run concurrently and no deployment waits for the claims of other
+	 * instances.
+	 */
+	private PendingDeployment claimOrDeployServer(String instanceId, DeployServerType request, TemplatePlan plan,
+			DataDisks dataDisks) {
+		String datacenter = plan.getDatacenter();
+		CompletableFuture<PendingDeployment> deployment = CompletableFuture
+				.supplyAsync(() -> {
+					// Prefer a parked server of the template, which already has its data disks, then a standby server.
+					// Both only have to be renamed and started.
+					PendingDeployment claimed = parkedServers.isEnabled()
+							? parkedServers.claim(instanceId, plan, deploymentEngine)
+							: null;
+					if (claimed == null && standbyPool.isEnabled()) {
+						claimed = standbyPool.claim(instanceId, datacenter, request, dataDisks, deploymentEngine);
+					}
+					return claimed;
+				}, executor)
+				.exceptionally(e -> {
+					LOG.warn("Unable to claim a pooled server for instance '{}': {}", instanceId,
+							OperationPoller.unwrap(e).getMessage());
+					return null;
+				})
+				.thenApply(claimed -> claimed != null
+						? claimed
+						: deploymentEngine.deploy(instanceId, datacenter, request, dataDisks));
+
+		return new PendingDeployment(instanceId, deployment.thenCompose(PendingDeployment::getSubmission),
+				deployment.thenCompose(PendingDeployment::getOutcome));
 	}
 
 	// Delete all persistent disks and instances.
-	private void tearDownResources(List<ResponseType> vmOperationResponses, Cloud compute,
+	private void tearDownResources(List<String> serverIds, String datacenterId,
 			PluginExceptionConditionAccumulator accumulator) throws InterruptedException {
+		Map<String, CompletableFuture<Boolean>> deletions = new LinkedHashMap<String, CompletableFuture<Boolean>>();
+		for (String serverId : serverIds) {
+			deletions.put(serverId, deleteServer(serverId, datacenterId));
+		}
+		awaitDeletions(deletions, accumulator);
+	}
 
-		// Use this list to keep track of all instance deletion operations.
-		List<ResponseType> tearDownOperations = new ArrayList<ResponseType>();
-
-		// Iterate over each instance creation operation.
-		for (ResponseType vmOperation : vmOperationResponses) {
-			String serverId = compute.server().getIdFromDeployResponse(vmOperation);
-			ResponseType tearDownOperation = compute.server().deleteServer(serverId);
+	/**
+	 * Deletes a server and tracks it until it is gone.
+	 *
+	 * @return a future that completes with whether the server existed once it no longer does
+	 */
+	private CompletableFuture<Boolean> deleteServer(String serverId, String datacenterId) {
+		return CompletableFuture.supplyAsync(() -> {
 			try {
-				tearDownOperations.add(tearDownOperation);
-			} catch (ForbiddenException | InvalidParameterException | NotFoundException | RequestException
-					| ServiceUnavailableException | UnauthorizedException e) {
-				if ((tearDownOperation.getResponseCode().equalsIgnoreCase("404"))) {
-					// Since we try to tear down all instances, and some may not
-					// have been successfully provisioned in the first
-					// place, we don't need to propagate this.
-				} else {
-					accumulator.addError(null, e.getMessage());
-				}
+				credentials.getCompute().server().deleteServer(serverId);
+				return true;
+			} catch (NotFoundException e) {
+				// Since we try to tear down all instances, and some may not
+				// have been successfully provisioned in the first
+				// place, we don't need to propagate this.
+				return false;
+			} finally {
+				serverInventory.forget(serverId);
 			}
+		}, executor).thenCompose(submitted -> submitted
+				? poller.awaitServerDeleted(serverId, datacenterId).thenApply(server -> true)
+				: CompletableFuture.completedFuture(false));
+	}
+
+	/**
+	 * Hands a server to the deletion reaper, which deletes it in the background.
+	 *
+	 * @return a future that completes once the deletion is journaled
+	 */
+	private CompletableFuture<Boolean> reapServer(String serverId, String datacenterId,
+			Collection<CompletableFuture<Void>> reaped) {
+		reaped.add(deletionReaper.submit(serverId, datacenterId));
+		serverInventory.forget(serverId);
+		return CompletableFuture.completedFuture(true);
+	}
+
+	/**
+	 * Parks a server for a later allocation with the same template, deleting it if it cannot be parked.
+	 *
+	 * @return a future that completes with {@code true} once the server is parked or deleted
+	 */
+	private CompletableFuture<Boolean> parkServer(String serverId, TemplatePlan plan,
+			Collection<CompletableFuture<Void>> reaped) {
+		return parkedServers.park(serverId, plan)
+				.handle((parked, e) -> e)
+				.thenCompose(e -> {
+					serverInventory.forget(serverId);
+					if (e == null) {
+						return CompletableFuture.completedFuture(true);
+					}
+					LOG.warn("Unable to park server '{}', deleting it: {}", serverId, OperationPoller.unwrap(e).getMessage());
+					return deleteInBackground
+							? reapServer(serverId, plan.getDatacenter(), reaped)
+							: deleteServer(serverId, plan.getDatacenter());
+				});
+	}
+
+	/**
+	 * Waits until every deletion has finished, the servers being tracked together by the operation poller, and
+	 * records the servers that were not deleted in time or could not be deleted.
+	 *
+	 * @param deletions   the deletions by server name
+	 * @param accumulator the exception condition accumulator
+	 * @throws InterruptedException if the calling thread is interrupted while waiting, in which case the deletions
+	 *                              are cancelled
+	 */
+	static void awaitDeletions(Map<String, CompletableFuture<Boolean>> deletions,
+			PluginExceptionConditionAccumulator accumulator) throws InterruptedException {
+		CompletableFuture<Void> allDeletions = CompletableFuture
+				.allOf(deletions.values().toArray(new CompletableFuture<?>[deletions.size()]));
+		try {
+			allDeletions.get();
+		} catch (InterruptedException e) {
+			for (CompletableFuture<Boolean> deletion : deletions.values()) {
+				deletion.cancel(true);
+			}
+			throw e;
+		} catch (ExecutionException e) {
+			// Reported for each server below.
 		}
 
-		List<ResponseType> successfulTearDownOperations = new ArrayList<ResponseType>(tearDownOperations);
-		for (ResponseType tearDownOperation : Lists.reverse(tearDownOperations)) {
-			String serverId = compute.server().getIdFromDeployResponse(tearDownOperation);
-			if (tearDownOperation.getResponseCode().equalsIgnoreCase("200")) {
-				Awaitility.await().atMost(5, TimeUnit.MINUTES).pollDelay(30, TimeUnit.SECONDS)
-						.until(compute.server().isServerDeleted(serverId));
-			} else {
-				successfulTearDownOperations.remove(tearDownOperation);
+		int successfulTearDownOperationCount = 0;
+		for (Map.Entry<String, CompletableFuture<Boolean>> deletion : deletions.entrySet()) {
+			try {
+				deletion.getValue().join();
+				successfulTearDownOperationCount++;
+			} catch (CompletionException e) {
+				String message = String.format("Server '%s' was not deleted: %s", deletion.getKey(),
+						OperationPoller.unwrap(e).getMessage());
+				LOG.error(message);
+				accumulator.addError(null, message);
 			}
 		}
 
-		int tearDownOperationCount = tearDownOperations.size();
-		int successfulTearDownOperationCount = successfulTearDownOperations.size();
+		int tearDownOperationCount = deletions.size();
 
 		if (successfulTearDownOperationCount < tearDownOperationCount) {
 			accumulator.addError(null, successfulTearDownOperationCount + " of the " + tearDownOperationCount
@@ -379,134 +601,311 @@ public class DimensionDataComputeProvider
 	@Override
 	public Collection<DimensionDataComputeInstance> find(DimensionDataComputeInstanceTemplate template,
 			Collection<String> instanceIds) throws InterruptedException {
-		LocalizationContext providerLocalizationContext = getLocalizationContext();
-		LocalizationContext templateLocalizationContext = SimpleResourceTemplate
-				.getTemplateLocalizationContext(providerLocalizationContext);
+		TemplatePlan plan = planOf(template);
 
 		List<DimensionDataComputeInstance> result = new ArrayList<DimensionDataComputeInstance>();
 
 		// If the prefix is not valid, there is no way the instances could have
 		// been created in the first place.
-		if (!isPrefixValid(template, templateLocalizationContext)) {
+		if (!plan.isPrefixValid()) {
 			return result;
 		}
 
+		// Look up every instance that was not observed recently at once, each on its own.
+		Cloud compute = credentials.getCompute();
+		Map<String, CompletableFuture<ServerType>> lookups = new LinkedHashMap<String, CompletableFuture<ServerType>>();
 		for (String currentId : instanceIds) {
-			Cloud compute = credentials.getCompute();
-			String decoratedInstanceName = decorateInstanceName(template, currentId, templateLocalizationContext);
+			String decoratedInstanceName = plan.getInstanceName(currentId);
+			ServerType snapshot = serverSnapshots.get(decoratedInstanceName);
+			if (snapshot != null || serverSnapshots.isAbsent(decoratedInstanceName)) {
+				lookups.put(currentId, CompletableFuture.completedFuture(snapshot));
+			} else {
+				lookups.put(currentId, CompletableFuture.supplyAsync(() -> lookUpServer(compute, plan, currentId), executor));
+			}
+		}
 
-			try {
-				ServerType instance = compute.server().getServer(currentId);
+		// Give up on the lookups still running at the deadline, and report them along with the ones that failed, as
+		// their instances may well exist.
+		CompletableFuture<Void> allLookups = CompletableFuture
+				.allOf(lookups.values().toArray(new CompletableFuture<?>[lookups.size()]));
+		try {
+			allLookups.get(findTimeoutSeconds, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			for (CompletableFuture<ServerType> lookup : lookups.values()) {
+				lookup.cancel(true);
+			}
+			throw e;
+		} catch (ExecutionException | TimeoutException e) {
+			// Handled for each instance below.
+		}
 
-				result.add(new DimensionDataComputeInstance(template, currentId, instance));
-			} catch (ForbiddenException | InvalidParameterException | NotFoundException | RequestException
-					| ServiceUnavailableException | UnauthorizedException e) {
-				if (e.getClass() == NotFoundException.class) {
-					LOG.info("Instance '{}' not found.", decoratedInstanceName);
-				} else {
-					throw new RuntimeException(e);
+		PluginExceptionConditionAccumulator accumulator = new PluginExceptionConditionAccumulator();
+		for (Map.Entry<String, CompletableFuture<ServerType>> lookup : lookups.entrySet()) {
+			String decoratedInstanceName = plan.getInstanceName(lookup.getKey());
+			CompletableFuture<ServerType> server = lookup.getValue();
+			if (!server.isDone()) {
+				server.cancel(true);
+				String message = String.format("Instance '%s' was not looked up within %d seconds.",
+						decoratedInstanceName, findTimeoutSeconds);
+				LOG.warn(message);
+				accumulator.addError(lookup.getKey(), message);
+			} else {
+				try {
+					ServerType instance = server.join();
+					if (instance != null) {
+						result.add(new DimensionDataComputeInstance(template, lookup.getKey(), instance));
+					}
+				} catch (CompletionException e) {
+					String message = String.format("Unable to look up instance '%s': %s", decoratedInstanceName,
+							OperationPoller.unwrap(e).getMessage());
+					LOG.warn(message);
+					accumulator.addError(lookup.getKey(), message);
 				}
 			}
 		}
-		LOG.info("Found {} instances for {} virtual instance IDs", result.size(), instanceIds.size());
+		LOG.info("Found {} instances for {} virtual instance IDs, {} lookups failed", result.size(), instanceIds.size(),
+				accumulator.getConditionsByKey().size());
+
+		if (accumulator.hasError()) {
+			PluginExceptionDetails pluginExceptionDetails = new PluginExceptionDetails(
+					accumulator.getConditionsByKey());
+			throw new TransientProviderException("Problem finding instances.", pluginExceptionDetails);
+		}
 		return result;
 	}
 
+	/**
+	 * Looks up the server of a single instance.
+	 *
+	 * @return the server, or {@code null} if it does not exist
+	 */
+	private ServerType lookUpServer(Cloud compute, TemplatePlan plan, String instanceId) {
+		ServerType instance = resolveServer(compute, plan, instanceId);
+		if (instance == null) {
+			LOG.info("Instance '{}' not found.", plan.getInstanceName(instanceId));
+			serverSnapshots.putAbsent(plan.getInstanceName(instanceId));
+		}
+		return instance;
+	}
+
+	/**
+	 * Returns the ID of the server of an instance, asking MCP by server ID when the server is in the inventory.
+	 *
+	 * @return the server ID, or {@code null} if the server does not exist
+	 */
+	private String resolveServerId(Cloud compute, TemplatePlan plan, String instanceId) {
+		ServerType server = resolveServer(compute, plan, instanceId);
+		return server == null ? null : server.getId();
+	}
+
+	/**
+	 * Reads the server of an instance, by the server ID found in the inventory when the server still carries the
+	 * instance name there, and by the instance name otherwise. A server read by ID that no longer carries the
+	 * instance name was parked, claimed or renamed since it was indexed, and is not the server of the instance.
+	 *
+	 * @return the server, or {@code null} if it does not exist
+	 */
+	private ServerType resolveServer(Cloud compute, TemplatePlan plan, String instanceId) {
+		String decoratedInstanceName = plan.getInstanceName(instanceId);
+		String serverId = serverInventory.findIdByName(decoratedInstanceName);
+		if (serverId != null) {
+			ServerType indexed = serverInventory.findById(serverId);
+			if (indexed != null && decoratedInstanceName.equals(indexed.getName())) {
+				long observedAt = System.nanoTime();
+				try {
+					ServerType server = compute.server().getServer(serverId);
+					observe(server, observedAt);
+					if (decoratedInstanceName.equals(server.getName())) {
+						return server;
+					}
+				} catch (NotFoundException e) {
+					serverInventory.forget(serverId);
+				}
+			}
+			serverInventory.forgetName(decoratedInstanceName, serverId);
+		}
+
+		long observedAt = System.nanoTime();
+		List<ServerType> servers = compute.server()
+				.listServers(1, 1, OrderBy.EMPTY, new Filter(new Param("name", decoratedInstanceName))).getServer();
+		if (servers.isEmpty()) {
+			return null;
+		}
+		observe(servers.get(0), observedAt);
+		return servers.get(0);
+	}
+
+	/**
+	 * Remembers a server read from MCP by a request sent at the specified {@link System#nanoTime()}.
+	 */
+	private void observe(ServerType server, long observedAt) {
+		serverSnapshots.put(server);
+		serverInventory.record(server, observedAt);
+	}
+
 	@Override
 	public Map<String, InstanceState> getInstanceState(DimensionDataComputeInstanceTemplate template,
 			Collection<String> instanceIds) {
-		LocalizationContext providerLocalizationContext = getLocalizationContext();
-		LocalizationContext templateLocalizationContext = SimpleResourceTemplate
-				.getTemplateLocalizationContext(providerLocalizationContext);
+		TemplatePlan plan = planOf(template);
 
 		Map<String, InstanceState> result = new HashMap<String, InstanceState>();
 
 		// If the prefix is not valid, there is no way the instances could have
 		// been created in the first place.
-		if (!isPrefixValid(template, templateLocalizationContext)) {
+		if (!plan.isPrefixValid()) {
 			for (String currentId : instanceIds) {
 				result.put(currentId, new SimpleInstanceState(InstanceStatus.UNKNOWN));
 			}
 		} else {
+			// Serve recently observed servers from memory, look the others up in bulk and only ask for the ones that
+			// were not listed one by one.
+			List<String> missedIds = new ArrayList<String>();
 			for (String currentId : instanceIds) {
-				LOG.info("Searching for instance status for: "+currentId);
-				
-				Cloud compute = credentials.getCompute();
-				String decoratedInstanceName = decorateInstanceName(template, currentId, templateLocalizationContext);
-
-				try {
-					Servers server = compute.server().listServers(1, 1, OrderBy.EMPTY, new Filter(new Param("name",template.getConfigurationValue(INSTANCE_NAME_PREFIX, templateLocalizationContext)+"-"+currentId)));
-					ServerType instance = server.getServer().get(0);
-					InstanceStatus instanceStatus = null;
-					LOG.info("Instance state: "+instance.getState());
-					if (instance.getState().equals("NORMAL")) {
-						if (instance.isStarted()) {
-							instanceStatus = convertMCPInstanceStatusToDirectorInstanceStatus("RUNNING");
-						} else {
-							instanceStatus = convertMCPInstanceStatusToDirectorInstanceStatus("TERMINATED");
-						}
-					} else {
-						instanceStatus = convertMCPInstanceStatusToDirectorInstanceStatus(instance.getState());
-					}
-					result.put(currentId, new SimpleInstanceState(instanceStatus));
-				} catch (NotFoundException e) {
-					LOG.info("Instance '{}' not found.", decoratedInstanceName);
+				ServerType snapshot = serverSnapshots.get(plan.getInstanceName(currentId));
+				if (snapshot != null) {
+					result.put(currentId, new SimpleInstanceState(toInstanceStatus(snapshot)));
+				} else if (serverSnapshots.isAbsent(plan.getInstanceName(currentId))) {
 					result.put(currentId, new SimpleInstanceState(InstanceStatus.DELETED));
-				} catch (Exception e) {
-					LOG.info("Instance '{}' not found due to unknown issue.", decoratedInstanceName);
-					result.put(currentId, new SimpleInstanceState(InstanceStatus.UNKNOWN));
+				} else {
+					missedIds.add(currentId);
+				}
+			}
+			Map<String, ServerType> serversByName = missedIds.size() > 1
+					? listServersByPrefix(plan)
+					: new HashMap<String, ServerType>();
+			for (String currentId : missedIds) {
+				ServerType instance = serversByName.get(plan.getInstanceName(currentId));
+				if (instance != null) {
+					result.put(currentId, new SimpleInstanceState(toInstanceStatus(instance)));
+				} else {
+					result.put(currentId, lookUpInstanceState(plan, currentId));
 				}
 			}
+			LOG.debug("Server snapshot cache: {}, absent servers: {}", serverSnapshots.getStats(),
+					serverSnapshots.getAbsentStats());
 		}
 		return result;
 	}
 
+	/**
+	 * Lists every server named with the instance name prefix of a template, in pages as large as MCP allows.
+	 *
+	 * @param plan the plan of the template
+	 * @return the servers by name, empty if the servers could not be listed
+	 */
+	private Map<String, ServerType> listServersByPrefix(TemplatePlan plan) {
+		Map<String, ServerType> serversByName = new HashMap<String, ServerType>();
+		Cloud compute = credentials.getCompute();
+		Filter filter = new Filter(new Param("name.LIKE", plan.getInstanceNamePrefix() + "-*"));
+		long observedAt = System.nanoTime();
+		try (Stream<ServerType> servers = PagedListings.servers(compute, filter, executor)) {
+			servers.forEach(server -> {
+				serversByName.put(server.getName(), server);
+				observe(server, observedAt);
+			});
+		} catch (RuntimeException e) {
+			LOG.warn("Unable to list servers with prefix '{}', looking them up one by one: {}",
+					plan.getInstanceNamePrefix(), e.getMessage());
+			serversByName.clear();
+		}
+		LOG.info("Listed {} servers with prefix '{}'.", serversByName.size(), plan.getInstanceNamePrefix());
+		return serversByName;
+	}
+
+	/**
+	 * Looks up the state of a single instance, by its server ID when the server is in the inventory.
+	 */
+	private InstanceState lookUpInstanceState(TemplatePlan plan, String instanceId) {
+		LOG.info("Searching for instance status for: " + instanceId);
+
+		Cloud compute = credentials.getCompute();
+		String decoratedInstanceName = plan.getInstanceName(instanceId);
+
+		try {
+			ServerType instance = resolveServer(compute, plan, instanceId);
+			if (instance == null) {
+				throw new NotFoundException();
+			}
+			LOG.info("Instance state: " + instance.getState());
+			return new SimpleInstanceState(toInstanceStatus(instance));
+		} catch (NotFoundException e) {
+			LOG.info("Instance '{}' not found.", decoratedInstanceName);
+			serverSnapshots.putAbsent(decoratedInstanceName);
+			return new SimpleInstanceState(InstanceStatus.DELETED);
+		} catch (Exception e) {
+			LOG.info("Instance '{}' not found due to unknown issue.", decoratedInstanceName);
+			return new SimpleInstanceState(InstanceStatus.UNKNOWN);
+		}
+	}
+
+	/**
+	 * Converts the state of a server, a NORMAL server being running or stopped depending on whether it is started.
+	 */
+	private static InstanceStatus toInstanceStatus(ServerType instance) {
+		if (instance.getState().equals("NORMAL")) {
+			if (Boolean.TRUE.equals(instance.isStarted())) {
+				return convertMCPInstanceStatusToDirectorInstanceStatus("RUNNING");
+			} else {
+				return convertMCPInstanceStatusToDirectorInstanceStatus("TERMINATED");
+			}
+		}
+		return convertMCPInstanceStatusToDirectorInstanceStatus(instance.getState());
+	}
+
 	@Override
 	public void delete(DimensionDataComputeInstanceTemplate template, Collection<String> instanceIds)
 			throws InterruptedException {
 
 		PluginExceptionConditionAccumulator accumulator = new PluginExceptionConditionAccumulator();
 
-		LocalizationContext providerLocalizationContext = getLocalizationContext();
-		LocalizationContext templateLocalizationContext = SimpleResourceTemplate
-				.getTemplateLocalizationContext(providerLocalizationContext);
+		TemplatePlan plan = planOf(template);
 
 		// If the prefix is not valid, there is no way the instances could have
 		// been created in the first place.
 		// So we shouldn't attempt to delete them, but we also shouldn't report
 		// an error.
-		if (!isPrefixValid(template, templateLocalizationContext)) {
+		if (!plan.isPrefixValid()) {
 			return;
 		}
 
 		Cloud compute = credentials.getCompute();
 
-		// Use this list to collect the operations that must reach a RUNNING or
-		// DEPLOYED state prior to delete() returning.
-		List<ResponseType> vmDeletionOperations = new ArrayList<ResponseType>();
-
+		// Resolve every server at once, then either delete or park them and wait for all of them to be done
+		// together, or hand them to the deletion reaper and only wait until they are journaled.
+		Map<String, CompletableFuture<Boolean>> deletions = new LinkedHashMap<String, CompletableFuture<Boolean>>();
+		Collection<CompletableFuture<Void>> reaped = new ConcurrentLinkedQueue<CompletableFuture<Void>>();
 		for (String currentId : instanceIds) {
-			String decoratedInstanceName = decorateInstanceName(template, currentId, templateLocalizationContext);
-
-			try {
-				ResponseType vmDeletionOperation = compute.server().deleteServer(currentId);
-
-				vmDeletionOperations.add(vmDeletionOperation);
-			} catch (NotFoundException e) {
-				LOG.info("Attempted to delete instance '{}', but it does not exist.", decoratedInstanceName);
-			} catch (Exception e) {
-				accumulator.addError(null, e.getMessage());
-			}
+			String decoratedInstanceName = plan.getInstanceName(currentId);
+			serverSnapshots.invalidate(decoratedInstanceName);
+
+			deletions.put(decoratedInstanceName, CompletableFuture
+					.supplyAsync(() -> resolveServerId(compute, plan, currentId), executor)
+					.thenCompose(serverId -> {
+						if (serverId == null) {
+							LOG.info("Attempted to delete instance '{}', but it does not exist.", decoratedInstanceName);
+							return CompletableFuture.completedFuture(false);
+						}
+						if (parkedServers.isEnabled()) {
+							return parkServer(serverId, plan, reaped);
+						}
+						return deleteInBackground
+								? reapServer(serverId, plan.getDatacenter(), reaped)
+								: deleteServer(serverId, plan.getDatacenter());
+					}));
 		}
-
-		for (ResponseType tearDownOperation : Lists.reverse(vmDeletionOperations)) {
-			String serverId = compute.server().getIdFromDeployResponse(tearDownOperation);
-			if (tearDownOperation.getResponseCode().equalsIgnoreCase("200")) {
-				Awaitility.await().atMost(5, TimeUnit.MINUTES).pollDelay(30, TimeUnit.SECONDS)
-						.until(compute.server().isServerDeleted(serverId));
-			} else {
-				vmDeletionOperations.remove(tearDownOperation);
-			}
+		awaitDeletions(deletions, accumulator);
+		forgetServers(plan, instanceIds);
+
+		// Remove the network of the template in the background once its last server is gone.
+		if (releaseUnusedNetworks && !accumulator.hasError()) {
+			CompletableFuture.allOf(reaped.toArray(new CompletableFuture<?>[reaped.size()]))
+					.thenCompose(gone -> topologyResolver.release(plan.getDatacenter(), plan.getNetworkDomainName(),
+							plan.getVlanIpv4()))
+					.exceptionally(e -> {
+						LOG.warn("Unable to release network domain '{}': {}", plan.getNetworkDomainName(),
+								OperationPoller.unwrap(e).getMessage());
+						return null;
+					});
 		}
 
 		if (accumulator.hasError()) {
@@ -524,9 +923,56 @@ public class DimensionDataComputeProvider
 		return dimensiondataConfig;
 	}
 
-	private static String decorateInstanceName(DimensionDataComputeInstanceTemplate template, String currentId,
-			LocalizationContext templateLocalizationContext) {
-		return template.getConfigurationValue(INSTANCE_NAME_PREFIX, templateLocalizationContext) + "-" + currentId;
+	/**
+	 * Returns the hit and miss counters of the snapshots served by {@link #find} and {@link #getInstanceState}.
+	 *
+	 * @return the server snapshot cache statistics
+	 */
+	public CacheStats getServerSnapshotStats() {
+		return serverSnapshots.getStats();
+	}
+
+	/**
+	 * Returns the hit and miss counters of the instances known not to exist.
+	 *
+	 * @return the absent server cache statistics
+	 */
+	public CacheStats getAbsentServerStats() {
+		return serverSnapshots.getAbsentStats();
+	}
+
+	/**
+	 * Returns the catalog of the images of the account.
+	 *
+	 * @return the image catalog
+	 */
+	ImageCatalog getImageCatalog() {
+		return imageCatalog;
+	}
+
+	/**
+	 * Returns the index of the VLANs of the account.
+	 *
+	 * @return the VLAN index
+	 */
+	VlanIndex getVlanIndex() {
+		return vlanIndex;
+	}
+
+	/**
+	 * Forgets the snapshots of the specified instances, whose servers are being changed.
+	 */
+	private void forgetServers(TemplatePlan plan, Collection<String> instanceIds) {
+		for (String instanceId : instanceIds) {
+			serverSnapshots.invalidate(plan.getInstanceName(instanceId));
+		}
+	}
+
+	/**
+	 * Returns the plan of the specified template, compiling it the first time the template is used.
+	 */
+	private TemplatePlan planOf(DimensionDataComputeInstanceTemplate template) {
+		return templatePlans.getUnchecked(template);
 	}
 
 	/*
@@ -554,101 +1000,4 @@ public class DimensionDataComputeProvider
 		}
 	}
 
-	private boolean isPrefixValid(DimensionDataComputeInstanceTemplate template,
-			LocalizationContext templateLocalizationContext) {
-		PluginExceptionConditionAccumulator accumulator = new PluginExceptionConditionAccumulator();
-
-		DimensionDataComputeInstanceTemplateConfigurationValidator.checkPrefix(template, accumulator,
-				templateLocalizationContext);
-
-		boolean isValid = accumulator.getConditionsByKey().isEmpty();
-
-		if (!isValid) {
-			LOG.info("Instance name prefix '{}' is invalid.",
-					template.getConfigurationValue(INSTANCE_NAME_PREFIX, templateLocalizationContext));
-		}
-
-		return isValid;
-	}
-
-	private static boolean pollPendingOperations(String awaitName, String resourceId, String resourceType,
-			Cloud compute, PluginExceptionConditionAccumulator accumulator) throws InterruptedException {
-
-		int totalTimePollingSeconds = 0;
-		int pollingTimeoutSeconds = 180;
-		int maxPollingIntervalSeconds = 8;
-		boolean timeoutExceeded = false;
-
-		// Fibonacci backoff in seconds, up to maxPollingIntervalSeconds
-		// interval.
-		int pollInterval = 1;
-		int pollIncrement = 0;
-
-		// Use this list to keep track of each operation that reached one of the
-		// acceptable states.
-		List<String> successfulOperations = new ArrayList<String>();
-
-		while (!timeoutExceeded) {
-			
-			Thread.sleep(pollInterval * 1000);
-			totalTimePollingSeconds += pollInterval;
-
-			switch (resourceType) {
-			case ("NETWORK"):
-				LOG.info("Checking network domain Status");
-				try {
-					String mcpState = compute.networkDomain().getState(resourceId);
-					if (mcpState.equals("NORMAL")) {
-						return true;
-					}
-				} catch (ForbiddenException | InvalidParameterException | NotFoundException | RequestException
-						| ServiceUnavailableException | UnauthorizedException e) {
-					accumulator.addError(null, e.getMessage());
-					return false;
-				}
-				break;
-			case ("VLAN"):
-				LOG.info("Checking vlan  Status");
-				try {
-					String mcpState = compute.vlan().getState(resourceId);
-					if (mcpState.equals("NORMAL")) {
-						return true;
-					}
-				} catch (ForbiddenException | InvalidParameterException | NotFoundException | RequestException
-						| ServiceUnavailableException | UnauthorizedException e) {
-					accumulator.addError(null, e.getMessage());
-					return false;
-				}
-				break;
-			case ("SERVER"):
-				LOG.info("Checking server Status");
-				try {
-					String mcpState = compute.server().getServer(resourceId).getState();
-					if (convertMCPInstanceStatusToDirectorInstanceStatus(mcpState).equals(InstanceStatus.RUNNING)) {
-						return true;
-					}
-				} catch (ForbiddenException | InvalidParameterException | NotFoundException | RequestException
-						| ServiceUnavailableException | UnauthorizedException e) {
-					accumulator.addError(null, e.getMessage());
-					return false;
-				}
-				break;
-			}
-
-			if (totalTimePollingSeconds > pollingTimeoutSeconds) {
-				accumulator.addError(null, "Exceeded timeout of '" + pollingTimeoutSeconds + "' seconds while "
-						+ "polling for pending operations to complete. ");
-
-				timeoutExceeded = true;
-			} else {
-				// Update polling interval.
-				int oldIncrement = pollIncrement;
-				pollIncrement = pollInterval;
-				pollInterval += oldIncrement;
-				pollInterval = Math.min(pollInterval, maxPollingIntervalSeconds);
-			}
-		}
-		return false;
-	}
-
 }
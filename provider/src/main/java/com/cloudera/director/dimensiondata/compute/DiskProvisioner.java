@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.dimensiondata.cloud.client.model.AddDiskType;
+
+/**
+ * Adds data disks to deployed servers. A server accepts one change at a time, so the disks of a
+ * server are added one after the other, each once the server is NORMAL again, while the disks of
+ * different servers are added concurrently.
+ */
+class DiskProvisioner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DiskProvisioner.class);
+
+  /**
+   * The MCP disk speeds by disk tier, as configured in a template.
+   */
+  static final Map<String, String> SPEEDS_BY_DISK_TYPE;
+
+  static {
+    Map<String, String> speeds = new LinkedHashMap<String, String>();
+    speeds.put("Economy", "ECONOMY");
+    speeds.put("Standard", "STANDARD");
+    speeds.put("High Performance", "HIGHPERFORMANCE");
+    SPEEDS_BY_DISK_TYPE = Collections.unmodifiableMap(speeds);
+  }
+
+  private final DimensionDataCredentials credentials;
+  private final OperationPoller poller;
+  private final Executor executor;
+
+  /**
+   * Creates a disk provisioner with the specified parameters.
+   *
+   * @param credentials the credentials used to add disks
+   * @param poller      the poller used to wait for servers
+   * @param executor    the executor used to issue MCP requests
+   */
+  DiskProvisioner(DimensionDataCredentials credentials, OperationPoller poller, Executor executor) {
+    this.credentials = credentials;
+    this.poller = poller;
+    this.executor = executor;
+  }
+
+  /**
+   * Adds the specified data disks to a server.
+   *
+   * @param serverId        the server ID
+   * @param networkDomainId the network domain containing the server
+   * @param datacenterId    the datacenter containing the network domain
+   * @param dataDisks       the data disks
+   * @return a future that completes once every disk has been added and the server is NORMAL
+   */
+  CompletableFuture<Void> provision(String serverId, String networkDomainId, String datacenterId,
+      DataDisks dataDisks) {
+    CompletableFuture<?> previous = CompletableFuture.completedFuture(null);
+    for (int i = 1; i <= dataDisks.getCount(); i++) {
+      int diskNumber = i;
+      previous = previous.thenComposeAsync(done -> {
+        LOG.info(">> Adding data disk {} of {} ({}GB, {}) to server '{}'.", diskNumber, dataDisks.getCount(),
+            dataDisks.getSizeGb(), dataDisks.getSpeed(), serverId);
+        AddDiskType disk = new AddDiskType();
+        disk.setId(serverId);
+        disk.setSizeGb((long) dataDisks.getSizeGb());
+        disk.setSpeed(dataDisks.getSpeed());
+        credentials.getCompute().server().addDisk(disk);
+        return poller.awaitServer(serverId, networkDomainId, datacenterId);
+      }, executor);
+    }
+    return previous.thenApply(done -> null);
+  }
+
+  /**
+   * Returns the MCP disk speed of the specified disk tier.
+   *
+   * @param diskType the disk tier, as configured in a template
+   * @return the MCP disk speed
+   * @throws IllegalArgumentException if the disk tier is unknown
+   */
+  static String toSpeed(String diskType) {
+    String speed = SPEEDS_BY_DISK_TYPE.get(diskType);
+    if (speed == null) {
+      throw new IllegalArgumentException("Unknown disk type '" + diskType + "'. Available options: "
+          + String.join(", ", SPEEDS_BY_DISK_TYPE.keySet()));
+    }
+    return speed;
+  }
+
+  /**
+   * The data disks added to every server of a template.
+   */
+  static class DataDisks {
+
+    /**
+     * No data disks.
+     */
+    static final DataDisks NONE = new DataDisks(0, 0, null);
+
+    private final int count;
+    private final int sizeGb;
+    private final String speed;
+
+    DataDisks(int count, int sizeGb, String speed) {
+      this.count = count;
+      this.sizeGb = sizeGb;
+      this.speed = speed;
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    int getSizeGb() {
+      return sizeGb;
+    }
+
+    String getSpeed() {
+      return speed;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * The secret key the fingerprints of templates are computed with. Fingerprints are part of the
+ * names of standby and parked servers, which anyone with access to the account can read, and
+ * templates include the administrator password, so fingerprints are keyed hashes that cannot be
+ * checked against a guessed password without the key. The key is kept in the configuration
+ * directory so that fingerprints stay the same across plugin restarts. Without a configuration
+ * directory a key is generated for the lifetime of the plugin, and servers left over from a
+ * previous run are not recognized.
+ */
+final class FingerprintKey {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FingerprintKey.class);
+
+  /**
+   * The name of the key file in the configuration directory.
+   */
+  static final String FILE_NAME = "dimensiondata-fingerprint.key";
+
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int KEY_BYTES = 32;
+
+  private static final ConcurrentMap<File, FingerprintKey> KEYS = new ConcurrentHashMap<File, FingerprintKey>();
+  private static final FingerprintKey TRANSIENT = new FingerprintKey(generate());
+
+  private final SecretKeySpec key;
+
+  /**
+   * Returns the key kept in the specified configuration directory, creating it if needed.
+   *
+   * @param configurationDirectory the configuration directory, or {@code null} if there is none
+   * @return the key
+   */
+  static FingerprintKey forDirectory(File configurationDirectory) {
+    if (configurationDirectory == null) {
+      return TRANSIENT;
+    }
+    return KEYS.computeIfAbsent(new File(configurationDirectory, FILE_NAME), FingerprintKey::load);
+  }
+
+  /**
+   * Creates a fingerprint key from the specified secret.
+   *
+   * @param secret the secret
+   */
+  FingerprintKey(byte[] secret) {
+    this.key = new SecretKeySpec(secret, ALGORITHM);
+  }
+
+  /**
+   * Returns the fingerprint of the specified identity.
+   *
+   * @param identity everything the fingerprinted servers are made of
+   * @return the fingerprint, 12 hexadecimal digits
+   */
+  String fingerprint(String identity) {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      byte[] hash = mac.doFinal(identity.getBytes(StandardCharsets.UTF_8));
+      return BaseEncoding.base16().lowerCase().encode(hash).substring(0, 12);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Unable to compute fingerprint", e);
+    }
+  }
+
+  /**
+   * Reads the key file, writing a new key to it first if it does not exist. Should the file be
+   * unusable, a transient key is used instead.
+   */
+  private static FingerprintKey load(File file) {
+    try {
+      if (!file.exists()) {
+        byte[] secret = generate();
+        try {
+          Files.write(file.toPath(), secret, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+          file.setReadable(false, false);
+          file.setReadable(true, true);
+          LOG.info(">> Created fingerprint key '{}'.", file);
+          return new FingerprintKey(secret);
+        } catch (FileAlreadyExistsException e) {
+          // Another plugin instance sharing the directory created it in the meantime.
+        }
+      }
+      byte[] secret = Files.readAllBytes(file.toPath());
+      if (secret.length < KEY_BYTES) {
+        throw new IOException("key is too short");
+      }
+      return new FingerprintKey(secret);
+    } catch (IOException e) {
+      LOG.warn("Unable to use fingerprint key '{}', servers of previous runs will not be recognized: {}",
+          file, e.getMessage());
+      return TRANSIENT;
+    }
+  }
+
+  private static byte[] generate() {
+    byte[] secret = new byte[KEY_BYTES];
+    new SecureRandom().nextBytes(secret);
+    return secret;
+  }
+}
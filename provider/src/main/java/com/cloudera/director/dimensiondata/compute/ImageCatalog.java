@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.Configurations;
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.cloudera.director.dimensiondata.util.PagedListings;
+import com.cloudera.director.dimensiondata.util.WorkerPools;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.Filter;
+import com.typesafe.config.Config;
+
+/**
+ * The OS and customer images available to an account, indexed by ID and by name per datacenter.
+ * The catalog is listed in the background and refreshed periodically, so that images are resolved
+ * and suggested without calling MCP. Images may also be named by configured aliases, which map to
+ * image names so that the same alias resolves in every datacenter. Lookups made before the first
+ * listing attempt ends wait for it for a while, and fall back to MCP right away once it failed. A
+ * failed first listing is retried after a short backoff rather than at the next refresh. Catalogs
+ * are shared by all providers of the same account and region.
+ */
+class ImageCatalog {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ImageCatalog.class);
+
+  private static final AccountRegistry<ImageCatalog> CATALOGS =
+      new AccountRegistry<ImageCatalog>("image catalog", ImageCatalog::shutdown);
+
+  private final DimensionDataCredentials credentials;
+  private final long refreshSeconds;
+  private final long retrySeconds;
+  private final long loadTimeoutSeconds;
+  private final Map<String, String> aliases;
+  private final List<String> aliasSuggestions;
+
+  private final CountDownLatch loaded = new CountDownLatch(1);
+  private volatile Snapshot snapshot;
+  private ScheduledExecutorService scheduler;
+  private long failedLoads;
+
+  /**
+   * Returns the catalog of the account of the specified credentials, creating it from the
+   * configuration if needed. The catalog keeps the settings it was created with.
+   *
+   * @param credentials         the credentials used to list images
+   * @param dimensiondataConfig the Dimension Data configuration
+   * @return the catalog
+   */
+  static ImageCatalog forAccount(DimensionDataCredentials credentials, Config dimensiondataConfig) {
+    Map<String, String> aliases = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, Object> alias : dimensiondataConfig
+        .getObject(Configurations.COMPUTE_IMAGES_SECTION + "aliases").unwrapped().entrySet()) {
+      aliases.put(alias.getKey(), String.valueOf(alias.getValue()));
+    }
+    long refreshSeconds = dimensiondataConfig.getLong(Configurations.COMPUTE_IMAGES_SECTION + "refreshSeconds");
+    long retrySeconds = dimensiondataConfig.getLong(Configurations.COMPUTE_IMAGES_SECTION + "retrySeconds");
+    long loadTimeoutSeconds =
+        dimensiondataConfig.getLong(Configurations.COMPUTE_IMAGES_SECTION + "loadTimeoutSeconds");
+    return CATALOGS.get(credentials.getAccount(),
+        Arrays.asList(refreshSeconds, retrySeconds, loadTimeoutSeconds, aliases),
+        () -> new ImageCatalog(credentials, refreshSeconds, retrySeconds, loadTimeoutSeconds, aliases));
+  }
+
+  /**
+   * Creates a catalog with the specified parameters.
+   *
+   * @param credentials        the credentials used to list images
+   * @param refreshSeconds     the seconds between two listings of every image, zero to never list
+   *                           them
+   * @param retrySeconds       the seconds before a failed first listing is retried, doubled after
+   *                           every further failure up to {@code refreshSeconds}
+   * @param loadTimeoutSeconds the seconds a lookup waits for the first listing attempt to end
+   * @param aliases            the image names by alias
+   */
+  ImageCatalog(DimensionDataCredentials credentials, long refreshSeconds, long retrySeconds,
+      long loadTimeoutSeconds, Map<String, String> aliases) {
+    this.credentials = credentials;
+    this.refreshSeconds = refreshSeconds;
+    this.retrySeconds = retrySeconds;
+    this.loadTimeoutSeconds = loadTimeoutSeconds;
+    this.aliases = aliases;
+    this.aliasSuggestions = Collections.unmodifiableList(new ArrayList<String>(aliases.keySet()));
+  }
+
+  /**
+   * Starts listing images in the background.
+   */
+  synchronized void start() {
+    if (refreshSeconds > 0 && scheduler == null) {
+      scheduler = WorkerPools.newScheduler("dimensiondata-images-%d");
+      scheduler.execute(this::refreshQuietly);
+    }
+  }
+
+  /**
+   * Stops listing images in the background for good.
+   */
+  synchronized void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /**
+   * Waits for the first attempt to list the images to end, unless it already did or the catalog
+   * does not list them.
+   *
+   * @return whether the catalog is loaded
+   */
+  boolean awaitLoaded() {
+    if (snapshot == null && refreshSeconds > 0) {
+      try {
+        loaded.await(loadTimeoutSeconds, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return snapshot != null;
+  }
+
+  /**
+   * Returns whether the specified image is one of the configured aliases.
+   *
+   * @param image the image ID, name or alias
+   * @return whether the image is an alias
+   */
+  boolean isAlias(String image) {
+    return aliases.containsKey(image);
+  }
+
+  /**
+   * Returns the ID of the specified image in the specified datacenter. Use {@link #awaitLoaded()}
+   * first not to miss images before the catalog is loaded. An image ID the catalog knows in another
+   * datacenter is not resolved either, use {@link #getOtherDatacenterId} to tell it from an unknown
+   * image.
+   *
+   * @param datacenterId the datacenter ID
+   * @param image        the image ID, name or alias
+   * @return the image ID, or {@code null} if the image is not in the catalog
+   */
+  String resolve(String datacenterId, String image) {
+    Snapshot current = snapshot;
+    if (current == null || image == null) {
+      return null;
+    }
+    String imageDatacenterId = current.datacenterIdsById.get(image);
+    if (imageDatacenterId != null) {
+      return datacenterId == null || datacenterId.equals(imageDatacenterId) ? image : null;
+    }
+    String name = aliases.containsKey(image) ? aliases.get(image) : image;
+    return current.idsByDatacenterAndName.get(key(datacenterId, name));
+  }
+
+  /**
+   * Returns the datacenter of the specified image ID if the catalog knows it in another datacenter
+   * than the specified one. Such an image exists, but servers of the datacenter cannot be deployed
+   * from it.
+   *
+   * @param datacenterId the datacenter ID
+   * @param image        the image ID, name or alias
+   * @return the datacenter of the image, or {@code null} if the image is not a known image ID of
+   *         another datacenter
+   */
+  String getOtherDatacenterId(String datacenterId, String image) {
+    Snapshot current = snapshot;
+    if (current == null || image == null || datacenterId == null) {
+      return null;
+    }
+    String imageDatacenterId = current.datacenterIdsById.get(image);
+    return imageDatacenterId == null || datacenterId.equals(imageDatacenterId) ? null : imageDatacenterId;
+  }
+
+  /**
+   * Returns the values suggested for the image of templates, the aliases followed by the names of
+   * the images in the catalog. The same list is returned until the catalog is refreshed.
+   *
+   * @return the suggested image names
+   */
+  List<String> getSuggestions() {
+    Snapshot current = snapshot;
+    return current == null ? aliasSuggestions : current.suggestions;
+  }
+
+  /**
+   * Lists every OS and customer image of the account, replacing the catalog.
+   */
+  void refresh() {
+    Cloud compute = credentials.getCompute();
+    Map<String, String> datacenterIdsById = new HashMap<String, String>();
+    Map<String, String> idsByDatacenterAndName = new HashMap<String, String>();
+    TreeSet<String> names = new TreeSet<String>();
+
+    // OS images come first, so that they win over customer images of the same name.
+    PagedListings.osImages(compute, new Filter(), null).forEach(image ->
+        index(image.getId(), image.getName(), image.getDatacenterId(), datacenterIdsById, idsByDatacenterAndName,
+            names));
+    PagedListings.customerImages(compute, new Filter(), null).forEach(image ->
+        index(image.getId(), image.getName(), image.getDatacenterId(), datacenterIdsById, idsByDatacenterAndName,
+            names));
+
+    List<String> suggestions = new ArrayList<String>(aliasSuggestions);
+    names.removeAll(aliases.keySet());
+    suggestions.addAll(names);
+    snapshot = new Snapshot(datacenterIdsById, idsByDatacenterAndName, Collections.unmodifiableList(suggestions));
+    loaded.countDown();
+    LOG.debug("Cataloged {} images.", datacenterIdsById.size());
+  }
+
+  /**
+   * Refreshes the catalog and schedules the next refresh. Lookups waiting for the first attempt are
+   * released whether it succeeds or not.
+   */
+  private void refreshQuietly() {
+    long delaySeconds = refreshSeconds;
+    try {
+      refresh();
+    } catch (RuntimeException e) {
+      if (snapshot == null) {
+        delaySeconds = Math.min(refreshSeconds, retrySeconds << Math.min(failedLoads++, 20));
+      }
+      LOG.warn("Unable to list images, retrying in {} seconds: {}", delaySeconds, e.getMessage());
+    } finally {
+      loaded.countDown();
+    }
+    synchronized (this) {
+      if (!scheduler.isShutdown()) {
+        scheduler.schedule(this::refreshQuietly, delaySeconds, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  private static void index(String id, String name, String datacenterId, Map<String, String> datacenterIdsById,
+      Map<String, String> idsByDatacenterAndName, TreeSet<String> names) {
+    datacenterIdsById.put(id, datacenterId);
+    if (name != null) {
+      idsByDatacenterAndName.putIfAbsent(key(datacenterId, name), id);
+      names.add(name);
+    }
+  }
+
+  private static String key(String datacenterId, String name) {
+    return datacenterId + "/" + name;
+  }
+
+  /**
+   * The images listed by one refresh.
+   */
+  private static class Snapshot {
+
+    private final Map<String, String> datacenterIdsById;
+    private final Map<String, String> idsByDatacenterAndName;
+    private final List<String> suggestions;
+
+    Snapshot(Map<String, String> datacenterIdsById, Map<String, String> idsByDatacenterAndName,
+        List<String> suggestions) {
+      this.datacenterIdsById = datacenterIdsById;
+      this.idsByDatacenterAndName = idsByDatacenterAndName;
+      this.suggestions = suggestions;
+    }
+  }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.cloudera.director.dimensiondata.util.PagedListings;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.Param;
+import com.dimensiondata.cloud.client.model.DeployNetworkDomainType;
+import com.dimensiondata.cloud.client.model.DeployVlanType;
+import com.dimensiondata.cloud.client.model.NetworkDomainType;
+import com.dimensiondata.cloud.client.model.VlanType;
+
+/**
+ * Resolves the network domain and VLAN servers of a template are attached to. Existing resources
+ * are reused and only missing ones are deployed, and resolved IDs are cached until the resources
+ * are released so that growing a cluster goes straight to server deployment. Released resources
+ * are deleted once nothing uses them anymore, provided that this plugin deployed them: a network
+ * domain is recognized by its description and a VLAN by its name, and resources of the customer
+ * that a template merely reuses are never deleted. Allocations hold a lease on their network domain
+ * until their servers have been submitted, since until then MCP does not show that the network
+ * domain is about to be used. A network domain is not released while it is leased, and leases wait
+ * for a release in progress to end, so that no server is deployed into a VLAN being deleted.
+ */
+class NetworkTopologyResolver {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NetworkTopologyResolver.class);
+
+  static final String NETWORK_DOMAIN_DESCRIPTION = "Cloudera Director 2.1.1 dedicated network.";
+
+  static final String VLAN_NAME_SUFFIX = "_Vlan";
+
+  private final DimensionDataCredentials credentials;
+  private final OperationPoller poller;
+  private final Executor executor;
+  private final VlanIndex vlanIndex;
+
+  /**
+   * The leases and the release in progress of every leased or released network domain, by account,
+   * datacenter and network domain name. Shared by every resolver, as providers of the same account
+   * may use the same network domain. Guarded by itself.
+   */
+  private static final Map<String, NetworkUsage> USAGES = new HashMap<String, NetworkUsage>();
+
+  /**
+   * The resolved topologies, by account, datacenter, network domain name and VLAN base address.
+   * Shared by every resolver, so that a release forgets the topology for every provider of the
+   * account.
+   */
+  private static final ConcurrentMap<String, CompletableFuture<NetworkTopology>> RESOLVED =
+      new ConcurrentHashMap<String, CompletableFuture<NetworkTopology>>();
+
+  /**
+   * Creates a network topology resolver with the specified parameters.
+   *
+   * @param credentials the credentials used to query and deploy network resources
+   * @param poller      the poller used to wait for deployed resources
+   * @param executor    the executor used to issue MCP requests
+   * @param vlanIndex   the index told about deployed and deleted VLANs
+   */
+  NetworkTopologyResolver(DimensionDataCredentials credentials, OperationPoller poller, Executor executor,
+      VlanIndex vlanIndex) {
+    this.credentials = credentials;
+    this.poller = poller;
+    this.executor = executor;
+    this.vlanIndex = vlanIndex;
+  }
+
+  /**
+   * Returns the network domain and VLAN for the specified configuration, creating them if they do
+   * not exist yet. Concurrent calls for the same configuration share a single resolution. A failed
+   * resolution is forgotten so that the next call retries it, and so is a resolution that servers
+   * could not be deployed to, as its resources may have been deleted by hand or by another plugin.
+   *
+   * @param datacenterId      the datacenter ID
+   * @param networkDomainName the network domain name
+   * @param networkDomainType the network domain type used if the network domain must be created
+   * @param vlanBaseIpv4      the base IPv4 address of the VLAN
+   * @return a future that completes with the resolved topology
+   */
+  CompletableFuture<NetworkTopology> resolve(String datacenterId, String networkDomainName,
+      String networkDomainType, String vlanBaseIpv4) {
+    String key = key(datacenterId, networkDomainName, vlanBaseIpv4);
+
+    CompletableFuture<NetworkTopology> topology = RESOLVED.computeIfAbsent(key,
+        k -> lookupOrCreate(datacenterId, networkDomainName, networkDomainType, vlanBaseIpv4));
+    topology.whenComplete((result, e) -> {
+      if (e != null) {
+        RESOLVED.remove(key, topology);
+      }
+    });
+    return topology;
+  }
+
+  /**
+   * Forgets the resolution of the specified configuration, whose network domain or VLAN turned out
+   * not to exist anymore, so that the next call looks the resources up again.
+   *
+   * @param datacenterId      the datacenter ID
+   * @param networkDomainName the network domain name
+   * @param vlanBaseIpv4      the base IPv4 address of the VLAN
+   * @param stale             the resolved topology that failed
+   */
+  void invalidate(String datacenterId, String networkDomainName, String vlanBaseIpv4, NetworkTopology stale) {
+    String key = key(datacenterId, networkDomainName, vlanBaseIpv4);
+    CompletableFuture<NetworkTopology> topology = RESOLVED.get(key);
+    if (topology != null && topology.getNow(null) == stale) {
+      LOG.info(">> Forgetting network domain '{}' and Vlan '{}', a server could not be deployed to them.",
+          networkDomainName, vlanBaseIpv4);
+      RESOLVED.remove(key, topology);
+    }
+  }
+
+  /**
+   * Leases the specified network domain for an allocation, which keeps it and its VLANs from being
+   * released until the lease is closed. The lease is only granted once a release of the network
+   * domain in progress has ended.
+   *
+   * @param datacenterId      the datacenter ID
+   * @param networkDomainName the network domain name
+   * @return a future that completes with the lease
+   */
+  CompletableFuture<NetworkLease> lease(String datacenterId, String networkDomainName) {
+    String usageKey = usageKey(datacenterId, networkDomainName);
+    CompletableFuture<Void> release;
+    synchronized (USAGES) {
+      NetworkUsage usage = USAGES.computeIfAbsent(usageKey, key -> new NetworkUsage());
+      release = usage.release;
+      if (release == null) {
+        usage.leases++;
+        return CompletableFuture.completedFuture(new NetworkLease(usageKey));
+      }
+    }
+    LOG.info(">> Waiting for network domain '{}' to be released.", networkDomainName);
+    return release
+        .handle((released, e) -> null)
+        .thenCompose(released -> lease(datacenterId, networkDomainName));
+  }
+
+  /**
+   * Deletes the VLAN of the specified configuration if no server is attached to it anymore, and
+   * then its network domain if that holds neither servers nor VLANs anymore. Resources still in use
+   * or not deployed by this plugin are kept, and the resolution of the configuration is forgotten
+   * by every provider of the account so that the next call looks the resources up again. Nothing is
+   * released while the network domain is leased.
+   *
+   * @param datacenterId      the datacenter ID
+   * @param networkDomainName the network domain name
+   * @param vlanBaseIpv4      the base IPv4 address of the VLAN
+   * @return a future that completes once the unused resources are gone
+   */
+  CompletableFuture<Void> release(String datacenterId, String networkDomainName, String vlanBaseIpv4) {
+    String usageKey = usageKey(datacenterId, networkDomainName);
+    CompletableFuture<Void> release = new CompletableFuture<Void>();
+    synchronized (USAGES) {
+      NetworkUsage usage = USAGES.computeIfAbsent(usageKey, key -> new NetworkUsage());
+      if (usage.leases > 0 || usage.release != null) {
+        LOG.info(">> Keeping network domain '{}', it is being allocated or released.", networkDomainName);
+        return CompletableFuture.completedFuture(null);
+      }
+      usage.release = release;
+    }
+    RESOLVED.remove(key(datacenterId, networkDomainName, vlanBaseIpv4));
+
+    Cloud compute = credentials.getCompute();
+    CompletableFuture
+        .supplyAsync(() -> findNetworkDomain(compute, datacenterId, networkDomainName), executor)
+        .thenCompose(networkDomain -> networkDomain == null
+            ? CompletableFuture.completedFuture(null)
+            : releaseVlan(compute, networkDomain.getId(), networkDomainName, datacenterId, vlanBaseIpv4)
+                .thenComposeAsync(released -> releaseNetworkDomain(compute, networkDomain, datacenterId), executor))
+        .whenComplete((released, e) -> {
+          // Leases wait for the release, so none can have been granted in the meantime.
+          synchronized (USAGES) {
+            USAGES.remove(usageKey);
+          }
+          if (e != null) {
+            release.completeExceptionally(e);
+          } else {
+            release.complete(null);
+          }
+        });
+    return release;
+  }
+
+  private CompletableFuture<Void> releaseVlan(Cloud compute, String networkDomainId, String networkDomainName,
+      String datacenterId, String vlanBaseIpv4) {
+    return CompletableFuture.supplyAsync(() -> findVlan(compute, networkDomainId, vlanBaseIpv4), executor)
+        .thenCompose(vlan -> {
+          if (vlan == null) {
+            return CompletableFuture.completedFuture(null);
+          }
+          if (!isDeployedVlan(vlan, networkDomainName)) {
+            LOG.info(">> Keeping Vlan '{}' ({}), it was not deployed by this plugin.", vlanBaseIpv4, vlan.getId());
+            return CompletableFuture.completedFuture(null);
+          }
+          if (hasServers(compute, new Filter(new Param("vlanId", vlan.getId())))) {
+            LOG.info(">> Keeping Vlan '{}' ({}), servers are still attached to it.", vlanBaseIpv4, vlan.getId());
+            return CompletableFuture.completedFuture(null);
+          }
+          LOG.info(">> Deleting unused Vlan '{}' ({}).", vlanBaseIpv4, vlan.getId());
+          compute.vlan().deleteVlan(vlan.getId());
+          vlanIndex.invalidate(datacenterId);
+          return poller.awaitVlanDeleted(vlan.getId(), networkDomainId, datacenterId).thenApply(deleted -> null);
+        });
+  }
+
+  private CompletableFuture<Void> releaseNetworkDomain(Cloud compute, NetworkDomainType networkDomain,
+      String datacenterId) {
+    if (!isDeployedNetworkDomain(networkDomain)) {
+      LOG.info(">> Keeping network domain '{}' ({}), it was not deployed by this plugin.", networkDomain.getName(),
+          networkDomain.getId());
+      return CompletableFuture.completedFuture(null);
+    }
+    Filter filter = new Filter(new Param("networkDomainId", networkDomain.getId()));
+    if (hasServers(compute, filter) || PagedListings.vlans(compute, filter, null).findAny().isPresent()) {
+      LOG.info(">> Keeping network domain '{}' ({}), it is still in use.", networkDomain.getName(),
+          networkDomain.getId());
+      return CompletableFuture.completedFuture(null);
+    }
+    LOG.info(">> Deleting unused network domain '{}' ({}).", networkDomain.getName(), networkDomain.getId());
+    compute.networkDomain().deleteNetworkDomain(networkDomain.getId());
+    return poller.awaitNetworkDomainDeleted(networkDomain.getId(), datacenterId).thenApply(deleted -> null);
+  }
+
+  /**
+   * Returns whether the specified network domain was deployed by this plugin.
+   *
+   * @param networkDomain the network domain
+   * @return whether the network domain was deployed by this plugin
+   */
+  static boolean isDeployedNetworkDomain(NetworkDomainType networkDomain) {
+    return NETWORK_DOMAIN_DESCRIPTION.equals(networkDomain.getDescription());
+  }
+
+  /**
+   * Returns whether the specified VLAN was deployed by this plugin into the specified network
+   * domain.
+   *
+   * @param vlan              the VLAN
+   * @param networkDomainName the name of the network domain containing the VLAN
+   * @return whether the VLAN was deployed by this plugin
+   */
+  static boolean isDeployedVlan(VlanType vlan, String networkDomainName) {
+    return (networkDomainName + VLAN_NAME_SUFFIX).equals(vlan.getName());
+  }
+
+  private static boolean hasServers(Cloud compute, Filter filter) {
+    return PagedListings.servers(compute, filter, null).findAny().isPresent();
+  }
+
+  private String key(String datacenterId, String networkDomainName, String vlanBaseIpv4) {
+    return usageKey(datacenterId, networkDomainName) + "/" + vlanBaseIpv4;
+  }
+
+  private String usageKey(String datacenterId, String networkDomainName) {
+    return credentials.getAccount() + "/" + datacenterId + "/" + networkDomainName;
+  }
+
+  private CompletableFuture<NetworkTopology> lookupOrCreate(String datacenterId, String networkDomainName,
+      String networkDomainType, String vlanBaseIpv4) {
+    return CompletableFuture
+        .supplyAsync(() -> findOrDeployNetworkDomain(datacenterId, networkDomainName, networkDomainType), executor)
+        .thenCompose(networkDomain -> networkDomain.isNormal()
+            ? CompletableFuture.completedFuture(networkDomain.getId())
+            : poller.awaitNetworkDomain(networkDomain.getId(), datacenterId)
+                .thenApply(NetworkDomainType::getId))
+        .thenApplyAsync(networkDomainId -> findOrDeployVlan(datacenterId, networkDomainId, networkDomainName,
+            vlanBaseIpv4), executor)
+        .thenCompose(vlan -> vlan.isNormal()
+            ? CompletableFuture.completedFuture(vlan)
+            : poller.awaitVlan(vlan.getId(), vlan.getNetworkDomainId(), datacenterId)
+                .thenApply(normal -> vlan))
+        .thenApply(vlan -> new NetworkTopology(vlan.getNetworkDomainId(), vlan.getId()));
+  }
+
+  private ResourceRef findOrDeployNetworkDomain(String datacenterId, String networkDomainName,
+      String networkDomainType) {
+    Cloud compute = credentials.getCompute();
+
+    NetworkDomainType existing = findNetworkDomain(compute, datacenterId, networkDomainName);
+    if (existing != null) {
+      LOG.info(">> Reusing network domain '{}' ({}).", networkDomainName, existing.getId());
+      return new ResourceRef(existing.getId(), null, isNormal(existing.getState()));
+    }
+
+    LOG.info(">> Issue request to create network domain '{}'.", networkDomainName);
+    DeployNetworkDomainType networkDomain = new DeployNetworkDomainType();
+    networkDomain.setDatacenterId(datacenterId);
+    networkDomain.setType(networkDomainType);
+    networkDomain.setName(networkDomainName);
+    networkDomain.setDescription(NETWORK_DOMAIN_DESCRIPTION);
+    String networkDomainId = compute.networkDomain().getIdFromDeployResponse(
+        compute.networkDomain().deployNetworkDomain(networkDomain));
+    return new ResourceRef(networkDomainId, null, false);
+  }
+
+  private ResourceRef findOrDeployVlan(String datacenterId, String networkDomainId, String networkDomainName,
+      String vlanBaseIpv4) {
+    Cloud compute = credentials.getCompute();
+
+    VlanType existing = findVlan(compute, networkDomainId, vlanBaseIpv4);
+    if (existing != null) {
+      LOG.info(">> Reusing Vlan '{}' ({}).", vlanBaseIpv4, existing.getId());
+      return new ResourceRef(existing.getId(), networkDomainId, isNormal(existing.getState()));
+    }
+
+    LOG.info(">> Start creating Vlan '{}'.", vlanBaseIpv4);
+    DeployVlanType vlanType = new DeployVlanType();
+    vlanType.setNetworkDomainId(networkDomainId);
+    vlanType.setName(networkDomainName + VLAN_NAME_SUFFIX);
+    vlanType.setPrivateIpv4BaseAddress(vlanBaseIpv4);
+    String vlanId = compute.vlan().getIdFromDeployResponse(compute.vlan().deployVlan(vlanType));
+    vlanIndex.invalidate(datacenterId);
+    return new ResourceRef(vlanId, networkDomainId, false);
+  }
+
+  private static boolean isNormal(String mcpState) {
+    return "NORMAL".equals(mcpState);
+  }
+
+  private NetworkDomainType findNetworkDomain(Cloud compute, String datacenterId, String networkDomainName) {
+    Filter filter = new Filter(new Param("datacenterId", datacenterId));
+    try (Stream<NetworkDomainType> networkDomains = PagedListings.networkDomains(compute, filter, executor)) {
+      return networkDomains
+          .filter(networkDomain -> networkDomain.getName().equals(networkDomainName))
+          .findFirst()
+          .orElse(null);
+    }
+  }
+
+  private VlanType findVlan(Cloud compute, String networkDomainId, String vlanBaseIpv4) {
+    Filter filter = new Filter(new Param("networkDomainId", networkDomainId));
+    try (Stream<VlanType> vlans = PagedListings.vlans(compute, filter, executor)) {
+      return vlans
+          .filter(vlan -> matchesBaseAddress(vlan, vlanBaseIpv4))
+          .findFirst()
+          .orElse(null);
+    }
+  }
+
+  /**
+   * Returns whether the specified VLAN matches the specified base IPv4 address, that is whether
+   * its private IPv4 range contains it, as template validation checks.
+   *
+   * @param vlan         the VLAN
+   * @param vlanBaseIpv4 the base IPv4 address
+   * @return whether the VLAN matches the base IPv4 address
+   */
+  static boolean matchesBaseAddress(VlanType vlan, String vlanBaseIpv4) {
+    return VlanIndex.contains(vlan, vlanBaseIpv4);
+  }
+
+  /**
+   * A network domain or VLAN that was found or deployed, and whether it is already usable.
+   */
+  private static class ResourceRef {
+
+    private final String id;
+    private final String networkDomainId;
+    private final boolean normal;
+
+    ResourceRef(String id, String networkDomainId, boolean normal) {
+      this.id = id;
+      this.networkDomainId = networkDomainId;
+      this.normal = normal;
+    }
+
+    String getId() {
+      return id;
+    }
+
+    String getNetworkDomainId() {
+      return networkDomainId;
+    }
+
+    boolean isNormal() {
+      return normal;
+    }
+  }
+
+  /**
+   * The leases and the release in progress of a network domain.
+   */
+  private static class NetworkUsage {
+
+    private int leases;
+    private CompletableFuture<Void> release;
+  }
+
+  /**
+   * A lease keeping a network domain from being released while an allocation uses it.
+   */
+  static class NetworkLease {
+
+    private final String usageKey;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    NetworkLease(String usageKey) {
+      this.usageKey = usageKey;
+    }
+
+    /**
+     * Ends the lease, once the servers of the allocation have been submitted. Closing a lease
+     * again has no effect.
+     */
+    void close() {
+      if (closed.compareAndSet(false, true)) {
+        synchronized (USAGES) {
+          NetworkUsage usage = USAGES.get(usageKey);
+          if (usage != null && --usage.leases == 0 && usage.release == null) {
+            USAGES.remove(usageKey);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * The resolved network domain and VLAN of a template.
+   */
+  static class NetworkTopology {
+
+    private final String networkDomainId;
+    private final String vlanId;
+
+    NetworkTopology(String networkDomainId, String vlanId) {
+      this.networkDomainId = networkDomainId;
+      this.vlanId = vlanId;
+    }
+
+    String getNetworkDomainId() {
+      return networkDomainId;
+    }
+
+    String getVlanId() {
+      return vlanId;
+    }
+  }
+}
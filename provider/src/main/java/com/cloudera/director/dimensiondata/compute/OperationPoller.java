@@ -0,0 +1,565 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.cloudera.director.dimensiondata.util.PagedListings;
+import com.cloudera.director.dimensiondata.util.WorkerPools;
+import com.cloudera.director.spi.v1.model.exception.PluginExceptionConditionAccumulator;
+import com.dimensiondata.cloud.client.ClientRuntimeException;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.Param;
+import com.dimensiondata.cloud.client.http.ForbiddenException;
+import com.dimensiondata.cloud.client.http.UnauthorizedException;
+import com.dimensiondata.cloud.client.model.NetworkDomainType;
+import com.dimensiondata.cloud.client.model.ServerType;
+import com.dimensiondata.cloud.client.model.VlanType;
+import com.typesafe.config.Config;
+
+/**
+ * Polls pending MCP operations on behalf of many callers. Resources are registered together with the
+ * network domain or datacenter that contains them, and every tick resolves all pending resources of a
+ * scope with a single paged list call, so the cost of polling depends on the number of scopes rather
+ * than the number of resources. When each resource is polled is decided by the {@link PollingProfile}
+ * of its type and datacenter, which learns from the completion times observed so far.
+ */
+class OperationPoller {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OperationPoller.class);
+
+  /**
+   * The interval at which pending resources are checked for a due poll.
+   */
+  private static final long TICK_MILLIS = 1000;
+
+  private final DimensionDataCredentials credentials;
+  private final ScheduledThreadPoolExecutor scheduler;
+  private final AtomicBoolean tickScheduled = new AtomicBoolean();
+
+  private final Tracker<NetworkDomainType> networkDomains;
+  private final Tracker<NetworkDomainType> networkDomainDeletions;
+  private final Tracker<VlanType> vlans;
+  private final Tracker<VlanType> vlanDeletions;
+  private final Tracker<ServerType> servers;
+  private final Tracker<ServerType> serverDeletions;
+  private final List<Tracker<?>> trackers;
+
+  /**
+   * Creates an operation poller with the specified parameters.
+   *
+   * @param credentials         the credentials used to poll
+   * @param dimensiondataConfig the Dimension Data configuration containing the polling settings
+   */
+  OperationPoller(DimensionDataCredentials credentials, Config dimensiondataConfig) {
+    this(credentials, resourceType -> PollingProfile.Settings.fromConfig(dimensiondataConfig, resourceType));
+  }
+
+  /**
+   * Creates an operation poller with the specified parameters.
+   *
+   * @param credentials the credentials used to poll
+   * @param settings    the polling settings by the name of their resource type section, e.g.
+   *                    {@code vlan}
+   */
+  OperationPoller(DimensionDataCredentials credentials, Function<String, PollingProfile.Settings> settings) {
+    this.credentials = credentials;
+
+    this.scheduler = WorkerPools.newScheduler("dimensiondata-poller-%d");
+
+    this.networkDomains = new NetworkDomainTracker("Network Domain", settings.apply("networkDomain"), false);
+
+    this.networkDomainDeletions = new NetworkDomainTracker("Network Domain deletion",
+        settings.apply("networkDomain"), true);
+
+    this.vlans = new VlanTracker("Vlan", settings.apply("vlan"), false);
+
+    this.vlanDeletions = new VlanTracker("Vlan deletion", settings.apply("vlan"), true);
+
+    this.servers = new ServerTracker("Server", "networkDomainId", settings.apply("server"), false);
+
+    this.serverDeletions = new ServerTracker("Server deletion", "datacenterId", settings.apply("serverDeletion"),
+        true);
+
+    this.trackers = Arrays.<Tracker<?>>asList(networkDomains, networkDomainDeletions, vlans, vlanDeletions, servers,
+        serverDeletions);
+  }
+
+  /**
+   * Returns a future that completes when the specified network domain reaches the NORMAL state.
+   *
+   * @param networkDomainId the network domain ID
+   * @param datacenterId    the datacenter containing the network domain
+   * @return a future that completes with the network domain
+   */
+  CompletableFuture<NetworkDomainType> awaitNetworkDomain(String networkDomainId, String datacenterId) {
+    return register(networkDomains, networkDomainId, datacenterId, datacenterId, null);
+  }
+
+  /**
+   * Returns a future that completes when the specified VLAN reaches the NORMAL state.
+   *
+   * @param vlanId          the VLAN ID
+   * @param networkDomainId the network domain containing the VLAN
+   * @param datacenterId    the datacenter containing the network domain
+   * @return a future that completes with the VLAN
+   */
+  CompletableFuture<VlanType> awaitVlan(String vlanId, String networkDomainId, String datacenterId) {
+    return register(vlans, vlanId, networkDomainId, datacenterId, null);
+  }
+
+  /**
+   * Returns a future that completes when the specified network domain no longer exists.
+   *
+   * @param networkDomainId the network domain ID
+   * @param datacenterId    the datacenter containing the network domain
+   * @return a future that completes once the network domain is gone
+   */
+  CompletableFuture<NetworkDomainType> awaitNetworkDomainDeleted(String networkDomainId, String datacenterId) {
+    return register(networkDomainDeletions, networkDomainId, datacenterId, datacenterId, null);
+  }
+
+  /**
+   * Returns a future that completes when the specified VLAN no longer exists.
+   *
+   * @param vlanId          the VLAN ID
+   * @param networkDomainId the network domain containing the VLAN
+   * @param datacenterId    the datacenter containing the network domain
+   * @return a future that completes once the VLAN is gone
+   */
+  CompletableFuture<VlanType> awaitVlanDeleted(String vlanId, String networkDomainId, String datacenterId) {
+    return register(vlanDeletions, vlanId, networkDomainId, datacenterId, null);
+  }
+
+  /**
+   * Returns a future that completes when the specified server reaches the NORMAL state.
+   *
+   * @param serverId        the server ID
+   * @param networkDomainId the network domain containing the server
+   * @param datacenterId    the datacenter containing the network domain
+   * @return a future that completes with the server
+   */
+  CompletableFuture<ServerType> awaitServer(String serverId, String networkDomainId, String datacenterId) {
+    return register(servers, serverId, networkDomainId, datacenterId, null);
+  }
+
+  /**
+   * Returns a future that completes when the specified server reaches the NORMAL state and is
+   * started or stopped as expected. A server being started or stopped may still be seen NORMAL in
+   * its former power state before MCP reports the operation, which must not count as done.
+   *
+   * @param serverId        the server ID
+   * @param networkDomainId the network domain containing the server
+   * @param datacenterId    the datacenter containing the network domain
+   * @param expectStarted   whether the server is expected to be started
+   * @return a future that completes with the server
+   */
+  CompletableFuture<ServerType> awaitServer(String serverId, String networkDomainId, String datacenterId,
+      boolean expectStarted) {
+    return register(servers, serverId, networkDomainId, datacenterId,
+        server -> expectStarted == Boolean.TRUE.equals(server.isStarted()));
+  }
+
+  /**
+   * Returns a future that completes when the specified server no longer exists. Deletions are
+   * tracked per datacenter, so that all servers being deleted in a datacenter are checked with a
+   * single listing.
+   *
+   * @param serverId     the server ID
+   * @param datacenterId the datacenter containing the server
+   * @return a future that completes once the server is gone
+   */
+  CompletableFuture<ServerType> awaitServerDeleted(String serverId, String datacenterId) {
+    return register(serverDeletions, serverId, datacenterId, datacenterId, null);
+  }
+
+  /**
+   * Waits for the specified future, recording its failure in the accumulator.
+   *
+   * @param future      the future
+   * @param accumulator the exception condition accumulator
+   * @return whether the future completed successfully
+   * @throws InterruptedException if the calling thread is interrupted while waiting, in which case
+   *                              the future is cancelled
+   */
+  static boolean await(Future<?> future, PluginExceptionConditionAccumulator accumulator)
+      throws InterruptedException {
+    try {
+      future.get();
+      return true;
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      String message = unwrap(e).getMessage();
+      LOG.error(message);
+      accumulator.addError(null, message);
+      return false;
+    }
+  }
+
+  /**
+   * Returns the underlying cause of a failed future.
+   *
+   * @param e the exception a future failed with
+   * @return the underlying cause
+   */
+  static Throwable unwrap(Throwable e) {
+    while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null) {
+      e = e.getCause();
+    }
+    return e;
+  }
+
+  private <T> CompletableFuture<T> register(Tracker<T> tracker, String resourceId, String scope,
+      String datacenterId, Predicate<T> expected) {
+    PendingResource<T> pendingResource = new PendingResource<T>(resourceId, tracker.getProfile(datacenterId),
+        expected, System.currentTimeMillis());
+    tracker.add(scope, pendingResource);
+    scheduleTick();
+    return pendingResource.future;
+  }
+
+  private void scheduleTick() {
+    if (tickScheduled.compareAndSet(false, true)) {
+      scheduler.schedule(this::tick, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void tick() {
+    try {
+      Cloud compute = credentials.getCompute();
+      long now = System.currentTimeMillis();
+      for (Tracker<?> tracker : trackers) {
+        tracker.poll(compute, now);
+      }
+    } catch (RuntimeException e) {
+      LOG.warn("Unexpected error while polling pending operations.", e);
+    } finally {
+      tickScheduled.set(false);
+      if (hasPending()) {
+        scheduleTick();
+      }
+    }
+  }
+
+  private boolean hasPending() {
+    for (Tracker<?> tracker : trackers) {
+      if (!tracker.pendingByScope.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Tracks the pending resources of one resource type, grouped by the scope they are listed in.
+   *
+   * @param <T> the type of resource
+   */
+  private abstract static class Tracker<T> {
+
+    private final String name;
+    private final String scopeParam;
+    private final PollingProfile.Settings settings;
+    private final boolean awaitsDeletion;
+    private final ConcurrentMap<String, Set<PendingResource<T>>> pendingByScope =
+        new ConcurrentHashMap<String, Set<PendingResource<T>>>();
+    private final ConcurrentMap<String, PollingProfile> profilesByDatacenter =
+        new ConcurrentHashMap<String, PollingProfile>();
+
+    /**
+     * Creates a tracker waiting for resources to reach the NORMAL state or, if {@code awaitsDeletion}
+     * is set, to disappear.
+     */
+    Tracker(String name, String scopeParam, PollingProfile.Settings settings, boolean awaitsDeletion) {
+      this.name = name;
+      this.scopeParam = scopeParam;
+      this.settings = settings;
+      this.awaitsDeletion = awaitsDeletion;
+    }
+
+    abstract Stream<T> stream(Cloud compute, Filter filter);
+
+    abstract String getId(T resource);
+
+    abstract String getState(T resource);
+
+    PollingProfile getProfile(String datacenterId) {
+      return profilesByDatacenter.computeIfAbsent(datacenterId, key -> new PollingProfile(settings));
+    }
+
+    void add(String scope, PendingResource<T> pendingResource) {
+      pendingByScope.compute(scope, (key, scoped) -> {
+        Set<PendingResource<T>> result = scoped != null ? scoped : ConcurrentHashMap.<PendingResource<T>>newKeySet();
+        result.add(pendingResource);
+        return result;
+      });
+    }
+
+    void poll(Cloud compute, long now) {
+      for (Map.Entry<String, Set<PendingResource<T>>> entry : pendingByScope.entrySet()) {
+        String scope = entry.getKey();
+        Set<PendingResource<T>> scoped = entry.getValue();
+
+        if (isDue(scoped, now)) {
+          LOG.info("Checking {} status for {} resources in {} '{}'", name, scoped.size(), scopeParam, scope);
+          Map<String, T> snapshot;
+          try {
+            snapshot = list(compute, scope);
+          } catch (ForbiddenException | UnauthorizedException e) {
+            failAll(scoped, e);
+            snapshot = null;
+          } catch (RuntimeException e) {
+            // Transient failures are retried on the next due poll.
+            LOG.warn("Unable to list {} resources in {} '{}': {}", name, scopeParam, scope, e.getMessage());
+            snapshot = null;
+            for (PendingResource<T> pendingResource : scoped) {
+              pendingResource.backOff(now);
+            }
+          }
+
+          if (snapshot != null) {
+            for (Iterator<PendingResource<T>> iterator = scoped.iterator(); iterator.hasNext(); ) {
+              PendingResource<T> pendingResource = iterator.next();
+              if (update(pendingResource, snapshot.get(pendingResource.resourceId), now)) {
+                iterator.remove();
+              }
+            }
+          }
+        }
+
+        expire(scoped, now);
+        pendingByScope.computeIfPresent(scope, (key, remaining) -> remaining.isEmpty() ? null : remaining);
+      }
+    }
+
+    private boolean isDue(Set<PendingResource<T>> scoped, long now) {
+      for (PendingResource<T> pendingResource : scoped) {
+        if (pendingResource.nextPollAt <= now) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private Map<String, T> list(Cloud compute, String scope) {
+      Filter filter = new Filter(new Param(scopeParam, scope));
+      Map<String, T> snapshot = new HashMap<String, T>();
+      stream(compute, filter).forEach(resource -> snapshot.put(getId(resource), resource));
+      return snapshot;
+    }
+
+    /**
+     * Updates a pending resource from the latest snapshot.
+     *
+     * @return whether the pending resource is finished
+     */
+    private boolean update(PendingResource<T> pendingResource, T resource, long now) {
+      if (pendingResource.future.isDone()) {
+        return true;
+      }
+      String mcpState = resource != null ? getState(resource) : null;
+      if (awaitsDeletion ? resource == null : "NORMAL".equals(mcpState) && pendingResource.isExpected(resource)) {
+        pendingResource.profile.record(pendingResource.elapsedUntilCompleted(now));
+        pendingResource.future.complete(resource);
+        return true;
+      } else if (mcpState != null && (mcpState.startsWith("FAILED") || mcpState.equals("REQUIRES_SUPPORT"))) {
+        pendingResource.future.completeExceptionally(new ClientRuntimeException(
+            name + " '" + pendingResource.resourceId + "' entered state " + mcpState + "."));
+        return true;
+      }
+      pendingResource.lastSeenPendingAt = now;
+      pendingResource.backOff(now);
+      return false;
+    }
+
+    private void expire(Set<PendingResource<T>> scoped, long now) {
+      for (Iterator<PendingResource<T>> iterator = scoped.iterator(); iterator.hasNext(); ) {
+        PendingResource<T> pendingResource = iterator.next();
+        if (pendingResource.deadline < now) {
+          pendingResource.future.completeExceptionally(new TimeoutException("Exceeded timeout of '"
+              + pendingResource.profile.getSettings().getTimeoutSeconds() + "' seconds while polling for pending operations to complete."));
+          iterator.remove();
+        } else if (pendingResource.future.isDone()) {
+          iterator.remove();
+        }
+      }
+    }
+
+    private void failAll(Set<PendingResource<T>> scoped, RuntimeException e) {
+      for (PendingResource<T> pendingResource : scoped) {
+        pendingResource.future.completeExceptionally(e);
+      }
+      scoped.clear();
+    }
+  }
+
+  /**
+   * Tracks network domains, which are listed per datacenter.
+   */
+  private static class NetworkDomainTracker extends Tracker<NetworkDomainType> {
+
+    NetworkDomainTracker(String name, PollingProfile.Settings settings, boolean awaitsDeletion) {
+      super(name, "datacenterId", settings, awaitsDeletion);
+    }
+
+    @Override
+    Stream<NetworkDomainType> stream(Cloud compute, Filter filter) {
+      return PagedListings.networkDomains(compute, filter, null);
+    }
+
+    @Override
+    String getId(NetworkDomainType resource) {
+      return resource.getId();
+    }
+
+    @Override
+    String getState(NetworkDomainType resource) {
+      return resource.getState();
+    }
+  }
+
+  /**
+   * Tracks VLANs, which are listed per network domain.
+   */
+  private static class VlanTracker extends Tracker<VlanType> {
+
+    VlanTracker(String name, PollingProfile.Settings settings, boolean awaitsDeletion) {
+      super(name, "networkDomainId", settings, awaitsDeletion);
+    }
+
+    @Override
+    Stream<VlanType> stream(Cloud compute, Filter filter) {
+      return PagedListings.vlans(compute, filter, null);
+    }
+
+    @Override
+    String getId(VlanType resource) {
+      return resource.getId();
+    }
+
+    @Override
+    String getState(VlanType resource) {
+      return resource.getState();
+    }
+  }
+
+  /**
+   * Tracks servers, which are listed per network domain while they are deployed and per datacenter
+   * while they are deleted.
+   */
+  private static class ServerTracker extends Tracker<ServerType> {
+
+    ServerTracker(String name, String scopeParam, PollingProfile.Settings settings, boolean awaitsDeletion) {
+      super(name, scopeParam, settings, awaitsDeletion);
+    }
+
+    @Override
+    Stream<ServerType> stream(Cloud compute, Filter filter) {
+      return PagedListings.servers(compute, filter, null);
+    }
+
+    @Override
+    String getId(ServerType resource) {
+      return resource.getId();
+    }
+
+    @Override
+    String getState(ServerType resource) {
+      return resource.getState();
+    }
+  }
+
+  /**
+   * A resource waiting for a pending operation to complete.
+   *
+   * @param <T> the type of resource
+   */
+  private static class PendingResource<T> {
+
+    private final String resourceId;
+    private final PollingProfile profile;
+    private final Predicate<T> expected;
+    private final long registeredAt;
+    private final long deadline;
+    private final CompletableFuture<T> future = new CompletableFuture<T>();
+
+    private long pollDelay;
+    private volatile long nextPollAt;
+    private long lastSeenPendingAt;
+
+    PendingResource(String resourceId, PollingProfile profile, Predicate<T> expected, long registeredAt) {
+      this.resourceId = resourceId;
+      this.profile = profile;
+      this.expected = expected;
+      this.registeredAt = registeredAt;
+      this.deadline = registeredAt + TimeUnit.SECONDS.toMillis(profile.getSettings().getTimeoutSeconds());
+      this.pollDelay = profile.firstPollDelay();
+      this.nextPollAt = registeredAt + pollDelay;
+      this.lastSeenPendingAt = registeredAt;
+    }
+
+    /**
+     * Returns whether a NORMAL resource is as expected once the operation is done.
+     */
+    boolean isExpected(T resource) {
+      return expected == null || expected.test(resource);
+    }
+
+    /**
+     * Returns the time the operation took, given that it was seen completed at the specified time.
+     * It completed at some point since it was last seen pending, and taking the middle of that span
+     * keeps completion times from growing with the interval between polls, which would make later
+     * polls ever sparser.
+     */
+    long elapsedUntilCompleted(long now) {
+      return (lastSeenPendingAt + now) / 2 - registeredAt;
+    }
+
+    void backOff(long now) {
+      if (nextPollAt > now) {
+        return;
+      }
+      pollDelay = profile.nextPollDelay(now - registeredAt, pollDelay);
+      nextPollAt = now + pollDelay;
+    }
+  }
+}
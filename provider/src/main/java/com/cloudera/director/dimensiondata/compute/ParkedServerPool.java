@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.Configurations;
+import com.cloudera.director.dimensiondata.compute.DiskProvisioner.DataDisks;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.Claim;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.PendingDeployment;
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.cloudera.director.dimensiondata.util.PagedListings;
+import com.cloudera.director.dimensiondata.util.WorkerPools;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.Param;
+import com.dimensiondata.cloud.client.model.EditServerMetadataType;
+import com.dimensiondata.cloud.client.model.ResponseType;
+import com.dimensiondata.cloud.client.model.ServerType;
+import com.typesafe.config.Config;
+
+/**
+ * Keeps the servers of deleted instances stopped instead of destroying them, so that a later
+ * allocation with the same template restarts them rather than deploying new servers from the
+ * image. A parked server is renamed so that it no longer belongs to its instance, and its name
+ * carries the fingerprint of its template, so that the servers parked by a previous run are
+ * adopted. Restarted servers keep the data disks they were parked with. Pools are shared by all
+ * providers of the same account, which makes the pool the only owner of its servers, so that no two
+ * instances restart the same server. MCP cannot rename a server conditionally, so parked servers
+ * must not be used by plugins running in other processes with the same account.
+ */
+class ParkedServerPool {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ParkedServerPool.class);
+
+  /**
+   * The name prefix of parked servers.
+   */
+  static final String NAME_PREFIX = "parked-";
+
+  private static final AccountRegistry<ParkedServerPool> POOLS =
+      new AccountRegistry<ParkedServerPool>("parked server pool", ParkedServerPool::shutdown);
+
+  private final DimensionDataCredentials credentials;
+  private final OperationPoller poller;
+  private final ExecutorService executor;
+  private final boolean enabled;
+
+  private final ConcurrentMap<String, Parked> parkedByFingerprint = new ConcurrentHashMap<String, Parked>();
+
+  /**
+   * Returns the pool of the account of the specified credentials, creating it from the
+   * configuration if needed. The pool keeps the settings it was created with.
+   *
+   * @param credentials         the credentials used to park and restart servers
+   * @param dimensiondataConfig the Dimension Data configuration
+   * @return the pool
+   */
+  static ParkedServerPool forAccount(DimensionDataCredentials credentials, Config dimensiondataConfig) {
+    int threads = dimensiondataConfig.getInt(Configurations.COMPUTE_DEPLOYMENT_SECTION + "maxConcurrentDeployments");
+    boolean enabled = dimensiondataConfig.getBoolean(Configurations.COMPUTE_HIBERNATION_SECTION + "enabled");
+    return POOLS.get(credentials.getAccount(), Arrays.asList(threads, enabled),
+        () -> new ParkedServerPool(credentials, new OperationPoller(credentials, dimensiondataConfig),
+            WorkerPools.newBoundedPool("dimensiondata-parking-%d", threads), enabled));
+  }
+
+  /**
+   * Creates a parked server pool with the specified parameters.
+   *
+   * @param credentials the credentials used to park and restart servers
+   * @param poller      the poller used to wait for servers
+   * @param executor    the executor used to issue MCP requests
+   * @param enabled     whether the servers of deleted instances are parked
+   */
+  ParkedServerPool(DimensionDataCredentials credentials, OperationPoller poller, ExecutorService executor,
+      boolean enabled) {
+    this.credentials = credentials;
+    this.poller = poller;
+    this.executor = executor;
+    this.enabled = enabled;
+  }
+
+  /**
+   * Stops parking and restarting servers. Parked servers are left as they are, to be adopted by the
+   * next run.
+   */
+  void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Returns whether the servers of deleted instances are parked.
+   *
+   * @return whether the servers of deleted instances are parked
+   */
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Stops the specified server, renames it and adds it to the pool of its template. The server is
+   * shut down gracefully and powered off if that fails or leaves it running, and is only renamed
+   * once it is stopped, so that a server that cannot be stopped never carries a parked name. The
+   * caller deletes the server if parking fails.
+   *
+   * @param serverId the server ID
+   * @param plan     the plan of the template the server was deployed from
+   * @return a future that completes once the server is stopped and parked
+   */
+  CompletableFuture<Void> park(String serverId, TemplatePlan plan) {
+    String name = NAME_PREFIX + plan.getFingerprint() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    return CompletableFuture
+        .supplyAsync(() -> credentials.getCompute().server().getServer(serverId), executor)
+        .thenCompose(server -> {
+          String networkDomainId = server.getNetworkInfo().getNetworkDomainId();
+          LOG.info(">> Parking server '{}' as '{}'.", server.getName(), name);
+          CompletableFuture<Void> stopped = Boolean.TRUE.equals(server.isStarted())
+              ? stop(serverId, networkDomainId, plan.getDatacenter())
+              : CompletableFuture.completedFuture(null);
+          return stopped.thenRunAsync(() -> {
+            EditServerMetadataType metadata = new EditServerMetadataType();
+            metadata.setId(serverId);
+            metadata.setName(name);
+            credentials.getCompute().server().editServerMetadata(metadata);
+            offer(parkedFor(plan.getFingerprint()), new ParkedServer(serverId, name, networkDomainId));
+          }, executor);
+        });
+  }
+
+  /**
+   * Shuts the specified server down, powering it off if the shutdown fails or the server is not
+   * stopped within the server polling timeout, which happens when its guest ignores the shutdown
+   * request.
+   */
+  private CompletableFuture<Void> stop(String serverId, String networkDomainId, String datacenterId) {
+    return apply(() -> credentials.getCompute().server().shutdownServer(serverId), serverId, networkDomainId,
+        datacenterId)
+        .handle((server, e) -> {
+          if (e != null) {
+            LOG.warn("Unable to shut down server '{}', powering it off: {}", serverId,
+                OperationPoller.unwrap(e).getMessage());
+            return false;
+          }
+          return true;
+        })
+        .thenCompose(stopped -> stopped
+            ? CompletableFuture.completedFuture(null)
+            : apply(() -> credentials.getCompute().server().powerOffServer(serverId), serverId, networkDomainId,
+                datacenterId)
+                .thenAccept(server -> { }));
+  }
+
+  /**
+   * Issues the specified request for a server and waits until the server is NORMAL and stopped. A
+   * server seen NORMAL and still started has not been stopped yet.
+   */
+  private CompletableFuture<ServerType> apply(Supplier<ResponseType> request, String serverId,
+      String networkDomainId, String datacenterId) {
+    return CompletableFuture.supplyAsync(request, executor)
+        .thenCompose(response -> poller.awaitServer(serverId, networkDomainId, datacenterId, false));
+  }
+
+  /**
+   * Restarts a server parked with the template of the specified instance. Servers that are no
+   * longer stopped under their parked name are dropped from the pool, and a server that could not
+   * be renamed is offered again.
+   *
+   * @param instanceId       the Director instance ID
+   * @param plan             the plan of the template
+   * @param deploymentEngine the engine tracking the restarted server
+   * @return the pending deployment of the restarted server, or {@code null} if no server is parked
+   */
+  PendingDeployment claim(String instanceId, TemplatePlan plan, ServerDeploymentEngine deploymentEngine) {
+    Parked parked = parkedFor(plan.getFingerprint());
+    if (parked.adopted.compareAndSet(false, true)) {
+      adopt(parked);
+    }
+    ParkedServer server;
+    while ((server = parked.ready.poll()) != null) {
+      Claim claim = deploymentEngine.claim(server.serverId, server.name, plan.getInstanceName(instanceId));
+      if (claim == Claim.CLAIMED) {
+        LOG.info(">> Restarting parked server '{}' for instance: {}", server.serverId, instanceId);
+        return deploymentEngine.resume(instanceId, server.serverId, server.networkDomainId, plan.getDatacenter(),
+            DataDisks.NONE);
+      }
+      if (claim == Claim.RETURNED) {
+        offer(parked, server);
+        return null;
+      }
+      LOG.info(">> Parked server '{}' is no longer available.", server.serverId);
+    }
+    return null;
+  }
+
+  /**
+   * Adds the stopped servers parked by a previous run to the pool.
+   */
+  private void adopt(Parked parked) {
+    Filter filter = new Filter(new Param("name.LIKE", NAME_PREFIX + parked.fingerprint + "-*"));
+    try (Stream<ServerType> servers = PagedListings.servers(credentials.getCompute(), filter, executor)) {
+      servers
+          .filter(server -> "NORMAL".equals(server.getState()) && !Boolean.TRUE.equals(server.isStarted()))
+          .forEach(server -> {
+            if (offer(parked, new ParkedServer(server.getId(), server.getName(),
+                server.getNetworkInfo().getNetworkDomainId()))) {
+              LOG.info(">> Adopting parked server '{}' ({}).", server.getName(), server.getId());
+            }
+          });
+    } catch (RuntimeException e) {
+      LOG.warn("Unable to list parked servers '{}': {}", parked.fingerprint, e.getMessage());
+      parked.adopted.set(false);
+    }
+  }
+
+  /**
+   * Adds a server to the pool unless it is there already, since servers parked by this run before
+   * the first claim are adopted as well.
+   */
+  private static boolean offer(Parked parked, ParkedServer server) {
+    synchronized (parked) {
+      if (parked.ready.stream().anyMatch(known -> known.serverId.equals(server.serverId))) {
+        return false;
+      }
+      return parked.ready.add(server);
+    }
+  }
+
+  private Parked parkedFor(String fingerprint) {
+    return parkedByFingerprint.computeIfAbsent(fingerprint, Parked::new);
+  }
+
+  /**
+   * The parked servers of one template fingerprint.
+   */
+  private static class Parked {
+
+    private final String fingerprint;
+    private final Queue<ParkedServer> ready = new ConcurrentLinkedQueue<ParkedServer>();
+    private final AtomicBoolean adopted = new AtomicBoolean();
+
+    Parked(String fingerprint) {
+      this.fingerprint = fingerprint;
+    }
+  }
+
+  /**
+   * A stopped server, the name it was parked with and the network domain containing it.
+   */
+  private static class ParkedServer {
+
+    private final String serverId;
+    private final String name;
+    private final String networkDomainId;
+
+    ParkedServer(String serverId, String name, String networkDomainId) {
+      this.serverId = serverId;
+      this.name = name;
+      this.networkDomainId = networkDomainId;
+    }
+  }
+}
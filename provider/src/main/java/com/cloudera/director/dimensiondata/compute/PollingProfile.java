@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.Arrays;
+
+import com.cloudera.director.dimensiondata.Configurations;
+import com.typesafe.config.Config;
+
+/**
+ * Decides when a pending resource of one type in one datacenter is polled next, based on how long
+ * resources of that type took to complete there before. Once enough completion times have been
+ * observed, the first poll waits until a low percentile of them and polling is dense up to a high
+ * percentile, after which it backs off. Until then, resources are polled with a backoff from the
+ * configured initial interval.
+ */
+class PollingProfile {
+
+  /**
+   * The growth factor of the backoff, which approximates a Fibonacci sequence.
+   */
+  private static final double BACKOFF_FACTOR = 1.618;
+
+  private final Settings settings;
+
+  // Ring buffer of the most recent completion times, in milliseconds.
+  private final long[] history;
+  private int size;
+  private int next;
+
+  // Percentiles of the history, recomputed lazily after each observation.
+  private long firstPollMillis = -1;
+  private long densePollMillis = -1;
+
+  /**
+   * Creates a polling profile with the specified settings.
+   *
+   * @param settings the settings of the resource type
+   */
+  PollingProfile(Settings settings) {
+    this.settings = settings;
+    this.history = new long[settings.historySize];
+  }
+
+  /**
+   * Returns the settings of the resource type.
+   *
+   * @return the settings of the resource type
+   */
+  Settings getSettings() {
+    return settings;
+  }
+
+  /**
+   * Records the time a resource took to complete.
+   *
+   * @param durationMillis the completion time, in milliseconds
+   */
+  synchronized void record(long durationMillis) {
+    history[next] = durationMillis;
+    next = (next + 1) % history.length;
+    size = Math.min(size + 1, history.length);
+    firstPollMillis = -1;
+    densePollMillis = -1;
+  }
+
+  /**
+   * Returns the delay before a newly registered resource is polled for the first time.
+   *
+   * @return the delay, in milliseconds
+   */
+  synchronized long firstPollDelay() {
+    return isLearned() ? Math.max(firstPollMillis(), settings.denseIntervalMillis) : settings.initialIntervalMillis;
+  }
+
+  /**
+   * Returns the delay before a pending resource is polled again.
+   *
+   * @param elapsedMillis   the time since the resource was registered
+   * @param lastDelayMillis the previous delay
+   * @return the delay, in milliseconds
+   */
+  synchronized long nextPollDelay(long elapsedMillis, long lastDelayMillis) {
+    if (isLearned()) {
+      if (elapsedMillis < firstPollMillis()) {
+        return Math.max(firstPollMillis() - elapsedMillis, settings.denseIntervalMillis);
+      } else if (elapsedMillis <= densePollMillis()) {
+        return settings.denseIntervalMillis;
+      }
+      lastDelayMillis = Math.max(lastDelayMillis, settings.denseIntervalMillis);
+    }
+    return Math.min((long) (lastDelayMillis * BACKOFF_FACTOR), settings.maxIntervalMillis);
+  }
+
+  private boolean isLearned() {
+    return size >= settings.minSamples;
+  }
+
+  private long firstPollMillis() {
+    if (firstPollMillis < 0) {
+      firstPollMillis = percentile(settings.firstPollPercentile);
+    }
+    return firstPollMillis;
+  }
+
+  private long densePollMillis() {
+    if (densePollMillis < 0) {
+      densePollMillis = percentile(settings.densePollPercentile);
+    }
+    return densePollMillis;
+  }
+
+  private long percentile(int percentile) {
+    long[] sorted = Arrays.copyOf(history, size);
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+    return sorted[Math.max(rank - 1, 0)];
+  }
+
+  /**
+   * The configured polling settings of one resource type.
+   */
+  static class Settings {
+
+    private final int timeoutSeconds;
+    private final int historySize;
+    private final int minSamples;
+    private final long initialIntervalMillis;
+    private final int firstPollPercentile;
+    private final int densePollPercentile;
+    private final long denseIntervalMillis;
+    private final long maxIntervalMillis;
+
+    /**
+     * Reads the polling settings of the specified resource type.
+     *
+     * @param dimensiondataConfig the Dimension Data configuration
+     * @param resourceType        the name of the resource type section, e.g. {@code vlan}
+     * @return the polling settings
+     */
+    static Settings fromConfig(Config dimensiondataConfig, String resourceType) {
+      String section = Configurations.COMPUTE_POLLING_SECTION + resourceType + ".";
+      return new Settings(
+          dimensiondataConfig.getInt(section + "timeoutSeconds"),
+          dimensiondataConfig.getInt(Configurations.COMPUTE_POLLING_SECTION + "historySize"),
+          dimensiondataConfig.getInt(Configurations.COMPUTE_POLLING_SECTION + "minSamples"),
+          dimensiondataConfig.getLong(section + "initialIntervalMillis"),
+          dimensiondataConfig.getInt(section + "firstPollPercentile"),
+          dimensiondataConfig.getInt(section + "densePollPercentile"),
+          dimensiondataConfig.getLong(section + "denseIntervalMillis"),
+          dimensiondataConfig.getLong(section + "maxIntervalMillis"));
+    }
+
+    Settings(int timeoutSeconds, int historySize, int minSamples, long initialIntervalMillis,
+        int firstPollPercentile, int densePollPercentile, long denseIntervalMillis, long maxIntervalMillis) {
+      if (historySize < 1 || minSamples < 1) {
+        throw new IllegalArgumentException("Polling history size and minimum samples must be positive.");
+      }
+      if (firstPollPercentile < 0 || firstPollPercentile > densePollPercentile || densePollPercentile > 100) {
+        throw new IllegalArgumentException("Polling percentiles must satisfy 0 <= firstPollPercentile"
+            + " <= densePollPercentile <= 100.");
+      }
+      this.timeoutSeconds = timeoutSeconds;
+      this.historySize = historySize;
+      this.minSamples = Math.min(minSamples, historySize);
+      this.initialIntervalMillis = initialIntervalMillis;
+      this.firstPollPercentile = firstPollPercentile;
+      this.densePollPercentile = densePollPercentile;
+      this.denseIntervalMillis = denseIntervalMillis;
+      this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    int getTimeoutSeconds() {
+      return timeoutSeconds;
+    }
+  }
+}
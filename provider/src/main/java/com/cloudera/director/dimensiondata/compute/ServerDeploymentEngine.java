@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.compute.DiskProvisioner.DataDisks;
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.cloudera.director.dimensiondata.util.WorkerPools;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.http.NotFoundException;
+import com.dimensiondata.cloud.client.model.DeployServerType;
+import com.dimensiondata.cloud.client.model.EditServerMetadataType;
+import com.dimensiondata.cloud.client.model.ResponseType;
+import com.dimensiondata.cloud.client.model.ServerType;
+
+/**
+ * Deploys servers through a bounded worker pool, tracking every deployment on its own so that the
+ * time taken to deploy a batch is bounded by the slowest server rather than the sum of all servers.
+ * Workers only submit the deployments; waiting for the servers is left to the shared
+ * {@link OperationPoller}. Deployments a caller stops waiting for are finished in the background,
+ * and deleted if they fail or do not complete within the straggler timeout.
+ */
+class ServerDeploymentEngine {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ServerDeploymentEngine.class);
+
+  private final DimensionDataCredentials credentials;
+  private final OperationPoller poller;
+  private final Executor executor;
+  private final ScheduledExecutorService scheduler;
+  private final DiskProvisioner diskProvisioner;
+  private final int stragglerTimeoutSeconds;
+
+  /**
+   * Creates a server deployment engine with the specified parameters.
+   *
+   * @param credentials             the credentials used to issue the deployments
+   * @param poller                  the poller used to wait for deployed servers
+   * @param executor                the bounded worker pool deployments are submitted from
+   * @param stragglerTimeoutSeconds the time deployments finishing in the background are given before
+   *                                their servers are deleted
+   */
+  ServerDeploymentEngine(DimensionDataCredentials credentials, OperationPoller poller, Executor executor,
+      int stragglerTimeoutSeconds) {
+    this.credentials = credentials;
+    this.poller = poller;
+    this.executor = executor;
+    this.scheduler = WorkerPools.newScheduler("dimensiondata-stragglers-%d");
+    this.diskProvisioner = new DiskProvisioner(credentials, poller, executor);
+    this.stragglerTimeoutSeconds = stragglerTimeoutSeconds;
+  }
+
+  /**
+   * Deploys the specified server.
+   *
+   * @param instanceId   the Director instance ID
+   * @param datacenterId the datacenter the server is deployed in
+   * @param request      the deployment request
+   * @param dataDisks    the data disks added once the server is deployed
+   * @return the pending deployment
+   */
+  PendingDeployment deploy(String instanceId, String datacenterId, DeployServerType request, DataDisks dataDisks) {
+    CompletableFuture<ServerDeployment> submission = CompletableFuture
+        .supplyAsync(() -> submit(instanceId, request), executor);
+
+    return track(instanceId, submission, request.getNetworkInfo().getNetworkDomainId(), datacenterId,
+        dataDisks);
+  }
+
+  /**
+   * Claims a stopped server for an instance by renaming it to the server name of the instance. MCP
+   * cannot rename a server conditionally, so claims are only safe because every pooled server is
+   * handed out by the single pool of its account in this plugin. The server is checked before it is
+   * renamed, so that servers renamed, started or deleted outside of the pool are not claimed. If the
+   * rename fails, the server is given its pool name back so that it can be offered again, and is
+   * deleted if even that fails, since it may then carry the name of the instance without being
+   * tracked.
+   *
+   * @param serverId     the ID of the stopped server
+   * @param expectedName the name the server carries while it is free to be claimed
+   * @param name         the server name of the instance
+   * @return the outcome of the claim
+   */
+  Claim claim(String serverId, String expectedName, String name) {
+    Cloud compute = credentials.getCompute();
+    try {
+      ServerType server = compute.server().getServer(serverId);
+      if (!expectedName.equals(server.getName()) || !"NORMAL".equals(server.getState())
+          || Boolean.TRUE.equals(server.isStarted())) {
+        return Claim.UNAVAILABLE;
+      }
+    } catch (NotFoundException e) {
+      return Claim.UNAVAILABLE;
+    } catch (RuntimeException e) {
+      LOG.warn("Unable to read server '{}' before claiming it: {}", serverId, e.getMessage());
+      return Claim.RETURNED;
+    }
+
+    try {
+      rename(compute, serverId, name);
+      return Claim.CLAIMED;
+    } catch (RuntimeException e) {
+      LOG.warn("Unable to claim server '{}', restoring its name: {}", serverId, e.getMessage());
+    }
+    try {
+      rename(compute, serverId, expectedName);
+      return Claim.RETURNED;
+    } catch (RuntimeException e) {
+      LOG.error("Unable to restore the name of server '{}', deleting it: {}", serverId, e.getMessage());
+      delete(name, serverId);
+      return Claim.UNAVAILABLE;
+    }
+  }
+
+  private static void rename(Cloud compute, String serverId, String name) {
+    EditServerMetadataType metadata = new EditServerMetadataType();
+    metadata.setId(serverId);
+    metadata.setName(name);
+    compute.server().editServerMetadata(metadata);
+  }
+
+  /**
+   * Starts a stopped server claimed for an instance, tracking it like a deployment.
+   *
+   * @param instanceId      the Director instance ID
+   * @param serverId        the ID of the claimed server
+   * @param networkDomainId the network domain containing the server
+   * @param datacenterId    the datacenter containing the network domain
+   * @param dataDisks       the data disks added once the server is started
+   * @return the pending deployment
+   * @see #claim(String, String, String)
+   */
+  PendingDeployment resume(String instanceId, String serverId, String networkDomainId, String datacenterId,
+      DataDisks dataDisks) {
+    CompletableFuture<ServerDeployment> submission = CompletableFuture.supplyAsync(() -> {
+      try {
+        ResponseType response = credentials.getCompute().server().startServer(serverId);
+        return new ServerDeployment(instanceId, response, serverId, null);
+      } catch (RuntimeException e) {
+        // Keep the server ID so that the server is torn down with the failed deployment.
+        return new ServerDeployment(instanceId, null, serverId, String.valueOf(e.getMessage()));
+      }
+    }, executor);
+
+    return track(instanceId, submission, networkDomainId, datacenterId, dataDisks);
+  }
+
+  /**
+   * Tracks a server from the moment the request that makes it usable has been submitted until it
+   * is NORMAL and started and its data disks have been added.
+   *
+   * @param instanceId      the Director instance ID
+   * @param submission      the submission of the request, which identifies the server
+   * @param networkDomainId the network domain containing the server
+   * @param datacenterId    the datacenter containing the network domain
+   * @param dataDisks       the data disks added once the server is NORMAL and started
+   * @return the pending deployment
+   */
+  PendingDeployment track(String instanceId, CompletableFuture<ServerDeployment> submission,
+      String networkDomainId, String datacenterId, DataDisks dataDisks) {
+    CompletableFuture<ServerDeployment> submitted = submission
+        .exceptionally(e -> new ServerDeployment(instanceId, null, null,
+            String.valueOf(OperationPoller.unwrap(e))));
+
+    CompletableFuture<ServerDeployment> outcome = submitted.thenCompose(deployment -> !deployment.isSuccessful()
+        ? CompletableFuture.completedFuture(deployment)
+        : poller.awaitServer(deployment.getServerId(), networkDomainId, datacenterId, true)
+            .thenCompose(server -> diskProvisioner.provision(deployment.getServerId(), networkDomainId,
+                datacenterId, dataDisks))
+            .handle((done, e) -> {
+              if (e != null) {
+                return deployment.failed(OperationPoller.unwrap(e).getMessage());
+              }
+              LOG.info(">> Completed creating server instance: " + instanceId);
+              return deployment;
+            }));
+
+    return new PendingDeployment(instanceId, submitted, outcome);
+  }
+
+  /**
+   * Returns a future that completes as soon as the specified number of deployments have succeeded,
+   * or as soon as so many have failed that this is no longer possible. If no minimum is given, the
+   * future completes once every deployment has an outcome, so that no server is left to the
+   * straggler path just because the caller did not ask for any.
+   *
+   * @param deployments the deployments
+   * @param minCount    the number of deployments that must succeed, zero or less to wait for all
+   * @return a future that completes when the outcome of the batch is known
+   */
+  static CompletableFuture<Void> awaitQuorum(Collection<PendingDeployment> deployments, int minCount) {
+    if (minCount <= 0) {
+      CompletableFuture<?>[] outcomes = new CompletableFuture<?>[deployments.size()];
+      int i = 0;
+      for (PendingDeployment deployment : deployments) {
+        outcomes[i++] = deployment.getOutcome();
+      }
+      return CompletableFuture.allOf(outcomes);
+    }
+
+    CompletableFuture<Void> quorum = new CompletableFuture<Void>();
+    int required = Math.min(minCount, deployments.size());
+    int tolerated = deployments.size() - required;
+    if (required <= 0) {
+      quorum.complete(null);
+      return quorum;
+    }
+
+    AtomicInteger succeeded = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
+    for (PendingDeployment deployment : deployments) {
+      deployment.getOutcome().thenAccept(outcome -> {
+        if (outcome.isSuccessful() ? succeeded.incrementAndGet() >= required : failed.incrementAndGet() > tolerated) {
+          quorum.complete(null);
+        }
+      });
+    }
+    return quorum;
+  }
+
+  /**
+   * Lets the specified deployments finish in the background. Servers that fail, or that do not
+   * reach the NORMAL state within the straggler timeout, are deleted.
+   *
+   * @param stragglers the deployments the caller no longer waits for
+   */
+  void finishInBackground(Collection<PendingDeployment> stragglers) {
+    for (PendingDeployment straggler : stragglers) {
+      AtomicBoolean abandoned = new AtomicBoolean();
+
+      ScheduledFuture<?> deadline = scheduler.schedule(() -> {
+        if (!straggler.getOutcome().isDone() && abandoned.compareAndSet(false, true)) {
+          LOG.warn("Server instance '{}' did not complete within {} seconds, deleting it.",
+              straggler.getInstanceId(), stragglerTimeoutSeconds);
+          discard(straggler);
+        }
+      }, stragglerTimeoutSeconds, TimeUnit.SECONDS);
+
+      straggler.getOutcome().thenAccept(outcome -> {
+        deadline.cancel(false);
+        if (abandoned.compareAndSet(false, true)) {
+          if (outcome.isSuccessful()) {
+            LOG.info("Server instance '{}' completed in the background.", outcome.getInstanceId());
+          } else {
+            LOG.error("Failed to create server instance '{}' in the background: {}", outcome.getInstanceId(),
+                outcome.getErrorMessage());
+            discard(straggler);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Deletes the server of the specified deployment in the background, as soon as it is known.
+   *
+   * @param deployment the deployment
+   */
+  void discard(PendingDeployment deployment) {
+    deployment.getSubmission().thenAcceptAsync(submitted -> {
+      if (submitted.getServerId() != null) {
+        delete(submitted.getInstanceId(), submitted.getServerId());
+      }
+    }, executor);
+  }
+
+  private void delete(String instanceId, String serverId) {
+    try {
+      LOG.info(">> Deleting server instance '{}' ({}).", instanceId, serverId);
+      credentials.getCompute().server().deleteServer(serverId);
+    } catch (NotFoundException e) {
+      LOG.info("Attempted to delete server '{}', but it does not exist.", serverId);
+    } catch (RuntimeException e) {
+      LOG.error("Unable to delete server '{}': {}", serverId, e.getMessage());
+    }
+  }
+
+  private ServerDeployment submit(String instanceId, DeployServerType request) {
+    Cloud compute = credentials.getCompute();
+
+    LOG.info(">> Start creating server instance: " + instanceId);
+    ResponseType response = compute.server().deployServer(request);
+    String serverId = compute.server().getIdFromDeployResponse(response);
+    return new ServerDeployment(instanceId, response, serverId, null);
+  }
+
+  /**
+   * The outcome of claiming a stopped server.
+   */
+  enum Claim {
+
+    /**
+     * The server carries the name of the instance and can be resumed.
+     */
+    CLAIMED,
+
+    /**
+     * The server carries its pool name and can be offered again.
+     */
+    RETURNED,
+
+    /**
+     * The server can no longer be claimed and is dropped from its pool.
+     */
+    UNAVAILABLE
+  }
+
+  /**
+   * A server deployment in progress. The submission completes once the deployment request has been
+   * issued, and the outcome once the server has reached the NORMAL state or its deployment has
+   * failed. Neither ever completes exceptionally.
+   */
+  static class PendingDeployment {
+
+    private final String instanceId;
+    private final CompletableFuture<ServerDeployment> submission;
+    private final CompletableFuture<ServerDeployment> outcome;
+
+    PendingDeployment(String instanceId, CompletableFuture<ServerDeployment> submission,
+        CompletableFuture<ServerDeployment> outcome) {
+      this.instanceId = instanceId;
+      this.submission = submission;
+      this.outcome = outcome;
+    }
+
+    String getInstanceId() {
+      return instanceId;
+    }
+
+    CompletableFuture<ServerDeployment> getSubmission() {
+      return submission;
+    }
+
+    CompletableFuture<ServerDeployment> getOutcome() {
+      return outcome;
+    }
+  }
+
+  /**
+   * The outcome of a single server deployment.
+   */
+  static class ServerDeployment {
+
+    private final String instanceId;
+    private final ResponseType response;
+    private final String serverId;
+    private final String errorMessage;
+
+    ServerDeployment(String instanceId, ResponseType response, String serverId, String errorMessage) {
+      this.instanceId = instanceId;
+      this.response = response;
+      this.serverId = serverId;
+      this.errorMessage = errorMessage;
+    }
+
+    String getInstanceId() {
+      return instanceId;
+    }
+
+    ResponseType getResponse() {
+      return response;
+    }
+
+    String getServerId() {
+      return serverId;
+    }
+
+    String getErrorMessage() {
+      return errorMessage;
+    }
+
+    boolean isSuccessful() {
+      return errorMessage == null;
+    }
+
+    ServerDeployment failed(String message) {
+      return new ServerDeployment(instanceId, response, serverId, String.valueOf(message));
+    }
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.Configurations;
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.cloudera.director.dimensiondata.util.PagedListings;
+import com.cloudera.director.dimensiondata.util.WorkerPools;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.model.ServerType;
+import com.typesafe.config.Config;
+
+/**
+ * The servers of the account, indexed by server ID, server name and private IPv4 address. The
+ * index is rebuilt from paged server listings in the background and updated with every server
+ * observed in between, so that instance names and addresses are mapped to servers without calling
+ * MCP. The index may lag behind MCP, so it identifies servers but does not tell their state.
+ * Inventories are shared by all providers of the same account and region, so that the servers of
+ * an account are listed by a single background thread however many providers are created.
+ */
+class ServerInventory {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ServerInventory.class);
+
+  private static final AccountRegistry<ServerInventory> INVENTORIES =
+      new AccountRegistry<ServerInventory>("server inventory", ServerInventory::shutdown);
+
+  /**
+   * The nanoseconds a forgotten server is remembered for, longer than any listing or lookup runs.
+   */
+  private static final long FORGOTTEN_NANOS = TimeUnit.MINUTES.toNanos(30);
+
+  private final DimensionDataCredentials credentials;
+  private final long refreshSeconds;
+
+  private final ConcurrentMap<String, Entry> entriesById = new ConcurrentHashMap<String, Entry>();
+  private final ConcurrentMap<String, String> idsByName = new ConcurrentHashMap<String, String>();
+  private final ConcurrentMap<String, String> idsByPrivateIpv4 = new ConcurrentHashMap<String, String>();
+
+  /**
+   * The times servers were forgotten at, by server ID, so that observations made earlier do not
+   * index them again.
+   */
+  private final ConcurrentMap<String, Long> forgottenAt = new ConcurrentHashMap<String, Long>();
+
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Returns the inventory of the account of the specified credentials, creating it from the
+   * configuration if needed. The inventory keeps the settings it was created with.
+   *
+   * @param credentials         the credentials used to list servers
+   * @param dimensiondataConfig the Dimension Data configuration
+   * @return the inventory
+   */
+  static ServerInventory forAccount(DimensionDataCredentials credentials, Config dimensiondataConfig) {
+    long refreshSeconds = dimensiondataConfig.getLong(Configurations.COMPUTE_INVENTORY_SECTION + "refreshSeconds");
+    return INVENTORIES.get(credentials.getAccount(), refreshSeconds,
+        () -> new ServerInventory(credentials, refreshSeconds));
+  }
+
+  /**
+   * Creates an inventory with the specified parameters.
+   *
+   * @param credentials    the credentials used to list servers
+   * @param refreshSeconds the seconds between two listings of every server, zero to only index
+   *                       observed servers
+   */
+  ServerInventory(DimensionDataCredentials credentials, long refreshSeconds) {
+    this.credentials = credentials;
+    this.refreshSeconds = refreshSeconds;
+  }
+
+  /**
+   * Starts listing servers in the background.
+   */
+  synchronized void start() {
+    if (refreshSeconds > 0 && scheduler == null) {
+      scheduler = WorkerPools.newScheduler("dimensiondata-inventory-%d");
+      scheduler.scheduleWithFixedDelay(this::refreshQuietly, 0, refreshSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Stops listing servers in the background for good.
+   */
+  synchronized void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the ID of the server with the specified name.
+   *
+   * @param name the server name
+   * @return the server ID, or {@code null} if no such server is known
+   */
+  String findIdByName(String name) {
+    return idsByName.get(name);
+  }
+
+  /**
+   * Returns the ID of the server with the specified private IPv4 address.
+   *
+   * @param privateIpv4 the private IPv4 address
+   * @return the server ID, or {@code null} if no such server is known
+   */
+  String findIdByPrivateIpv4(String privateIpv4) {
+    return idsByPrivateIpv4.get(privateIpv4);
+  }
+
+  /**
+   * Returns the last observed snapshot of the specified server.
+   *
+   * @param serverId the server ID
+   * @return the snapshot, or {@code null} if no such server is known
+   */
+  ServerType findById(String serverId) {
+    Entry entry = entriesById.get(serverId);
+    return entry == null ? null : entry.server;
+  }
+
+  /**
+   * Indexes the specified server, replacing what was known about it.
+   *
+   * @param server the server, observed just now
+   */
+  void record(ServerType server) {
+    record(server, System.nanoTime());
+  }
+
+  /**
+   * Indexes the specified server, unless a newer observation of it was recorded or it was forgotten
+   * since it was observed.
+   *
+   * @param server     the observed server
+   * @param observedAt the {@link System#nanoTime()} at which the request that returned the server
+   *                   was sent
+   */
+  synchronized void record(ServerType server, long observedAt) {
+    if (server.getId() == null) {
+      return;
+    }
+    Long forgotten = forgottenAt.get(server.getId());
+    if (forgotten != null) {
+      if (forgotten - observedAt > 0) {
+        // The server was deleted or renamed by this process after it was observed.
+        return;
+      }
+      forgottenAt.remove(server.getId());
+    }
+    Entry previous = entriesById.get(server.getId());
+    if (previous != null) {
+      if (previous.observedAt - observedAt > 0) {
+        // A listing that started earlier must not overwrite a newer observation.
+        return;
+      }
+      unindex(previous.server);
+    }
+    entriesById.put(server.getId(), new Entry(server, observedAt));
+    if (server.getName() != null) {
+      idsByName.put(server.getName(), server.getId());
+    }
+    String privateIpv4 = privateIpv4Of(server);
+    if (privateIpv4 != null) {
+      idsByPrivateIpv4.put(privateIpv4, server.getId());
+    }
+  }
+
+  /**
+   * Removes the specified server, which is being deleted, renamed or does not exist. Observations
+   * made before it was forgotten are ignored, so that a listing in flight does not index it again
+   * under its former name.
+   *
+   * @param serverId the server ID
+   */
+  synchronized void forget(String serverId) {
+    long now = System.nanoTime();
+    forgottenAt.values().removeIf(forgotten -> now - forgotten > FORGOTTEN_NANOS);
+    forgottenAt.put(serverId, now);
+    Entry previous = entriesById.remove(serverId);
+    if (previous != null) {
+      unindex(previous.server);
+    }
+  }
+
+  /**
+   * Removes the specified name from the index if it still maps to the specified server, which no
+   * longer carries it.
+   *
+   * @param name     the former server name
+   * @param serverId the server ID
+   */
+  void forgetName(String name, String serverId) {
+    idsByName.remove(name, serverId);
+  }
+
+  /**
+   * Lists every server of the account, indexing them and removing the servers that no longer exist.
+   * Pages are read one at a time, since nothing waits for the listing.
+   */
+  void refresh() {
+    long startedAt = System.nanoTime();
+    Set<String> listedIds = new HashSet<String>();
+    try (Stream<ServerType> servers = PagedListings.servers(credentials.getCompute(), new Filter(), null)) {
+      servers.forEach(server -> {
+        listedIds.add(server.getId());
+        record(server, startedAt);
+      });
+    }
+
+    synchronized (this) {
+      for (Iterator<Map.Entry<String, Entry>> it = entriesById.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<String, Entry> entry = it.next();
+        // Servers observed since the listing started may have been created after their page was listed.
+        if (!listedIds.contains(entry.getKey()) && entry.getValue().observedAt < startedAt) {
+          unindex(entry.getValue().server);
+          it.remove();
+        }
+      }
+    }
+    LOG.debug("Indexed {} servers.", entriesById.size());
+  }
+
+  private void refreshQuietly() {
+    try {
+      refresh();
+    } catch (RuntimeException e) {
+      LOG.warn("Unable to list servers: {}", e.getMessage());
+    }
+  }
+
+  private void unindex(ServerType server) {
+    if (server.getName() != null) {
+      idsByName.remove(server.getName(), server.getId());
+    }
+    String privateIpv4 = privateIpv4Of(server);
+    if (privateIpv4 != null) {
+      idsByPrivateIpv4.remove(privateIpv4, server.getId());
+    }
+  }
+
+  private static String privateIpv4Of(ServerType server) {
+    return server.getNic() == null ? null : server.getNic().getPrivateIpv4();
+  }
+
+  /**
+   * A server snapshot and the time it was observed at.
+   */
+  private static class Entry {
+
+    private final ServerType server;
+    private final long observedAt;
+
+    Entry(ServerType server, long observedAt) {
+      this.server = server;
+      this.observedAt = observedAt;
+    }
+  }
+}
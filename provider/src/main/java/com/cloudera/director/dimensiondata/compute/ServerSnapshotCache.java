@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.dimensiondata.cloud.client.model.ServerType;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Recently observed servers, by server name. Director polls the state of every instance over and
+ * over, so snapshots are kept for a short while and served instead of asking MCP again. Names
+ * confirmed not to belong to any server, such as those of failed allocations or servers deleted by
+ * hand, are remembered as well so that they are not looked up on every poll. Calls that change a
+ * server invalidate what is known about its name, so that its next state is read from MCP. Names
+ * whose server is being deployed are never remembered as absent, since a lookup may run before the
+ * deployment has been submitted.
+ */
+class ServerSnapshotCache {
+
+  private final Cache<String, ServerType> snapshots;
+  private final Cache<String, Boolean> absentNames;
+  private final ConcurrentMap<String, Integer> deployingNames = new ConcurrentHashMap<String, Integer>();
+
+  /**
+   * Creates a cache with the specified parameters.
+   *
+   * @param ttlMillis        the milliseconds a snapshot is served for, zero to disable the cache
+   * @param absentTtlSeconds the seconds a name is known not to belong to any server
+   * @param absentMaxSize    the maximum number of names known not to belong to any server
+   */
+  ServerSnapshotCache(long ttlMillis, long absentTtlSeconds, long absentMaxSize) {
+    this(ttlMillis, absentTtlSeconds, absentMaxSize, Ticker.systemTicker());
+  }
+
+  /**
+   * Creates a cache with the specified parameters, whose entries expire by the specified ticker.
+   *
+   * @param ttlMillis        the milliseconds a snapshot is served for, zero to disable the cache
+   * @param absentTtlSeconds the seconds a name is known not to belong to any server
+   * @param absentMaxSize    the maximum number of names known not to belong to any server
+   * @param ticker           the time source entries expire by
+   */
+  ServerSnapshotCache(long ttlMillis, long absentTtlSeconds, long absentMaxSize, Ticker ticker) {
+    this.snapshots = CacheBuilder.newBuilder()
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .ticker(ticker)
+        .recordStats()
+        .build();
+    this.absentNames = CacheBuilder.newBuilder()
+        .expireAfterWrite(absentTtlSeconds, TimeUnit.SECONDS)
+        .maximumSize(absentMaxSize)
+        .ticker(ticker)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Returns the snapshot of the specified server.
+   *
+   * @param name the server name
+   * @return the snapshot, or {@code null} if the server has not been observed recently
+   */
+  ServerType get(String name) {
+    return snapshots.getIfPresent(name);
+  }
+
+  /**
+   * Remembers the specified server.
+   *
+   * @param server the server
+   */
+  void put(ServerType server) {
+    if (server.getName() != null) {
+      absentNames.invalidate(server.getName());
+      snapshots.put(server.getName(), server);
+    }
+  }
+
+  /**
+   * Returns whether the specified name was recently confirmed not to belong to any server.
+   *
+   * @param name the server name
+   * @return whether no server has the name
+   */
+  boolean isAbsent(String name) {
+    return absentNames.getIfPresent(name) != null && !deployingNames.containsKey(name);
+  }
+
+  /**
+   * Remembers that the specified name does not belong to any server, unless a server with that name
+   * is being deployed.
+   *
+   * @param name the server name
+   */
+  void putAbsent(String name) {
+    snapshots.invalidate(name);
+    if (!deployingNames.containsKey(name)) {
+      absentNames.put(name, Boolean.TRUE);
+      // A deployment that began in between may not have seen the name yet.
+      if (deployingNames.containsKey(name)) {
+        absentNames.invalidate(name);
+      }
+    }
+  }
+
+  /**
+   * Forgets what is known about the specified name, whose server is about to be deployed, and keeps
+   * it from being remembered as absent until the deployment has ended.
+   *
+   * @param name the server name
+   */
+  void beginDeployment(String name) {
+    deployingNames.merge(name, 1, Integer::sum);
+    invalidate(name);
+  }
+
+  /**
+   * Forgets what is known about the specified name, whose deployment has ended, so that its state
+   * is read from MCP again.
+   *
+   * @param name the server name
+   */
+  void endDeployment(String name) {
+    deployingNames.computeIfPresent(name, (key, count) -> count > 1 ? count - 1 : null);
+    invalidate(name);
+  }
+
+  /**
+   * Forgets what is known about the specified name, whose server is about to change.
+   *
+   * @param name the server name
+   */
+  void invalidate(String name) {
+    snapshots.invalidate(name);
+    absentNames.invalidate(name);
+  }
+
+  /**
+   * Returns the hit and miss counters of the cache.
+   *
+   * @return the cache statistics
+   */
+  CacheStats getStats() {
+    return snapshots.stats();
+  }
+
+  /**
+   * Returns the hit and miss counters of the names known not to belong to any server.
+   *
+   * @return the absent name cache statistics
+   */
+  CacheStats getAbsentStats() {
+    return absentNames.stats();
+  }
+}
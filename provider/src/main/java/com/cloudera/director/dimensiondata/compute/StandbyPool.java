@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.Configurations;
+import com.cloudera.director.dimensiondata.compute.DiskProvisioner.DataDisks;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.Claim;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.PendingDeployment;
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.cloudera.director.dimensiondata.util.PagedListings;
+import com.cloudera.director.dimensiondata.util.WorkerPools;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.Param;
+import com.dimensiondata.cloud.client.model.DeployServerType;
+import com.dimensiondata.cloud.client.model.ServerType;
+import com.typesafe.config.Config;
+
+/**
+ * Keeps a number of deployed, stopped servers per template fingerprint so that allocation can claim
+ * them instead of deploying from the image. A claimed server is renamed to its instance name,
+ * started and given its data disks, and the pool is refilled in the background. Standby servers
+ * carry their fingerprint in their name, so servers left over from a previous run are adopted
+ * rather than deployed again. Pools are shared by all providers of the same account, which makes
+ * the pool the only owner of its servers, so that no two instances are given the same server. MCP
+ * cannot rename a server conditionally, so standby servers must not be used by plugins running in
+ * other processes with the same account.
+ */
+class StandbyPool {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StandbyPool.class);
+
+  /**
+   * The name prefix of standby servers.
+   */
+  static final String NAME_PREFIX = "standby-";
+
+  private static final AccountRegistry<StandbyPool> POOLS =
+      new AccountRegistry<StandbyPool>("standby pool", StandbyPool::shutdown);
+
+  private final DimensionDataCredentials credentials;
+  private final OperationPoller poller;
+  private final ExecutorService executor;
+  private final FingerprintKey fingerprintKey;
+  private final int size;
+
+  private final ConcurrentMap<String, Standby> standbyByFingerprint = new ConcurrentHashMap<String, Standby>();
+
+  /**
+   * Returns the pool of the account of the specified credentials, creating it from the
+   * configuration if needed. The pool keeps the settings it was created with.
+   *
+   * @param credentials            the credentials used to deploy and claim servers
+   * @param dimensiondataConfig    the Dimension Data configuration
+   * @param configurationDirectory the directory of the fingerprint key, or {@code null} if there is none
+   * @return the pool
+   */
+  static StandbyPool forAccount(DimensionDataCredentials credentials, Config dimensiondataConfig,
+      File configurationDirectory) {
+    int threads = dimensiondataConfig.getInt(Configurations.COMPUTE_DEPLOYMENT_SECTION + "maxConcurrentDeployments");
+    int size = dimensiondataConfig.getBoolean(Configurations.COMPUTE_STANDBY_SECTION + "enabled")
+        ? dimensiondataConfig.getInt(Configurations.COMPUTE_STANDBY_SECTION + "size")
+        : 0;
+    return POOLS.get(credentials.getAccount(), Arrays.asList(threads, size, configurationDirectory),
+        () -> new StandbyPool(credentials, new OperationPoller(credentials, dimensiondataConfig),
+            WorkerPools.newBoundedPool("dimensiondata-standby-%d", threads),
+            FingerprintKey.forDirectory(configurationDirectory), size));
+  }
+
+  /**
+   * Creates a standby pool with the specified parameters.
+   *
+   * @param credentials    the credentials used to deploy and claim servers
+   * @param poller         the poller used to wait for servers
+   * @param executor       the executor used to issue MCP requests
+   * @param fingerprintKey the key the fingerprints of deployment requests are computed with
+   * @param size           the number of servers kept per template fingerprint, zero to disable the pool
+   */
+  StandbyPool(DimensionDataCredentials credentials, OperationPoller poller, ExecutorService executor,
+      FingerprintKey fingerprintKey, int size) {
+    this.credentials = credentials;
+    this.poller = poller;
+    this.executor = executor;
+    this.fingerprintKey = fingerprintKey;
+    this.size = size;
+  }
+
+  /**
+   * Stops refilling the pool. Servers on standby are left as they are, to be adopted by the next
+   * run.
+   */
+  void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Returns whether servers are kept on standby.
+   *
+   * @return whether servers are kept on standby
+   */
+  boolean isEnabled() {
+    return size > 0;
+  }
+
+  /**
+   * Claims a standby server matching the specified deployment request. Servers that are no
+   * longer stopped under their standby name are dropped from the pool, and a server that could not
+   * be renamed is offered again.
+   *
+   * @param instanceId       the Director instance ID
+   * @param datacenterId     the datacenter the server is deployed in
+   * @param request          the deployment request
+   * @param dataDisks        the data disks added once the server is started
+   * @param deploymentEngine the engine tracking the claimed server
+   * @return the pending deployment of the claimed server, or {@code null} if no server is available
+   */
+  PendingDeployment claim(String instanceId, String datacenterId, DeployServerType request, DataDisks dataDisks,
+      ServerDeploymentEngine deploymentEngine) {
+    Standby standby = standbyFor(request);
+    StandbyServer server;
+    while ((server = standby.ready.poll()) != null) {
+      Claim claim = deploymentEngine.claim(server.serverId, server.name, request.getName());
+      if (claim == Claim.CLAIMED) {
+        LOG.info(">> Claiming standby server '{}' for instance: {}", server.serverId, instanceId);
+        return deploymentEngine.resume(instanceId, server.serverId, request.getNetworkInfo().getNetworkDomainId(),
+            datacenterId, dataDisks);
+      }
+      if (claim == Claim.RETURNED) {
+        standby.ready.add(server);
+        return null;
+      }
+      LOG.info(">> Standby server '{}' is no longer available.", server.serverId);
+    }
+    return null;
+  }
+
+  /**
+   * Deploys standby servers in the background until the pool of the specified request is full.
+   *
+   * @param datacenterId the datacenter the servers are deployed in
+   * @param request      the deployment request the standby servers are made from
+   */
+  void refill(String datacenterId, DeployServerType request) {
+    Standby standby = standbyFor(request);
+    CompletableFuture.runAsync(() -> {
+      if (standby.adopted.compareAndSet(false, true)) {
+        adopt(standby, request.getNetworkInfo().getNetworkDomainId());
+      }
+      while (reserve(standby)) {
+        deployStandby(standby, datacenterId, request);
+      }
+    }, executor).exceptionally(e -> {
+      LOG.warn("Unable to refill standby pool '{}': {}", standby.fingerprint,
+          OperationPoller.unwrap(e).getMessage());
+      return null;
+    });
+  }
+
+  private boolean reserve(Standby standby) {
+    while (true) {
+      int deploying = standby.deploying.get();
+      if (standby.ready.size() + deploying >= size) {
+        return false;
+      }
+      if (standby.deploying.compareAndSet(deploying, deploying + 1)) {
+        return true;
+      }
+    }
+  }
+
+  private void deployStandby(Standby standby, String datacenterId, DeployServerType request) {
+    DeployServerType standbyRequest = copy(request, NAME_PREFIX + standby.fingerprint + "-"
+        + UUID.randomUUID().toString().substring(0, 8));
+    String networkDomainId = request.getNetworkInfo().getNetworkDomainId();
+
+    CompletableFuture
+        .supplyAsync(() -> {
+          LOG.info(">> Deploying standby server '{}'.", standbyRequest.getName());
+          Cloud compute = credentials.getCompute();
+          return compute.server().getIdFromDeployResponse(compute.server().deployServer(standbyRequest));
+        }, executor)
+        // Deployed stopped, and only offered once MCP reports it stopped, so that claims never see it
+        // in the middle of its deployment.
+        .thenCompose(serverId -> poller.awaitServer(serverId, networkDomainId, datacenterId, false))
+        .whenComplete((server, e) -> {
+          standby.deploying.decrementAndGet();
+          if (e != null) {
+            LOG.warn("Unable to deploy standby server '{}': {}", standbyRequest.getName(),
+                OperationPoller.unwrap(e).getMessage());
+          } else {
+            standby.ready.add(new StandbyServer(server.getId(), standbyRequest.getName()));
+          }
+        });
+  }
+
+  /**
+   * Adds the stopped standby servers of a previous run to the pool.
+   */
+  private void adopt(Standby standby, String networkDomainId) {
+    Cloud compute = credentials.getCompute();
+    Filter filter = new Filter(new Param("networkDomainId", networkDomainId),
+        new Param("name.LIKE", NAME_PREFIX + standby.fingerprint + "-*"));
+    try (Stream<ServerType> servers = PagedListings.servers(compute, filter, executor)) {
+      servers
+          .filter(server -> "NORMAL".equals(server.getState()) && !Boolean.TRUE.equals(server.isStarted()))
+          .forEach(server -> {
+            LOG.info(">> Adopting standby server '{}' ({}).", server.getName(), server.getId());
+            standby.ready.add(new StandbyServer(server.getId(), server.getName()));
+          });
+    }
+  }
+
+  private Standby standbyFor(DeployServerType request) {
+    String fingerprint = fingerprintKey.fingerprint(identityOf(request));
+    return standbyByFingerprint.computeIfAbsent(fingerprint, Standby::new);
+  }
+
+  /**
+   * Returns everything a server is deployed with except its name, which includes the administrator
+   * password and must therefore only be fingerprinted with a {@link FingerprintKey}.
+   *
+   * @param request the deployment request
+   * @return the identity of the request
+   */
+  static String identityOf(DeployServerType request) {
+    DeployServerType.NetworkInfo networkInfo = request.getNetworkInfo();
+    String identity = request.getImageId()
+        + "|" + networkInfo.getNetworkDomainId()
+        + "|" + networkInfo.getPrimaryNic().getVlanId()
+        + "|" + request.getCpu().getCount()
+        + "|" + request.getMemoryGb()
+        + "|" + request.getAdministratorPassword();
+    for (DeployServerType.Disk disk : request.getDisk()) {
+      identity += "|" + disk.getScsiId() + ":" + disk.getSpeed();
+    }
+    return identity;
+  }
+
+  private static DeployServerType copy(DeployServerType request, String name) {
+    DeployServerType copy = new DeployServerType();
+    copy.setName(name);
+    copy.setStart(Boolean.FALSE);
+    copy.setImageId(request.getImageId());
+    copy.setMemoryGb(request.getMemoryGb());
+    copy.setAdministratorPassword(request.getAdministratorPassword());
+    copy.setCpu(request.getCpu());
+    copy.setNetworkInfo(request.getNetworkInfo());
+    copy.getDisk().addAll(request.getDisk());
+    return copy;
+  }
+
+  /**
+   * The standby servers of one template fingerprint.
+   */
+  private static class Standby {
+
+    private final String fingerprint;
+    private final Queue<StandbyServer> ready = new ConcurrentLinkedQueue<StandbyServer>();
+    private final AtomicInteger deploying = new AtomicInteger();
+    private final AtomicBoolean adopted = new AtomicBoolean();
+
+    Standby(String fingerprint) {
+      this.fingerprint = fingerprint;
+    }
+  }
+
+  /**
+   * A stopped standby server and the name it was deployed with.
+   */
+  private static class StandbyServer {
+
+    private final String serverId;
+    private final String name;
+
+    StandbyServer(String serverId, String name) {
+      this.serverId = serverId;
+      this.name = name;
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.BOOT_DISK_TYPE;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.DATACENTER;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.DATA_DISK_COUNT;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.DATA_DISK_SIZE_GB;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.DATA_DISK_TYPE;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.IMAGE_NAME;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.NETWORK_NAME;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.TYPE;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.VLAN_IPV4;
+import static com.cloudera.director.spi.v1.compute.ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken.SSH_PASSWORD;
+import static com.cloudera.director.spi.v1.compute.ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken.SSH_USERNAME;
+import static com.cloudera.director.spi.v1.model.InstanceTemplate.InstanceTemplateConfigurationPropertyToken.INSTANCE_NAME_PREFIX;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.compute.DiskProvisioner.DataDisks;
+import com.cloudera.director.spi.v1.model.LocalizationContext;
+import com.cloudera.director.spi.v1.model.exception.PluginExceptionConditionAccumulator;
+import com.cloudera.director.spi.v1.model.util.SimpleResourceTemplate;
+
+/**
+ * The configuration of an instance template, resolved once. Templates are immutable, so a plan is
+ * compiled the first time a template is used and shared by every later call with that template.
+ * Disk settings are only converted when servers are deployed, so that instances of a template with
+ * invalid disk settings can still be found and deleted.
+ */
+class TemplatePlan {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TemplatePlan.class);
+
+  private final LocalizationContext templateLocalizationContext;
+  private final String instanceNamePrefix;
+  private final boolean prefixValid;
+  private final String image;
+  private final String datacenter;
+  private final String networkDomainName;
+  private final String networkDomainType;
+  private final String vlanIpv4;
+  private final String sshUserName;
+  private final String sshPassword;
+  private final String bootDiskType;
+  private final String dataDiskCount;
+  private final String dataDiskSizeGb;
+  private final String dataDiskType;
+  private final String fingerprint;
+
+  /**
+   * Resolves the configuration of the specified template.
+   *
+   * @param template                    the instance template
+   * @param providerLocalizationContext the provider localization context
+   * @param fingerprintKey              the key the fingerprint of the template is computed with
+   * @return the plan of the template
+   */
+  static TemplatePlan compile(DimensionDataComputeInstanceTemplate template,
+      LocalizationContext providerLocalizationContext, FingerprintKey fingerprintKey) {
+    LocalizationContext templateLocalizationContext =
+        SimpleResourceTemplate.getTemplateLocalizationContext(providerLocalizationContext);
+    return new TemplatePlan(template, templateLocalizationContext, fingerprintKey);
+  }
+
+  private TemplatePlan(DimensionDataComputeInstanceTemplate template,
+      LocalizationContext templateLocalizationContext, FingerprintKey fingerprintKey) {
+    this.templateLocalizationContext = templateLocalizationContext;
+    this.instanceNamePrefix = template.getConfigurationValue(INSTANCE_NAME_PREFIX, templateLocalizationContext);
+    this.image = template.getConfigurationValue(IMAGE_NAME, templateLocalizationContext);
+    this.datacenter = template.getConfigurationValue(DATACENTER, templateLocalizationContext);
+    this.networkDomainName = template.getConfigurationValue(NETWORK_NAME, templateLocalizationContext);
+    this.networkDomainType = template.getConfigurationValue(TYPE, templateLocalizationContext);
+    this.vlanIpv4 = template.getConfigurationValue(VLAN_IPV4, templateLocalizationContext);
+    this.sshUserName = template.getConfigurationValue(SSH_USERNAME, templateLocalizationContext);
+    this.sshPassword = template.getConfigurationValue(SSH_PASSWORD, templateLocalizationContext);
+    this.bootDiskType = template.getConfigurationValue(BOOT_DISK_TYPE, templateLocalizationContext);
+    this.dataDiskCount = template.getConfigurationValue(DATA_DISK_COUNT, templateLocalizationContext);
+    this.dataDiskSizeGb = template.getConfigurationValue(DATA_DISK_SIZE_GB, templateLocalizationContext);
+    this.dataDiskType = template.getConfigurationValue(DATA_DISK_TYPE, templateLocalizationContext);
+    // The identity includes the SSH password, which is why it is only ever fingerprinted with a key.
+    // Valid disk settings are identified by their converted values, which fingerprints used to be
+    // computed from, and invalid ones as they are.
+    String identity = instanceNamePrefix + "|" + image + "|" + datacenter + "|" + networkDomainName + "|" + vlanIpv4
+        + "|" + sshPassword + "|" + identityOfDiskType(bootDiskType) + "|" + identityOfNumber(dataDiskCount)
+        + "|" + identityOfNumber(dataDiskSizeGb) + "|" + identityOfDiskType(dataDiskType);
+    this.fingerprint = fingerprintKey.fingerprint(identity);
+
+    PluginExceptionConditionAccumulator accumulator = new PluginExceptionConditionAccumulator();
+    DimensionDataComputeInstanceTemplateConfigurationValidator.checkPrefix(template, accumulator,
+        templateLocalizationContext);
+    this.prefixValid = accumulator.getConditionsByKey().isEmpty();
+    if (!prefixValid) {
+      LOG.info("Instance name prefix '{}' is invalid.", instanceNamePrefix);
+    }
+  }
+
+  LocalizationContext getTemplateLocalizationContext() {
+    return templateLocalizationContext;
+  }
+
+  String getInstanceNamePrefix() {
+    return instanceNamePrefix;
+  }
+
+  /**
+   * Returns whether the instance name prefix is valid. If it is not, there is no way instances
+   * could have been created from the template in the first place.
+   *
+   * @return whether the instance name prefix is valid
+   */
+  boolean isPrefixValid() {
+    return prefixValid;
+  }
+
+  String getImage() {
+    return image;
+  }
+
+  String getDatacenter() {
+    return datacenter;
+  }
+
+  String getNetworkDomainName() {
+    return networkDomainName;
+  }
+
+  String getNetworkDomainType() {
+    return networkDomainType;
+  }
+
+  String getVlanIpv4() {
+    return vlanIpv4;
+  }
+
+  String getSshUserName() {
+    return sshUserName;
+  }
+
+  String getSshPassword() {
+    return sshPassword;
+  }
+
+  /**
+   * Returns the MCP speed of the boot disk.
+   *
+   * @return the MCP speed of the boot disk
+   * @throws IllegalArgumentException if the boot disk type is unknown
+   */
+  String getBootDiskSpeed() {
+    return DiskProvisioner.toSpeed(bootDiskType);
+  }
+
+  /**
+   * Returns the data disks added to every server.
+   *
+   * @return the data disks added to every server
+   * @throws IllegalArgumentException if the data disk settings are invalid
+   */
+  DataDisks getDataDisks() {
+    return new DataDisks(parseInt(dataDiskCount), parseInt(dataDiskSizeGb), DiskProvisioner.toSpeed(dataDiskType));
+  }
+
+  /**
+   * Returns the fingerprint of everything the servers of the template are made of, which stays the
+   * same across plugin restarts as long as the fingerprint key does.
+   *
+   * @return the fingerprint
+   */
+  String getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Returns the server name of the specified instance.
+   *
+   * @param instanceId the Director instance ID
+   * @return the server name
+   */
+  String getInstanceName(String instanceId) {
+    return instanceNamePrefix + "-" + instanceId;
+  }
+
+  /**
+   * Parses a numeric property. Values were checked by the template validator, so a missing value
+   * means that no value is wanted.
+   */
+  private static int parseInt(String value) {
+    return value == null || value.isEmpty() ? 0 : Integer.parseInt(value);
+  }
+
+  private static String identityOfNumber(String value) {
+    try {
+      return String.valueOf(parseInt(value));
+    } catch (NumberFormatException e) {
+      return value;
+    }
+  }
+
+  private static String identityOfDiskType(String diskType) {
+    String speed = DiskProvisioner.SPEEDS_BY_DISK_TYPE.get(diskType);
+    return speed != null ? speed : diskType;
+  }
+}
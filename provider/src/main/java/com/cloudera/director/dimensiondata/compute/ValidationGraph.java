@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.spi.v1.model.exception.PluginExceptionConditionAccumulator;
+
+/**
+ * Runs validation checks concurrently, each as soon as the checks it depends on have passed.
+ * Every check reports into an accumulator of its own, and the conditions are merged into the
+ * caller's accumulator in the order the checks were added, so that the outcome of a validation
+ * does not depend on which check finished first. A check is skipped if a check it depends on
+ * reported an error or was skipped itself. Local checks, which do not call MCP, run right away on
+ * the calling thread rather than waiting for a thread of the executor.
+ */
+class ValidationGraph {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ValidationGraph.class);
+
+  /**
+   * A validation check.
+   */
+  interface Check {
+
+    /**
+     * Runs the check.
+     *
+     * @param accumulator the exception condition accumulator
+     */
+    void run(PluginExceptionConditionAccumulator accumulator);
+  }
+
+  private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+  /**
+   * Adds a check. The checks it depends on must have been added before, which rules out cycles.
+   *
+   * @param name         the check name
+   * @param check        the check
+   * @param dependencies the names of the checks that must pass before this one runs
+   * @return this graph
+   * @throws IllegalArgumentException if a dependency has not been added
+   */
+  ValidationGraph add(String name, Check check, String... dependencies) {
+    return add(name, check, false, dependencies);
+  }
+
+  /**
+   * Adds a local check, which is cheap enough to run on the thread that runs the graph or that
+   * completes its dependencies. The checks it depends on must have been added before.
+   *
+   * @param name         the check name
+   * @param check        the check
+   * @param dependencies the names of the checks that must pass before this one runs
+   * @return this graph
+   * @throws IllegalArgumentException if a dependency has not been added
+   */
+  ValidationGraph addLocal(String name, Check check, String... dependencies) {
+    return add(name, check, true, dependencies);
+  }
+
+  private ValidationGraph add(String name, Check check, boolean local, String... dependencies) {
+    List<Node> dependencyNodes = new ArrayList<Node>();
+    for (String dependency : dependencies) {
+      Node node = nodes.get(dependency);
+      if (node == null) {
+        throw new IllegalArgumentException("Unknown check '" + dependency + "' required by '" + name + "'");
+      }
+      dependencyNodes.add(node);
+    }
+    nodes.put(name, new Node(name, check, local, dependencyNodes));
+    return this;
+  }
+
+  /**
+   * Runs every check and merges their conditions into the specified accumulator in the order the
+   * checks were added. If a check fails, the conditions of the checks added before it are merged
+   * and its exception is rethrown.
+   *
+   * @param executor    the executor the checks run on
+   * @param accumulator the exception condition accumulator
+   */
+  void run(Executor executor, PluginExceptionConditionAccumulator accumulator) {
+    List<CompletableFuture<Void>> outcomes = new ArrayList<CompletableFuture<Void>>();
+    for (Node node : nodes.values()) {
+      outcomes.add(node.start(node.local ? Runnable::run : executor));
+    }
+    CompletableFuture.allOf(outcomes.toArray(new CompletableFuture<?>[outcomes.size()]))
+        .handle((done, e) -> null)
+        .join();
+
+    for (Node node : nodes.values()) {
+      try {
+        node.outcome.join();
+      } catch (CompletionException e) {
+        Throwable cause = OperationPoller.unwrap(e);
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw e;
+      }
+      node.conditions.replay(accumulator);
+    }
+  }
+
+  /**
+   * A check and the outcome of its run.
+   */
+  private static class Node {
+
+    private final String name;
+    private final Check check;
+    private final boolean local;
+    private final List<Node> dependencies;
+    private final RecordingAccumulator conditions = new RecordingAccumulator();
+
+    private CompletableFuture<Void> outcome;
+    private volatile boolean passed;
+
+    Node(String name, Check check, boolean local, List<Node> dependencies) {
+      this.name = name;
+      this.check = check;
+      this.local = local;
+      this.dependencies = dependencies;
+    }
+
+    CompletableFuture<Void> start(Executor executor) {
+      CompletableFuture<?>[] prerequisites = new CompletableFuture<?>[dependencies.size()];
+      for (int i = 0; i < prerequisites.length; i++) {
+        prerequisites[i] = dependencies.get(i).outcome;
+      }
+      outcome = CompletableFuture.allOf(prerequisites).thenRunAsync(() -> {
+        for (Node dependency : dependencies) {
+          if (!dependency.passed) {
+            LOG.info("Check '{}' skipped since check '{}' did not pass.", name, dependency.name);
+            return;
+          }
+        }
+        check.run(conditions);
+        passed = !conditions.hasError();
+      }, executor);
+      return outcome;
+    }
+  }
+
+  /**
+   * An accumulator remembering the conditions added to it, so that they can be added to another
+   * accumulator later.
+   */
+  private static class RecordingAccumulator extends PluginExceptionConditionAccumulator {
+
+    private final List<Consumer<PluginExceptionConditionAccumulator>> recorded =
+        new ArrayList<Consumer<PluginExceptionConditionAccumulator>>();
+
+    @Override
+    public void addError(String key, String message) {
+      super.addError(key, message);
+      recorded.add(accumulator -> accumulator.addError(key, message));
+    }
+
+    @Override
+    public void addWarning(String key, String message) {
+      super.addWarning(key, message);
+      recorded.add(accumulator -> accumulator.addWarning(key, message));
+    }
+
+    void replay(PluginExceptionConditionAccumulator accumulator) {
+      for (Consumer<PluginExceptionConditionAccumulator> condition : recorded) {
+        condition.accept(accumulator);
+      }
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.cloudera.director.dimensiondata.util.PagedListings;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.Param;
+import com.dimensiondata.cloud.client.model.DatacenterType;
+import com.dimensiondata.cloud.client.model.NetworkDomainType;
+import com.dimensiondata.cloud.client.model.OsImageType;
+
+/**
+ * The MCP reads of one template validation. Every resource is read at most once per validation,
+ * even by checks running concurrently, and failed reads are remembered as well, so that every
+ * check depending on a read sees the same outcome.
+ */
+class ValidationSession {
+
+  private final Cloud compute;
+
+  private final ConcurrentMap<String, CompletableFuture<DatacenterType>> datacenters =
+      new ConcurrentHashMap<String, CompletableFuture<DatacenterType>>();
+  private final ConcurrentMap<String, CompletableFuture<OsImageType>> osImages =
+      new ConcurrentHashMap<String, CompletableFuture<OsImageType>>();
+  private final ConcurrentMap<String, CompletableFuture<List<NetworkDomainType>>> networkDomains =
+      new ConcurrentHashMap<String, CompletableFuture<List<NetworkDomainType>>>();
+
+  /**
+   * Creates a validation session with the specified parameters.
+   *
+   * @param compute the client
+   */
+  ValidationSession(Cloud compute) {
+    this.compute = compute;
+  }
+
+  /**
+   * Returns the specified datacenter.
+   *
+   * @param datacenterId the datacenter ID
+   * @return the datacenter
+   */
+  DatacenterType getDatacenter(String datacenterId) {
+    return memoize(datacenters, datacenterId, () -> compute.datacenter().getDatacenter(datacenterId));
+  }
+
+  /**
+   * Returns the specified OS image.
+   *
+   * @param imageId the image ID
+   * @return the OS image
+   */
+  OsImageType getOsImage(String imageId) {
+    return memoize(osImages, imageId, () -> compute.image().getOsImage(imageId));
+  }
+
+  /**
+   * Returns every network domain of the specified datacenter.
+   *
+   * @param datacenterId the datacenter ID
+   * @return the network domains
+   */
+  List<NetworkDomainType> listNetworkDomains(String datacenterId) {
+    return memoize(networkDomains, datacenterId, () -> PagedListings.networkDomains(compute,
+        new Filter(new Param("datacenterId", datacenterId)), null).collect(Collectors.toList()));
+  }
+
+  /**
+   * Returns the outcome of the specified read, reading it unless another caller already did or is
+   * doing so.
+   */
+  private static <T> T memoize(ConcurrentMap<String, CompletableFuture<T>> reads, String key, Supplier<T> read) {
+    CompletableFuture<T> result = new CompletableFuture<T>();
+    CompletableFuture<T> previous = reads.putIfAbsent(String.valueOf(key), result);
+    if (previous == null) {
+      try {
+        result.complete(read.get());
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+      }
+      previous = result;
+    }
+    try {
+      return previous.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.Configurations;
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.cloudera.director.dimensiondata.util.PagedListings;
+import com.cloudera.director.dimensiondata.util.WorkerPools;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.Param;
+import com.dimensiondata.cloud.client.model.IpRangeCidrType;
+import com.dimensiondata.cloud.client.model.NetworkDomainType;
+import com.dimensiondata.cloud.client.model.VlanType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.typesafe.config.Config;
+
+/**
+ * The VLANs of the network domains of an account, indexed per datacenter by network domain name
+ * and private IPv4 network. The VLANs of a datacenter are listed the first time it is looked up
+ * and listed again once they are older than the refresh interval, so that looking up a VLAN does
+ * not depend on how many network domains and VLANs the account has. An address belongs to a VLAN
+ * if it lies within its private IPv4 range, which covers both its base and its gateway address.
+ * Indexes are shared by all providers of the same account and region.
+ */
+class VlanIndex {
+
+  private static final Logger LOG = LoggerFactory.getLogger(VlanIndex.class);
+
+  private static final AccountRegistry<VlanIndex> INDEXES =
+      new AccountRegistry<VlanIndex>("VLAN index", VlanIndex::shutdown);
+
+  private final DimensionDataCredentials credentials;
+  private final ExecutorService executor;
+  private final long minReloadSeconds;
+  private final Cache<String, Snapshot> snapshots;
+
+  /**
+   * Returns the index of the account of the specified credentials, creating it from the
+   * configuration if needed. The index keeps the settings it was created with.
+   *
+   * @param credentials         the credentials used to list VLANs
+   * @param dimensiondataConfig the Dimension Data configuration
+   * @return the index
+   */
+  static VlanIndex forAccount(DimensionDataCredentials credentials, Config dimensiondataConfig) {
+    int listingThreads = dimensiondataConfig.getInt(Configurations.COMPUTE_VLANS_SECTION + "listingThreads");
+    long refreshSeconds = dimensiondataConfig.getLong(Configurations.COMPUTE_VLANS_SECTION + "refreshSeconds");
+    long minReloadSeconds = dimensiondataConfig.getLong(Configurations.COMPUTE_VLANS_SECTION + "minReloadSeconds");
+    return INDEXES.get(credentials.getAccount(), Arrays.asList(listingThreads, refreshSeconds, minReloadSeconds),
+        () -> new VlanIndex(credentials, WorkerPools.newBoundedPool("dimensiondata-vlans-%d", listingThreads),
+            refreshSeconds, minReloadSeconds));
+  }
+
+  /**
+   * Creates an index with the specified parameters.
+   *
+   * @param credentials      the credentials used to list VLANs
+   * @param executor         the executor used to supply network domains and prefetch pages of
+   *                         VLANs
+   * @param refreshSeconds   the seconds the VLANs of a datacenter are indexed for before they are
+   *                         listed again
+   * @param minReloadSeconds the minimum age of the VLANs of a datacenter before a lookup that
+   *                         misses lists them again
+   */
+  VlanIndex(DimensionDataCredentials credentials, ExecutorService executor, long refreshSeconds,
+      long minReloadSeconds) {
+    this.credentials = credentials;
+    this.executor = executor;
+    this.minReloadSeconds = minReloadSeconds;
+    this.snapshots = CacheBuilder.newBuilder()
+        .expireAfterWrite(refreshSeconds, TimeUnit.SECONDS)
+        .build();
+  }
+
+  /**
+   * Returns the VLAN of the specified network domain whose private IPv4 range contains the
+   * specified address. If no VLAN is indexed for the address, the VLANs of the datacenter are
+   * listed again unless they were listed recently, since the VLAN may have been deployed since.
+   * Listing the VLANs of a datacenter takes its network domains from the specified supplier, so
+   * that callers which already listed them do not have them listed again.
+   *
+   * @param datacenterId      the datacenter ID
+   * @param networkDomainName the network domain name
+   * @param ipv4              the base, gateway or any other IPv4 address of the VLAN
+   * @param networkDomains    supplies the network domains of the datacenter
+   * @return the VLAN, or {@code null} if no VLAN contains the address
+   */
+  VlanType find(String datacenterId, String networkDomainName, String ipv4,
+      Supplier<List<NetworkDomainType>> networkDomains) {
+    Snapshot snapshot = get(datacenterId, networkDomains);
+    VlanType vlan = snapshot.find(networkDomainName, ipv4);
+    long age = System.currentTimeMillis() - snapshot.listedAt;
+    if (vlan == null && age >= TimeUnit.SECONDS.toMillis(minReloadSeconds)) {
+      snapshots.invalidate(datacenterId);
+      vlan = get(datacenterId, networkDomains).find(networkDomainName, ipv4);
+    }
+    return vlan;
+  }
+
+  /**
+   * Stops the threads listing VLANs.
+   */
+  void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Forgets the VLANs of the specified datacenter, so that the next lookup lists them again.
+   *
+   * @param datacenterId the datacenter ID
+   */
+  void invalidate(String datacenterId) {
+    snapshots.invalidate(datacenterId);
+  }
+
+  /**
+   * Returns whether the private IPv4 range of the specified VLAN contains the specified address.
+   *
+   * @param vlan the VLAN
+   * @param ipv4 the IPv4 address
+   * @return whether the VLAN contains the address
+   */
+  static boolean contains(VlanType vlan, String ipv4) {
+    long address = parse(ipv4);
+    if (address < 0) {
+      return false;
+    }
+    IpRangeCidrType range = vlan.getPrivateIpv4Range();
+    if (range == null || range.getPrefixSize() == null) {
+      return ipv4.equals(vlan.getIpv4GatewayAddress());
+    }
+    long network = parse(range.getAddress());
+    return network >= 0 && mask(address, range.getPrefixSize()) == mask(network, range.getPrefixSize());
+  }
+
+  private Snapshot get(String datacenterId, Supplier<List<NetworkDomainType>> networkDomains) {
+    try {
+      return snapshots.get(datacenterId, () -> list(datacenterId, networkDomains));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Lists the VLANs of the specified datacenter in one listing while the network domains are
+   * supplied, and indexes the VLANs by the name of the network domain they reference.
+   */
+  private Snapshot list(String datacenterId, Supplier<List<NetworkDomainType>> networkDomains) {
+    CompletableFuture<List<NetworkDomainType>> supplied = CompletableFuture.supplyAsync(networkDomains, executor);
+    List<VlanType> vlans;
+    try (Stream<VlanType> listing = PagedListings.vlans(credentials.getCompute(),
+        new Filter(new Param("datacenterId", datacenterId)), executor)) {
+      vlans = listing.collect(Collectors.toList());
+    }
+    return index(datacenterId, join(supplied), vlans);
+  }
+
+  /**
+   * Indexes the specified VLANs of a datacenter by the name of the network domain they reference.
+   * VLANs of network domains that are not listed, such as ones deployed in between the listings,
+   * are left out until the next listing.
+   */
+  static Snapshot index(String datacenterId, List<NetworkDomainType> networkDomains, List<VlanType> vlans) {
+    Map<String, String> networkDomainNames = new HashMap<String, String>();
+    for (NetworkDomainType networkDomain : networkDomains) {
+      networkDomainNames.put(networkDomain.getId(), networkDomain.getName());
+    }
+    Snapshot snapshot = new Snapshot();
+    for (VlanType vlan : vlans) {
+      String networkDomainName = vlan.getNetworkDomain() == null ? null
+          : networkDomainNames.get(vlan.getNetworkDomain().getId());
+      if (networkDomainName != null) {
+        snapshot.index(networkDomainName, vlan);
+      }
+    }
+    LOG.debug("Indexed {} VLANs of {} network domains in datacenter '{}'.", snapshot.vlanCount,
+        networkDomains.size(), datacenterId);
+    return snapshot;
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = OperationPoller.unwrap(e);
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the specified IPv4 address as an unsigned 32-bit number, or -1 if it is malformed.
+   */
+  private static long parse(String ipv4) {
+    if (ipv4 == null) {
+      return -1;
+    }
+    String[] octets = ipv4.trim().split("\\.", -1);
+    if (octets.length != 4) {
+      return -1;
+    }
+    long address = 0;
+    for (String octet : octets) {
+      if (octet.isEmpty() || octet.length() > 3 || !octet.chars().allMatch(Character::isDigit)) {
+        return -1;
+      }
+      int value = Integer.parseInt(octet);
+      if (value > 255) {
+        return -1;
+      }
+      address = (address << 8) | value;
+    }
+    return address;
+  }
+
+  private static long mask(long address, int prefixSize) {
+    return prefixSize <= 0 ? 0 : address & (0xFFFFFFFFL << (32 - Math.min(prefixSize, 32)) & 0xFFFFFFFFL);
+  }
+
+  /**
+   * The VLANs of one datacenter, keyed by network domain name, prefix size and network address.
+   * Looking up an address masks it with each prefix size in use, of which there are at most 33.
+   */
+  static class Snapshot {
+
+    private final long listedAt = System.currentTimeMillis();
+    private final Map<String, VlanType> vlansByNetwork = new HashMap<String, VlanType>();
+    private final Map<String, VlanType> vlansByGateway = new HashMap<String, VlanType>();
+    private final TreeSet<Integer> prefixSizes = new TreeSet<Integer>();
+    private int vlanCount;
+
+    void index(String networkDomainName, VlanType vlan) {
+      vlanCount++;
+      if (vlan.getIpv4GatewayAddress() != null) {
+        vlansByGateway.putIfAbsent(networkDomainName + "/" + vlan.getIpv4GatewayAddress(), vlan);
+      }
+      IpRangeCidrType range = vlan.getPrivateIpv4Range();
+      long network = range == null ? -1 : parse(range.getAddress());
+      if (network >= 0 && range.getPrefixSize() != null) {
+        int prefixSize = range.getPrefixSize();
+        vlansByNetwork.putIfAbsent(key(networkDomainName, prefixSize, mask(network, prefixSize)), vlan);
+        prefixSizes.add(prefixSize);
+      }
+    }
+
+    VlanType find(String networkDomainName, String ipv4) {
+      long address = parse(ipv4);
+      if (address < 0) {
+        return null;
+      }
+      // The most specific range wins, should ranges of the same network domain ever overlap.
+      for (int prefixSize : prefixSizes.descendingSet()) {
+        VlanType vlan = vlansByNetwork.get(key(networkDomainName, prefixSize, mask(address, prefixSize)));
+        if (vlan != null) {
+          return vlan;
+        }
+      }
+      return vlansByGateway.get(networkDomainName + "/" + ipv4.trim());
+    }
+
+    private static String key(String networkDomainName, int prefixSize, long network) {
+      return networkDomainName + "/" + prefixSize + "/" + network;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.internal;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.Configurations;
+import com.dimensiondata.cloud.client.http.ServiceUnavailableException;
+import com.typesafe.config.Config;
+
+/**
+ * Keeps the MCP API calls of one account in one region under the platform quotas. Read and
+ * mutating calls draw from separate token buckets, and calls rejected because the platform is
+ * throttling or unavailable are retried with jittered exponential backoff. Throttles are shared by
+ * all credentials of the same account and region.
+ */
+class ApiThrottle {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ApiThrottle.class);
+
+  private static final ConcurrentMap<String, ApiThrottle> THROTTLES = new ConcurrentHashMap<String, ApiThrottle>();
+
+  private final TokenBucket reads;
+  private final TokenBucket mutations;
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+
+  /**
+   * Returns the throttle of the specified account, creating it from the configuration if needed.
+   *
+   * @param account             the account, keyed like its client by region API URL and username
+   * @param dimensiondataConfig the Dimension Data configuration
+   * @return the throttle
+   */
+  static ApiThrottle forAccount(String account, Config dimensiondataConfig) {
+    return THROTTLES.computeIfAbsent(account, key -> new ApiThrottle(
+        new TokenBucket(dimensiondataConfig.getDouble(Configurations.COMPUTE_THROTTLE_SECTION + "readsPerSecond"),
+            dimensiondataConfig.getInt(Configurations.COMPUTE_THROTTLE_SECTION + "readBurst")),
+        new TokenBucket(dimensiondataConfig.getDouble(Configurations.COMPUTE_THROTTLE_SECTION + "mutationsPerSecond"),
+            dimensiondataConfig.getInt(Configurations.COMPUTE_THROTTLE_SECTION + "mutationBurst")),
+        dimensiondataConfig.getInt(Configurations.COMPUTE_THROTTLE_SECTION + "maxAttempts"),
+        dimensiondataConfig.getLong(Configurations.COMPUTE_THROTTLE_SECTION + "initialBackoffMillis"),
+        dimensiondataConfig.getLong(Configurations.COMPUTE_THROTTLE_SECTION + "maxBackoffMillis")));
+  }
+
+  ApiThrottle(TokenBucket reads, TokenBucket mutations, int maxAttempts, long initialBackoffMillis,
+      long maxBackoffMillis) {
+    this.reads = reads;
+    this.mutations = mutations;
+    this.maxAttempts = Math.max(maxAttempts, 1);
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+  }
+
+  /**
+   * Issues the specified call once the budget allows it, retrying it while the platform is
+   * throttling or unavailable. Transport failures are only retried for read calls, since a mutating
+   * call may have been applied even though its response was lost.
+   *
+   * @param mutating whether the call changes resources
+   * @param call     the call
+   * @param <T>      the result type
+   * @return the result of the call
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   * @throws Exception            if the call fails
+   */
+  <T> T call(boolean mutating, Callable<T> call) throws Exception {
+    TokenBucket bucket = mutating ? mutations : reads;
+    for (int attempt = 1; ; attempt++) {
+      bucket.acquire();
+      try {
+        return call.call();
+      } catch (RuntimeException e) {
+        if (attempt >= maxAttempts || !isRetryable(e, mutating)) {
+          throw e;
+        }
+        long backoffMillis = backoffMillis(attempt);
+        LOG.warn("MCP API call failed ({}), retrying in {} ms (attempt {} of {}).", e.getMessage(),
+            backoffMillis, attempt, maxAttempts);
+        TimeUnit.MILLISECONDS.sleep(backoffMillis);
+      }
+    }
+  }
+
+  private static boolean isRetryable(RuntimeException e, boolean mutating) {
+    return e instanceof ServiceUnavailableException || (!mutating && e.getCause() instanceof IOException);
+  }
+
+  /**
+   * Returns a random backoff between half of an exponentially growing bound and the whole bound,
+   * so that callers throttled at the same time do not retry at the same time, while every retry
+   * still waits at least half as long as the bound asks for.
+   */
+  private long backoffMillis(int attempt) {
+    long bound = Math.min(initialBackoffMillis << Math.min(attempt - 1, 20), maxBackoffMillis);
+    return ThreadLocalRandom.current().nextLong(bound / 2, bound + 1);
+  }
+
+  /**
+   * A token bucket. Callers reserve a token and wait until it has been refilled, so that callers
+   * are served in order and the long-term rate never exceeds the refill rate.
+   */
+  static class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double capacity;
+
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    /**
+     * Creates a token bucket with the specified parameters.
+     *
+     * @param permitsPerSecond the refill rate
+     * @param burst            the number of calls that may be issued at once
+     */
+    TokenBucket(double permitsPerSecond, int burst) {
+      if (permitsPerSecond <= 0 || burst < 1) {
+        throw new IllegalArgumentException("Rate limits must be positive.");
+      }
+      this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+      this.capacity = burst;
+      this.tokens = burst;
+    }
+
+    void acquire() throws InterruptedException {
+      long waitNanos;
+      synchronized (this) {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * permitsPerNano);
+        refilledAt = now;
+        tokens -= 1;
+        waitNanos = tokens >= 0 ? 0 : (long) (-tokens / permitsPerNano);
+      }
+      if (waitNanos > 0) {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      }
+    }
+  }
+}
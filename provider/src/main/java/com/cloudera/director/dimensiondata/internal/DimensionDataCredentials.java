@@ -16,43 +16,31 @@
 
 package com.cloudera.director.dimensiondata.internal;
 
-import com.cloudera.director.dimensiondata.compute.util.ComputeUrls;
 import com.dimensiondata.cloud.client.Cloud;
 import com.dimensiondata.cloud.client.User;
-import com.dimensiondata.cloud.client.UserSession;
-import com.dimensiondata.cloud.client.http.CloudImpl;
 import com.typesafe.config.Config;
 
 public class DimensionDataCredentials {
 
   private final Config applicationProperties;
+  private final Config dimensiondataConfig;
   private final User user;
   private final String username;
   private final String password; 
   private final String region; 
+  private final String account;
   private final Cloud compute;
 
-  public DimensionDataCredentials(Config applicationProperties, String username, String password, String region) {
+  public DimensionDataCredentials(Config applicationProperties, Config dimensiondataConfig, String username,
+      String password, String region) {
     this.applicationProperties = applicationProperties;
+    this.dimensiondataConfig = dimensiondataConfig;
     this.username = username;
     this.password = password;
     this.region = region;
     this.user = new User(username,password);
-    this.compute = buildCompute(this.user);
-
-  }
-
-  private Cloud buildCompute(User myUser) {
-    try {
-        UserSession.set(myUser);
-    	if(!region.isEmpty()){
-    		return new CloudImpl(ComputeUrls.buildDimensionDataComputeApisUrl(region));
-    	}else{
-    		return new CloudImpl(ComputeUrls.buildDimensionDataComputeApisUrl("dd-na"));
-    	}
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
+    this.account = McpClients.accountOf(region, username);
+    this.compute = McpClients.forAccount(region, username, user, dimensiondataConfig);
   }
 
   public String getUserName() {
@@ -67,12 +55,38 @@ public class DimensionDataCredentials {
     return user;
   }
   
+  /**
+   * Returns the client of the account. It is shared by all credentials of the account and calls
+   * MCP as the user of the credentials that were verified last, which are these credentials
+   * unless the password was changed since.
+   *
+   * @return the client
+   */
   public Cloud getCompute() {
 	    return compute;
   }
-  
+
+  /**
+   * Returns the key the shared state of the account is kept under, its region API URL and
+   * username.
+   *
+   * @return the account key
+   */
+  public String getAccount() {
+    return account;
+  }
+
   public String getRegion() {
 	  return region;
   }
 
+  /**
+   * Verifies these credentials against MCP, unless the same credentials were verified recently.
+   *
+   * @throws RuntimeException if the credentials are invalid or MCP cannot be reached
+   */
+  public void verify() {
+    McpClients.verify(this, dimensiondataConfig);
+  }
+
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.director.dimensiondata.Configurations;
+import com.cloudera.director.dimensiondata.compute.util.ComputeUrls;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.OrderBy;
+import com.dimensiondata.cloud.client.User;
+import com.dimensiondata.cloud.client.http.CloudImpl;
+import com.google.common.hash.Hashing;
+import com.typesafe.config.Config;
+
+/**
+ * The MCP clients of the plugin, one per region API URL and account, shared by every launcher,
+ * cloud provider and compute provider of the account along with the throttle of the account.
+ * Calls are made as the user of the credentials of the account that were verified last, so that
+ * the background work of the plugin, which outlives the providers that started it, follows a
+ * password change as soon as the new password has been verified. Successful credential
+ * verifications are remembered for a while, so that an account is not verified again by every
+ * provider created for it.
+ */
+final class McpClients {
+
+  private static final Logger LOG = LoggerFactory.getLogger(McpClients.class);
+
+  private static final String DEFAULT_REGION = "dd-na";
+
+  private static final ConcurrentMap<String, Account> ACCOUNTS = new ConcurrentHashMap<String, Account>();
+
+  /**
+   * The time of the last successful verification of every credentials, by hash of the credentials.
+   */
+  private static final ConcurrentMap<String, CompletableFuture<Long>> VERIFICATIONS =
+      new ConcurrentHashMap<String, CompletableFuture<Long>>();
+
+  private McpClients() {
+  }
+
+  /**
+   * Returns the key of the specified account, its region API URL and username.
+   *
+   * @param region   the region, empty for the default region
+   * @param username the username of the account
+   * @return the account key
+   */
+  static String accountOf(String region, String username) {
+    return urlOf(region) + "/" + username;
+  }
+
+  /**
+   * Returns the client of the specified account, creating it if needed. Calls made through the
+   * client are throttled with the budget of the account, and made as the specified user until
+   * credentials of the account are verified.
+   *
+   * @param region              the region, empty for the default region
+   * @param user                the user of the account
+   * @param username            the username of the account
+   * @param dimensiondataConfig the Dimension Data configuration
+   * @return the client
+   */
+  static Cloud forAccount(String region, String username, User user, Config dimensiondataConfig) {
+    return ACCOUNTS.computeIfAbsent(accountOf(region, username), account -> {
+      String url = urlOf(region);
+      LOG.info(">> Creating MCP client for user '{}' at {}.", username, url);
+      return new Account(new CloudImpl(url), ApiThrottle.forAccount(account, dimensiondataConfig), user);
+    }).compute;
+  }
+
+  private static String urlOf(String region) {
+    return ComputeUrls.buildDimensionDataComputeApisUrl(region.isEmpty() ? DEFAULT_REGION : region);
+  }
+
+  /**
+   * Verifies the specified credentials by listing datacenters, unless they were verified
+   * successfully recently. Concurrent verifications of the same credentials share a single call,
+   * and failed verifications are not remembered. Once verified, the credentials are used for
+   * every later call of their account.
+   *
+   * @param credentials         the credentials
+   * @param dimensiondataConfig the Dimension Data configuration
+   * @throws RuntimeException if the credentials are invalid or MCP cannot be reached
+   */
+  static void verify(DimensionDataCredentials credentials, Config dimensiondataConfig) {
+    long ttlMillis = TimeUnit.SECONDS.toMillis(
+        dimensiondataConfig.getLong(Configurations.COMPUTE_CLIENT_SECTION + "verifiedTtlSeconds"));
+    String key = Hashing.sha256().hashString(credentials.getAccount() + "/" + credentials.getPassword(),
+        StandardCharsets.UTF_8).toString();
+    Account account = ACCOUNTS.get(credentials.getAccount());
+
+    while (true) {
+      CompletableFuture<Long> previous = VERIFICATIONS.get(key);
+      if (previous != null) {
+        Long verifiedAt = previous.handle((at, e) -> at).join();
+        if (verifiedAt != null && System.currentTimeMillis() - verifiedAt < ttlMillis) {
+          return;
+        }
+        VERIFICATIONS.remove(key, previous);
+      }
+
+      CompletableFuture<Long> verification = new CompletableFuture<Long>();
+      if (VERIFICATIONS.putIfAbsent(key, verification) != null) {
+        // Another caller started verifying the same credentials in the meantime.
+        continue;
+      }
+      try {
+        // The credentials may not be those of the account yet, so the call is made as their own user.
+        account.as(credentials.getUser()).datacenter().listDatacenters(1, 1, OrderBy.EMPTY);
+        if (account.user != credentials.getUser()) {
+          LOG.info(">> Calling MCP with the credentials verified last for user '{}'.", credentials.getUserName());
+          account.user = credentials.getUser();
+        }
+        verification.complete(System.currentTimeMillis());
+        return;
+      } catch (RuntimeException e) {
+        VERIFICATIONS.remove(key, verification);
+        verification.completeExceptionally(e);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * The client of one account and the user its calls are made as.
+   */
+  private static class Account {
+
+    private final Cloud client;
+    private final ApiThrottle throttle;
+    private final Cloud compute;
+    private volatile User user;
+
+    Account(Cloud client, ApiThrottle throttle, User user) {
+      this.client = client;
+      this.throttle = throttle;
+      this.compute = ThrottledCloud.wrap(client, throttle, () -> this.user);
+      this.user = user;
+    }
+
+    /**
+     * Returns a view of the client that makes its calls as the specified user, throttled with the
+     * budget of the account.
+     */
+    Cloud as(User user) {
+      return ThrottledCloud.wrap(client, throttle, () -> user);
+    }
+  }
+}
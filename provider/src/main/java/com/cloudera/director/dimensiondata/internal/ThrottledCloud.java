@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+import com.dimensiondata.cloud.client.ClientRuntimeException;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.User;
+import com.dimensiondata.cloud.client.UserSession;
+
+/**
+ * Routes every MCP API call made through a {@link Cloud} client through an {@link ApiThrottle}.
+ * The resource accessors of the client, such as {@code server()}, return throttled views of
+ * themselves, and calls are classified as reads or mutations by their name. When a session is
+ * given, its user is bound to the calling thread for the duration of every call, and the user the
+ * thread was bound to before is restored afterwards, so that calls never depend on which user a
+ * pooled thread was last bound to and never leave their own user bound to the calling thread.
+ */
+class ThrottledCloud implements InvocationHandler {
+
+  private final Object target;
+  private final ApiThrottle throttle;
+  private final Supplier<User> session;
+
+  /**
+   * Returns a view of the specified client that throttles every API call.
+   *
+   * @param compute  the client
+   * @param throttle the throttle
+   * @param session  the user calls are made as, or {@code null} to use the user bound to the
+   *                 calling thread
+   * @return the throttled client
+   */
+  static Cloud wrap(Cloud compute, ApiThrottle throttle, Supplier<User> session) {
+    return proxy(Cloud.class, compute, throttle, session);
+  }
+
+  private static <T> T proxy(Class<T> type, Object target, ApiThrottle throttle, Supplier<User> session) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+        new ThrottledCloud(target, throttle, session)));
+  }
+
+  private ThrottledCloud(Object target, ApiThrottle throttle, Supplier<User> session) {
+    this.target = target;
+    this.throttle = throttle;
+    this.session = session;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    Class<?> returnType = method.getReturnType();
+
+    if (method.getDeclaringClass() == Object.class || isLocal(method)) {
+      return invokeTarget(method, args);
+    } else if (target instanceof Cloud && returnType.isInterface()) {
+      // Resource accessors do not call the API themselves.
+      return proxy(returnType, invokeTarget(method, args), throttle, session);
+    } else if (returnType == Callable.class) {
+      // Deferred checks, such as isServerDeleted, call the API each time they are evaluated.
+      Callable<?> check = (Callable<?>) invokeTarget(method, args);
+      return (Callable<Object>) () -> throttle.call(false, () -> callInSession(check));
+    }
+
+    try {
+      return throttle.call(isMutating(method), () -> callInSession(() -> invokeTarget(method, args)));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ClientRuntimeException("Interrupted while waiting to call " + method.getName() + ".");
+    }
+  }
+
+  private Object callInSession(Callable<?> call) throws Exception {
+    if (session == null) {
+      return call.call();
+    }
+    User previous = UserSession.get();
+    UserSession.set(session.get());
+    try {
+      return call.call();
+    } finally {
+      UserSession.set(previous);
+    }
+  }
+
+  private Object invokeTarget(Method method, Object[] args) throws Exception {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw (Error) cause;
+    }
+  }
+
+  /**
+   * Returns whether the specified method works on a response that was already received.
+   */
+  private static boolean isLocal(Method method) {
+    return method.getName().startsWith("getIdFrom");
+  }
+
+  private static boolean isMutating(Method method) {
+    String name = method.getName();
+    return !(name.startsWith("list") || name.startsWith("get") || name.startsWith("is"));
+  }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.util;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.OrderBy;
+import com.dimensiondata.cloud.client.model.CustomerImageType;
+import com.dimensiondata.cloud.client.model.CustomerImages;
+import com.dimensiondata.cloud.client.model.DatacenterType;
+import com.dimensiondata.cloud.client.model.Datacenters;
+import com.dimensiondata.cloud.client.model.NetworkDomainType;
+import com.dimensiondata.cloud.client.model.NetworkDomains;
+import com.dimensiondata.cloud.client.model.OsImageType;
+import com.dimensiondata.cloud.client.model.OsImages;
+import com.dimensiondata.cloud.client.model.ServerType;
+import com.dimensiondata.cloud.client.model.Servers;
+import com.dimensiondata.cloud.client.model.VlanType;
+import com.dimensiondata.cloud.client.model.Vlans;
+
+/**
+ * Streams the resources returned by the paged MCP list APIs. Pages are read lazily, one at a time,
+ * so that memory does not grow with the size of the account and a stream that stops before the end
+ * of a page reads no further pages than the one read ahead. When an executor is given, the next
+ * page is read in the background as soon as a page that is not the last one arrives, while the
+ * consumer works through it. A consumer that catches up with a read that has not started yet reads
+ * the page itself, so a busy executor never stalls the stream. Streams given an executor should be
+ * closed, so that a read that is queued but no longer wanted is abandoned. The last page is known
+ * from the total count MCP returns with every page, or from a page that is not full if it does
+ * not.
+ */
+public class PagedListings {
+
+  /**
+   * The number of resources requested per page, the largest page size MCP accepts.
+   */
+  public static final int PAGE_SIZE = 250;
+
+  private PagedListings() {
+  }
+
+  /**
+   * Reads one page of a paged list API.
+   *
+   * @param <T> the resource type
+   */
+  public interface PageReader<T> {
+
+    /**
+     * Reads the specified page.
+     *
+     * @param pageSize   the page size
+     * @param pageNumber the page number, starting at 1
+     * @return the page
+     */
+    Page<T> read(int pageSize, int pageNumber);
+  }
+
+  /**
+   * One page of a paged list API.
+   *
+   * @param <T> the resource type
+   */
+  public static class Page<T> {
+
+    private final List<T> resources;
+    private final Integer totalCount;
+
+    /**
+     * Creates a page with the specified parameters.
+     *
+     * @param resources  the resources of the page
+     * @param totalCount the number of resources of all pages, or {@code null} if it is unknown
+     */
+    public Page(List<T> resources, Integer totalCount) {
+      this.resources = resources;
+      this.totalCount = totalCount;
+    }
+
+    List<T> getResources() {
+      return resources;
+    }
+
+    /**
+     * Returns whether further pages follow this one.
+     */
+    boolean hasNext(int pageSize, int pageNumber) {
+      if (resources.isEmpty()) {
+        return false;
+      }
+      return totalCount != null ? (long) pageSize * pageNumber < totalCount : resources.size() >= pageSize;
+    }
+  }
+
+  /**
+   * Streams the servers matching the specified filter.
+   *
+   * @param compute    the client
+   * @param filter     the filter
+   * @param prefetcher the executor reading the next page in the background, or {@code null} to
+   *                   read every page when it is needed
+   * @return the servers
+   */
+  public static Stream<ServerType> servers(Cloud compute, Filter filter, Executor prefetcher) {
+    return stream((pageSize, pageNumber) -> {
+      Servers servers = compute.server().listServers(pageSize, pageNumber, OrderBy.EMPTY, filter);
+      return new Page<ServerType>(servers.getServer(), servers.getTotalCount());
+    }, prefetcher);
+  }
+
+  /**
+   * Streams the network domains matching the specified filter.
+   *
+   * @param compute    the client
+   * @param filter     the filter
+   * @param prefetcher the executor reading the next page in the background, or {@code null} to
+   *                   read every page when it is needed
+   * @return the network domains
+   */
+  public static Stream<NetworkDomainType> networkDomains(Cloud compute, Filter filter, Executor prefetcher) {
+    return stream((pageSize, pageNumber) -> {
+      NetworkDomains networkDomains = compute.networkDomain()
+          .listNetworkDomains(pageSize, pageNumber, OrderBy.EMPTY, filter);
+      return new Page<NetworkDomainType>(networkDomains.getNetworkDomain(), networkDomains.getTotalCount());
+    }, prefetcher);
+  }
+
+  /**
+   * Streams the VLANs matching the specified filter.
+   *
+   * @param compute    the client
+   * @param filter     the filter
+   * @param prefetcher the executor reading the next page in the background, or {@code null} to
+   *                   read every page when it is needed
+   * @return the VLANs
+   */
+  public static Stream<VlanType> vlans(Cloud compute, Filter filter, Executor prefetcher) {
+    return stream((pageSize, pageNumber) -> {
+      Vlans vlans = compute.vlan().listVlans(pageSize, pageNumber, OrderBy.EMPTY, filter);
+      return new Page<VlanType>(vlans.getVlan(), vlans.getTotalCount());
+    }, prefetcher);
+  }
+
+  /**
+   * Streams the OS images matching the specified filter.
+   *
+   * @param compute    the client
+   * @param filter     the filter
+   * @param prefetcher the executor reading the next page in the background, or {@code null} to
+   *                   read every page when it is needed
+   * @return the OS images
+   */
+  public static Stream<OsImageType> osImages(Cloud compute, Filter filter, Executor prefetcher) {
+    return stream((pageSize, pageNumber) -> {
+      OsImages osImages = compute.image().listOsImages(pageSize, pageNumber, OrderBy.EMPTY, filter);
+      return new Page<OsImageType>(osImages.getOsImage(), osImages.getTotalCount());
+    }, prefetcher);
+  }
+
+  /**
+   * Streams the customer images matching the specified filter.
+   *
+   * @param compute    the client
+   * @param filter     the filter
+   * @param prefetcher the executor reading the next page in the background, or {@code null} to
+   *                   read every page when it is needed
+   * @return the customer images
+   */
+  public static Stream<CustomerImageType> customerImages(Cloud compute, Filter filter, Executor prefetcher) {
+    return stream((pageSize, pageNumber) -> {
+      CustomerImages customerImages = compute.image()
+          .listCustomerImages(pageSize, pageNumber, OrderBy.EMPTY, filter);
+      return new Page<CustomerImageType>(customerImages.getCustomerImage(), customerImages.getTotalCount());
+    }, prefetcher);
+  }
+
+  /**
+   * Streams the datacenters of the region.
+   *
+   * @param compute    the client
+   * @param prefetcher the executor reading the next page in the background, or {@code null} to
+   *                   read every page when it is needed
+   * @return the datacenters
+   */
+  public static Stream<DatacenterType> datacenters(Cloud compute, Executor prefetcher) {
+    return stream((pageSize, pageNumber) -> {
+      Datacenters datacenters = compute.datacenter().listDatacenters(pageSize, pageNumber, OrderBy.EMPTY);
+      return new Page<DatacenterType>(datacenters.getDatacenter(), datacenters.getTotalCount());
+    }, prefetcher);
+  }
+
+  /**
+   * Streams the resources of the specified paged list API.
+   *
+   * @param reader     the page reader
+   * @param prefetcher the executor reading the next page in the background, or {@code null} to
+   *                   read every page when it is needed
+   * @param <T>        the resource type
+   * @return the resources
+   */
+  public static <T> Stream<T> stream(PageReader<T> reader, Executor prefetcher) {
+    PagedSpliterator<T> spliterator = new PagedSpliterator<T>(reader, PAGE_SIZE, prefetcher);
+    return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+  }
+
+  /**
+   * Iterates over the resources of the specified paged list API.
+   *
+   * @param reader     the page reader
+   * @param prefetcher the executor reading the next page in the background, or {@code null} to
+   *                   read every page when it is needed
+   * @param <T>        the resource type
+   * @return the resources
+   */
+  public static <T> Iterator<T> iterator(PageReader<T> reader, Executor prefetcher) {
+    return Spliterators.iterator(new PagedSpliterator<T>(reader, PAGE_SIZE, prefetcher));
+  }
+
+  /**
+   * A spliterator reading one page after the other until the last page.
+   */
+  static class PagedSpliterator<T> implements Spliterator<T> {
+
+    private final PageReader<T> reader;
+    private final int pageSize;
+    private final Executor prefetcher;
+
+    private Iterator<T> current;
+    private PageRead next;
+
+    PagedSpliterator(PageReader<T> reader, int pageSize, Executor prefetcher) {
+      this.reader = reader;
+      this.pageSize = pageSize;
+      this.prefetcher = prefetcher;
+      // The first page is read when the stream is consumed rather than when it is created.
+      this.next = new PageRead(1);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+      while (current == null || !current.hasNext()) {
+        if (next == null) {
+          return false;
+        }
+        PageRead read = next;
+        Page<T> page = read.get();
+        next = page.hasNext(pageSize, read.pageNumber) ? new PageRead(read.pageNumber + 1) : null;
+        if (next != null) {
+          // The next page is read while the consumer works through this one.
+          prefetch(next);
+        }
+        current = page.getResources().iterator();
+      }
+      action.accept(current.next());
+      return true;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+      return null;
+    }
+
+    @Override
+    public long estimateSize() {
+      return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | NONNULL;
+    }
+
+    /**
+     * Abandons the page read in the background, if it has not started yet.
+     */
+    void close() {
+      if (next != null) {
+        next.claimed.set(true);
+        next = null;
+      }
+    }
+
+    private void prefetch(PageRead read) {
+      if (prefetcher != null) {
+        try {
+          prefetcher.execute(read);
+        } catch (RejectedExecutionException e) {
+          // The page is read when it is needed.
+        }
+      }
+    }
+
+    /**
+     * The read of one page, done by whichever of the prefetcher and the consumer gets to it first.
+     */
+    private class PageRead implements Runnable {
+
+      private final int pageNumber;
+      private final AtomicBoolean claimed = new AtomicBoolean();
+      private final CompletableFuture<Page<T>> page = new CompletableFuture<Page<T>>();
+
+      PageRead(int pageNumber) {
+        this.pageNumber = pageNumber;
+      }
+
+      @Override
+      public void run() {
+        if (claimed.compareAndSet(false, true)) {
+          try {
+            page.complete(reader.read(pageSize, pageNumber));
+          } catch (Throwable e) {
+            page.completeExceptionally(e);
+          }
+        }
+      }
+
+      Page<T> get() {
+        run();
+        try {
+          return page.join();
+        } catch (CompletionException e) {
+          if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          } else if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+          }
+          throw e;
+        }
+      }
+    }
+  }
+}
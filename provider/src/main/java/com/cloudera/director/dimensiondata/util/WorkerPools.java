@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.util;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Creates the thread pools used to issue MCP requests in the background. Threads are daemons, and
+ * idle threads are released so that providers which are no longer used do not pin threads. Threads
+ * are not bound to any MCP user, since the clients bind the user of their account on every call.
+ */
+public class WorkerPools {
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private WorkerPools() {
+  }
+
+  /**
+   * Creates a pool running at most the specified number of tasks at the same time.
+   *
+   * @param nameFormat the thread name format
+   * @param size       the maximum number of threads
+   * @return the pool
+   */
+  public static ThreadPoolExecutor newBoundedPool(String nameFormat, int size) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), newThreadFactory(nameFormat));
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Creates a single threaded scheduler.
+   *
+   * @param nameFormat the thread name format
+   * @return the scheduler
+   */
+  public static ScheduledThreadPoolExecutor newScheduler(String nameFormat) {
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, newThreadFactory(nameFormat));
+    scheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    scheduler.allowCoreThreadTimeOut(true);
+    return scheduler;
+  }
+
+  private static ThreadFactory newThreadFactory(String nameFormat) {
+    return new ThreadFactoryBuilder()
+        .setNameFormat(nameFormat)
+        .setDaemon(true)
+        .build();
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.junit.Assert.fail;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.http.NotFoundException;
+
+/**
+ * Tests {@link DeletionReaper}.
+ */
+public class DeletionReaperTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File journal;
+  private DimensionDataCredentials credentials;
+
+  /**
+   * Deletions block until released, so that the journal can be inspected while they are pending.
+   */
+  private final CountDownLatch released = new CountDownLatch(1);
+  private final Set<String> deletedServerIds = Collections.synchronizedSet(new HashSet<String>());
+
+  @Before
+  public void setUp() {
+    journal = new File(temporaryFolder.getRoot(), "deletions.journal");
+    credentials = mock(DimensionDataCredentials.class);
+    Cloud compute = mock(Cloud.class, RETURNS_DEEP_STUBS);
+    when(credentials.getCompute()).thenReturn(compute);
+
+    // A server that is not found is gone, so the reaper does not have to wait for it.
+    NotFoundException gone = mock(NotFoundException.class);
+    doAnswer(invocation -> {
+      deletedServerIds.add((String) invocation.getArguments()[0]);
+      released.await(5, TimeUnit.SECONDS);
+      throw gone;
+    }).when(compute.server()).deleteServer(anyString());
+  }
+
+  private DeletionReaper newReaper() {
+    return new DeletionReaper(journal, credentials, mock(OperationPoller.class), 2, 3, 1, 1);
+  }
+
+  private List<String> readJournal() throws IOException {
+    return Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8);
+  }
+
+  private void awaitJournal(String... expected) throws Exception {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (!readJournal().equals(Arrays.asList(expected))) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Expected journal " + Arrays.asList(expected) + " but was " + readJournal());
+      }
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void startsWithoutJournal() {
+    newReaper().start();
+
+    assertThat(journal.exists()).isFalse();
+  }
+
+  @Test
+  public void replaysPendingDeletionsAndCompactsJournal() throws Exception {
+    Files.write(journal.toPath(), Arrays.asList(
+        "PENDING server-1 dc-1",
+        "PENDING server-2 dc-2",
+        "DONE server-1",
+        "PENDING server-3 dc-3",
+        "FAILED server-3 Forbidden",
+        "PENDING server-4 dc-4",
+        "PENDI"), StandardCharsets.UTF_8);
+
+    newReaper().start();
+
+    // The journal is rewritten with the deletions left pending before any of them is resumed.
+    assertThat(readJournal()).containsExactly("PENDING server-2 dc-2", "PENDING server-4 dc-4");
+
+    released.countDown();
+    awaitJournal();
+    assertThat(deletedServerIds).containsOnly("server-2", "server-4");
+  }
+
+  @Test
+  public void recordsDeletionBeforeAcknowledgingIt() throws Exception {
+    DeletionReaper reaper = newReaper();
+    reaper.start();
+    CompletableFuture<Void> deletion = reaper.submit("server-1", "dc-1");
+
+    assertThat(readJournal()).containsExactly("PENDING server-1 dc-1");
+    assertThat(reaper.submit("server-1", "dc-1")).isSameAs(deletion);
+
+    released.countDown();
+    deletion.get(5, TimeUnit.SECONDS);
+    awaitJournal();
+  }
+
+  @Test
+  public void attemptsDeletionsConcurrently() throws Exception {
+    DeletionReaper reaper = newReaper();
+    reaper.start();
+    CompletableFuture<Void> first = reaper.submit("server-1", "dc-1");
+    CompletableFuture<Void> second = reaper.submit("server-2", "dc-1");
+
+    // Both deletions are attempted while the first one is still blocked.
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (deletedServerIds.size() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(deletedServerIds).containsOnly("server-1", "server-2");
+
+    released.countDown();
+    first.get(5, TimeUnit.SECONDS);
+    second.get(5, TimeUnit.SECONDS);
+    awaitJournal();
+  }
+
+  @Test
+  public void resumesReplayedDeletionsAlongsideSubmittedOnes() throws Exception {
+    Files.write(journal.toPath(), Arrays.asList("PENDING server-1 dc-1"), StandardCharsets.UTF_8);
+    DeletionReaper reaper = newReaper();
+    reaper.start();
+    CompletableFuture<Void> deletion = reaper.submit("server-2", "dc-2");
+
+    assertThat(readJournal()).containsExactly("PENDING server-1 dc-1", "PENDING server-2 dc-2");
+
+    released.countDown();
+    deletion.get(5, TimeUnit.SECONDS);
+    // Whichever deletion ends last finds nothing pending and empties the journal.
+    awaitJournal();
+    assertThat(deletedServerIds).containsOnly("server-1", "server-2");
+  }
+}
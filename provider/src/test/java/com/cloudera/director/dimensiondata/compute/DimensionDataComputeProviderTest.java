@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.cloudera.director.spi.v1.model.exception.PluginExceptionCondition;
+import com.cloudera.director.spi.v1.model.exception.PluginExceptionConditionAccumulator;
+
+/**
+ * Tests how {@link DimensionDataComputeProvider} waits for concurrent deletions.
+ */
+public class DimensionDataComputeProviderTest {
+
+  private static List<String> errorsOf(PluginExceptionConditionAccumulator accumulator) {
+    List<String> errors = new ArrayList<String>();
+    for (Collection<PluginExceptionCondition> conditions : accumulator.getConditionsByKey().values()) {
+      for (PluginExceptionCondition condition : conditions) {
+        errors.add(condition.getMessage());
+      }
+    }
+    return errors;
+  }
+
+  @Test
+  public void waitsForEveryDeletion() throws Exception {
+    CompletableFuture<Boolean> first = new CompletableFuture<Boolean>();
+    CompletableFuture<Boolean> second = new CompletableFuture<Boolean>();
+    Map<String, CompletableFuture<Boolean>> deletions = new LinkedHashMap<String, CompletableFuture<Boolean>>();
+    deletions.put("director-1", first);
+    deletions.put("director-2", second);
+
+    // The deletions complete in reverse order, while the caller is already waiting.
+    CompletableFuture.runAsync(() -> {
+      second.complete(true);
+      first.complete(false);
+    });
+    PluginExceptionConditionAccumulator accumulator = new PluginExceptionConditionAccumulator();
+    DimensionDataComputeProvider.awaitDeletions(deletions, accumulator);
+
+    assertThat(first.isDone()).isTrue();
+    assertThat(second.isDone()).isTrue();
+    assertThat(accumulator.hasError()).isFalse();
+  }
+
+  @Test
+  public void reportsEveryFailedDeletion() throws Exception {
+    CompletableFuture<Boolean> timedOut = new CompletableFuture<Boolean>();
+    timedOut.completeExceptionally(new TimeoutException("Exceeded timeout of '1800' seconds."));
+    CompletableFuture<Boolean> forbidden = new CompletableFuture<Boolean>();
+    forbidden.completeExceptionally(new IllegalStateException("Forbidden"));
+    Map<String, CompletableFuture<Boolean>> deletions = new LinkedHashMap<String, CompletableFuture<Boolean>>();
+    deletions.put("director-1", timedOut);
+    deletions.put("director-2", CompletableFuture.completedFuture(true));
+    deletions.put("director-3", forbidden);
+
+    PluginExceptionConditionAccumulator accumulator = new PluginExceptionConditionAccumulator();
+    DimensionDataComputeProvider.awaitDeletions(deletions, accumulator);
+
+    assertThat(errorsOf(accumulator)).containsExactly(
+        "Server 'director-1' was not deleted: Exceeded timeout of '1800' seconds.",
+        "Server 'director-3' was not deleted: Forbidden",
+        "1 of the 3 tear down operations completed successfully.");
+  }
+
+  @Test
+  public void cancelsDeletionsWhenInterrupted() throws Exception {
+    CompletableFuture<Boolean> pending = new CompletableFuture<Boolean>();
+    Map<String, CompletableFuture<Boolean>> deletions = new LinkedHashMap<String, CompletableFuture<Boolean>>();
+    deletions.put("director-1", pending);
+
+    Thread.currentThread().interrupt();
+    try {
+      DimensionDataComputeProvider.awaitDeletions(deletions, new PluginExceptionConditionAccumulator());
+      fail("Expected the wait to be interrupted.");
+    } catch (InterruptedException e) {
+      assertThat(pending.isCancelled()).isTrue();
+    }
+  }
+}
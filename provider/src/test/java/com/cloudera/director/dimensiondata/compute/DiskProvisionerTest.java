@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link DiskProvisioner}.
+ */
+public class DiskProvisionerTest {
+
+  @Test
+  public void mapsDiskTypesToSpeeds() {
+    assertThat(DiskProvisioner.toSpeed("Economy")).isEqualTo("ECONOMY");
+    assertThat(DiskProvisioner.toSpeed("Standard")).isEqualTo("STANDARD");
+    assertThat(DiskProvisioner.toSpeed("High Performance")).isEqualTo("HIGHPERFORMANCE");
+  }
+
+  @Test
+  public void rejectsUnknownDiskTypes() {
+    for (String diskType : new String[] { null, "", "SSD", "high performance", "HIGHPERFORMANCE" }) {
+      try {
+        DiskProvisioner.toSpeed(diskType);
+        fail("Expected disk type '" + diskType + "' to be rejected.");
+      } catch (IllegalArgumentException e) {
+        assertThat(e.getMessage()).matches(".*Economy, Standard, High Performance");
+      }
+    }
+  }
+}
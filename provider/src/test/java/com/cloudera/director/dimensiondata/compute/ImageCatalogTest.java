@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.OrderBy;
+import com.dimensiondata.cloud.client.model.CustomerImages;
+import com.dimensiondata.cloud.client.model.OsImageType;
+import com.dimensiondata.cloud.client.model.OsImages;
+
+/**
+ * Tests the loading and the lookups of {@link ImageCatalog}.
+ */
+public class ImageCatalogTest {
+
+  private static final long LOAD_TIMEOUT_SECONDS = 30;
+
+  private DimensionDataCredentials credentials;
+  private Cloud compute;
+
+  @Before
+  public void setUp() {
+    credentials = mock(DimensionDataCredentials.class);
+    compute = mock(Cloud.class, RETURNS_DEEP_STUBS);
+    when(credentials.getCompute()).thenReturn(compute);
+  }
+
+  private ImageCatalog catalog() {
+    return new ImageCatalog(credentials, 900, 15, LOAD_TIMEOUT_SECONDS, Collections.<String, String>emptyMap());
+  }
+
+  private void listOsImage(String id, String name, String datacenterId) {
+    OsImageType image = new OsImageType();
+    image.setId(id);
+    image.setName(name);
+    image.setDatacenterId(datacenterId);
+    OsImages osImages = new OsImages();
+    osImages.getOsImage().add(image);
+    when(compute.image().listOsImages(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class)))
+        .thenReturn(osImages);
+    when(compute.image().listCustomerImages(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class)))
+        .thenReturn(new CustomerImages());
+  }
+
+  @Test
+  public void imageIsResolvedInItsDatacenter() {
+    listOsImage("image", "RedHat 7 64-bit 2 CPU", "NA9");
+    ImageCatalog catalog = catalog();
+    catalog.refresh();
+
+    assertThat(catalog.resolve("NA9", "image")).isEqualTo("image");
+    assertThat(catalog.resolve("NA9", "RedHat 7 64-bit 2 CPU")).isEqualTo("image");
+    assertThat(catalog.getOtherDatacenterId("NA9", "image")).isNull();
+  }
+
+  @Test
+  public void imageOfOtherDatacenterIsReported() {
+    listOsImage("image", "RedHat 7 64-bit 2 CPU", "NA9");
+    ImageCatalog catalog = catalog();
+    catalog.refresh();
+
+    assertThat(catalog.resolve("NA12", "image")).isNull();
+    assertThat(catalog.getOtherDatacenterId("NA12", "image")).isEqualTo("NA9");
+    assertThat(catalog.getOtherDatacenterId("NA12", "unknown")).isNull();
+  }
+
+  @Test
+  public void failedFirstListingReleasesWaitingLookups() {
+    when(compute.image().listOsImages(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class)))
+        .thenThrow(new RuntimeException("Forbidden"));
+    ImageCatalog catalog = catalog();
+    catalog.start();
+    try {
+      long start = System.nanoTime();
+      assertThat(catalog.awaitLoaded()).isFalse();
+      assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(LOAD_TIMEOUT_SECONDS / 2));
+
+      // Later lookups do not wait at all.
+      start = System.nanoTime();
+      assertThat(catalog.awaitLoaded()).isFalse();
+      assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+    } finally {
+      catalog.shutdown();
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.OrderBy;
+import com.dimensiondata.cloud.client.model.IpRangeCidrType;
+import com.dimensiondata.cloud.client.model.NetworkDomainType;
+import com.dimensiondata.cloud.client.model.NetworkDomains;
+import com.dimensiondata.cloud.client.model.ServerType;
+import com.dimensiondata.cloud.client.model.Servers;
+import com.dimensiondata.cloud.client.model.VlanType;
+import com.dimensiondata.cloud.client.model.Vlans;
+
+/**
+ * Tests the release of unused network resources by {@link NetworkTopologyResolver}.
+ */
+public class NetworkTopologyResolverTest {
+
+  private static final AtomicInteger ACCOUNTS = new AtomicInteger();
+
+  private static final String DATACENTER = "NA9";
+  private static final String NETWORK_DOMAIN_NAME = "cluster";
+  private static final String VLAN_BASE_IPV4 = "10.0.1.0";
+
+  private DimensionDataCredentials credentials;
+  private Cloud compute;
+  private OperationPoller poller;
+
+  @Before
+  public void setUp() {
+    // Resolved topologies and leases are shared per account, so every test uses its own account.
+    credentials = mock(DimensionDataCredentials.class);
+    when(credentials.getAccount()).thenReturn("account-" + ACCOUNTS.incrementAndGet());
+    compute = mock(Cloud.class, RETURNS_DEEP_STUBS);
+    when(credentials.getCompute()).thenReturn(compute);
+    when(compute.server().listServers(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class)))
+        .thenReturn(new Servers());
+
+    poller = mock(OperationPoller.class);
+    when(poller.awaitVlanDeleted(anyString(), anyString(), anyString()))
+        .thenReturn(CompletableFuture.completedFuture(null));
+    when(poller.awaitNetworkDomainDeleted(anyString(), anyString()))
+        .thenReturn(CompletableFuture.completedFuture(null));
+  }
+
+  private NetworkTopologyResolver resolver() {
+    return new NetworkTopologyResolver(credentials, poller, Runnable::run, mock(VlanIndex.class));
+  }
+
+  private static NetworkDomainType networkDomain(String description) {
+    NetworkDomainType networkDomain = new NetworkDomainType();
+    networkDomain.setId("network-domain");
+    networkDomain.setName(NETWORK_DOMAIN_NAME);
+    networkDomain.setDescription(description);
+    networkDomain.setState("NORMAL");
+    return networkDomain;
+  }
+
+  private static VlanType vlan(String name) {
+    VlanType vlan = new VlanType();
+    vlan.setId("vlan");
+    vlan.setName(name);
+    vlan.setState("NORMAL");
+    IpRangeCidrType range = new IpRangeCidrType();
+    range.setAddress(VLAN_BASE_IPV4);
+    range.setPrefixSize(24);
+    vlan.setPrivateIpv4Range(range);
+    return vlan;
+  }
+
+  private void listNetworkDomains(NetworkDomainType networkDomain) {
+    NetworkDomains networkDomains = new NetworkDomains();
+    networkDomains.getNetworkDomain().add(networkDomain);
+    when(compute.networkDomain().listNetworkDomains(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class)))
+        .thenReturn(networkDomains);
+  }
+
+  /**
+   * Lists the specified VLAN once, and no VLAN afterwards, as if it were deleted.
+   */
+  private void listVlanOnce(VlanType vlan) {
+    Vlans vlans = new Vlans();
+    vlans.getVlan().add(vlan);
+    when(compute.vlan().listVlans(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class)))
+        .thenReturn(vlans, new Vlans());
+  }
+
+  private void release() throws Exception {
+    resolver().release(DATACENTER, NETWORK_DOMAIN_NAME, VLAN_BASE_IPV4).get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void deployedResourcesAreReleased() throws Exception {
+    listNetworkDomains(networkDomain(NetworkTopologyResolver.NETWORK_DOMAIN_DESCRIPTION));
+    listVlanOnce(vlan(NETWORK_DOMAIN_NAME + NetworkTopologyResolver.VLAN_NAME_SUFFIX));
+
+    release();
+
+    verify(compute.vlan()).deleteVlan("vlan");
+    verify(compute.networkDomain()).deleteNetworkDomain("network-domain");
+  }
+
+  @Test
+  public void networkDomainOfCustomerIsKept() throws Exception {
+    listNetworkDomains(networkDomain("Production network"));
+    listVlanOnce(vlan(NETWORK_DOMAIN_NAME + NetworkTopologyResolver.VLAN_NAME_SUFFIX));
+
+    release();
+
+    verify(compute.vlan()).deleteVlan("vlan");
+    verify(compute.networkDomain(), never()).deleteNetworkDomain(anyString());
+  }
+
+  @Test
+  public void vlanOfCustomerIsKept() throws Exception {
+    listNetworkDomains(networkDomain(NetworkTopologyResolver.NETWORK_DOMAIN_DESCRIPTION));
+    Vlans vlans = new Vlans();
+    vlans.getVlan().add(vlan("Backend"));
+    when(compute.vlan().listVlans(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class))).thenReturn(vlans);
+
+    release();
+
+    verify(compute.vlan(), never()).deleteVlan(anyString());
+    verify(compute.networkDomain(), never()).deleteNetworkDomain(anyString());
+  }
+
+  @Test
+  public void vlanWithServersIsKept() throws Exception {
+    listNetworkDomains(networkDomain(NetworkTopologyResolver.NETWORK_DOMAIN_DESCRIPTION));
+    listVlanOnce(vlan(NETWORK_DOMAIN_NAME + NetworkTopologyResolver.VLAN_NAME_SUFFIX));
+    Servers servers = new Servers();
+    servers.getServer().add(new ServerType());
+    when(compute.server().listServers(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class)))
+        .thenReturn(servers);
+
+    release();
+
+    verify(compute.vlan(), never()).deleteVlan(anyString());
+    verify(compute.networkDomain(), never()).deleteNetworkDomain(anyString());
+  }
+
+  @Test
+  public void leasedNetworkDomainIsKept() throws Exception {
+    listNetworkDomains(networkDomain(NetworkTopologyResolver.NETWORK_DOMAIN_DESCRIPTION));
+    listVlanOnce(vlan(NETWORK_DOMAIN_NAME + NetworkTopologyResolver.VLAN_NAME_SUFFIX));
+    resolver().lease(DATACENTER, NETWORK_DOMAIN_NAME).get(5, TimeUnit.SECONDS);
+
+    release();
+
+    verify(compute.vlan(), never()).deleteVlan(anyString());
+    verify(compute.networkDomain(), never()).deleteNetworkDomain(anyString());
+  }
+
+  @Test
+  public void releaseForgetsTopologyOfEveryResolver() throws Exception {
+    NetworkDomainType networkDomain = networkDomain("Production network");
+    listNetworkDomains(networkDomain);
+    Vlans vlans = new Vlans();
+    vlans.getVlan().add(vlan("Backend"));
+    when(compute.vlan().listVlans(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class))).thenReturn(vlans);
+
+    NetworkTopologyResolver resolver = resolver();
+    resolver.resolve(DATACENTER, NETWORK_DOMAIN_NAME, "ADVANCED", VLAN_BASE_IPV4).get(5, TimeUnit.SECONDS);
+    resolver().resolve(DATACENTER, NETWORK_DOMAIN_NAME, "ADVANCED", VLAN_BASE_IPV4).get(5, TimeUnit.SECONDS);
+    verify(compute.networkDomain(), times(1))
+        .listNetworkDomains(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class));
+
+    // Released by another provider of the account.
+    release();
+    resolver.resolve(DATACENTER, NETWORK_DOMAIN_NAME, "ADVANCED", VLAN_BASE_IPV4).get(5, TimeUnit.SECONDS);
+
+    // Once by the release, and once by the resolution following it.
+    verify(compute.networkDomain(), times(3))
+        .listNetworkDomains(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class));
+  }
+}
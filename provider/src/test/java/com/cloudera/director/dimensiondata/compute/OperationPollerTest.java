@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.dimensiondata.cloud.client.ClientRuntimeException;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.OrderBy;
+import com.dimensiondata.cloud.client.http.ForbiddenException;
+import com.dimensiondata.cloud.client.model.ServerType;
+import com.dimensiondata.cloud.client.model.Servers;
+
+/**
+ * Tests {@link OperationPoller}.
+ */
+public class OperationPollerTest {
+
+  /**
+   * Polls are due right away, so that every tick of the poller lists the pending servers.
+   */
+  private static final PollingProfile.Settings SETTINGS = new PollingProfile.Settings(60, 10, 3, 0, 10, 90, 0, 0);
+
+  private DimensionDataCredentials credentials;
+
+  /**
+   * The listings answered, in order, the last one for every listing after it.
+   */
+  private final ConcurrentLinkedQueue<Supplier<List<ServerType>>> listings =
+      new ConcurrentLinkedQueue<Supplier<List<ServerType>>>();
+  private final AtomicInteger listingCount = new AtomicInteger();
+
+  @Before
+  public void setUp() {
+    credentials = mock(DimensionDataCredentials.class);
+    Cloud compute = mock(Cloud.class, RETURNS_DEEP_STUBS);
+    when(credentials.getCompute()).thenReturn(compute);
+    doAnswer(invocation -> {
+      listingCount.incrementAndGet();
+      Supplier<List<ServerType>> listing = listings.size() > 1 ? listings.poll() : listings.peek();
+      Servers servers = new Servers();
+      servers.getServer().addAll(listing.get());
+      return servers;
+    }).when(compute.server()).listServers(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class));
+  }
+
+  private OperationPoller newPoller(PollingProfile.Settings settings) {
+    return new OperationPoller(credentials, resourceType -> settings);
+  }
+
+  @SafeVarargs
+  private final void answer(Supplier<List<ServerType>>... answers) {
+    listings.addAll(Arrays.asList(answers));
+  }
+
+  private static Supplier<List<ServerType>> servers(ServerType... servers) {
+    return () -> Arrays.asList(servers);
+  }
+
+  private static ServerType server(String id, String state) {
+    ServerType server = new ServerType();
+    server.setId(id);
+    server.setState(state);
+    return server;
+  }
+
+  private static ServerType server(String id, String state, boolean started) {
+    ServerType server = server(id, state);
+    server.setStarted(started);
+    return server;
+  }
+
+  private static Throwable failureOf(Future<?> future) throws Exception {
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("Expected the operation to fail.");
+      return null;
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+  }
+
+  @Test
+  public void pollsServersOfNetworkDomainWithOneListing() throws Exception {
+    answer(servers(server("server-1", "NORMAL"), server("server-2", "NORMAL"), server("server-3", "PENDING_ADD")));
+    OperationPoller poller = newPoller(SETTINGS);
+
+    CompletableFuture<ServerType> first = poller.awaitServer("server-1", "nd-1", "dc-1");
+    CompletableFuture<ServerType> second = poller.awaitServer("server-2", "nd-1", "dc-1");
+
+    assertThat(first.get(5, TimeUnit.SECONDS).getId()).isEqualTo("server-1");
+    assertThat(second.get(5, TimeUnit.SECONDS).getId()).isEqualTo("server-2");
+    assertThat(listingCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void listsEachNetworkDomainOnItsOwn() throws Exception {
+    answer(servers(server("server-1", "NORMAL"), server("server-2", "NORMAL")));
+    OperationPoller poller = newPoller(SETTINGS);
+
+    CompletableFuture.allOf(poller.awaitServer("server-1", "nd-1", "dc-1"),
+        poller.awaitServer("server-2", "nd-2", "dc-1")).get(5, TimeUnit.SECONDS);
+
+    assertThat(listingCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void pollsUntilServerIsNormal() throws Exception {
+    answer(servers(server("server-1", "PENDING_ADD")), servers(server("server-1", "NORMAL")));
+    OperationPoller poller = newPoller(SETTINGS);
+
+    assertThat(poller.awaitServer("server-1", "nd-1", "dc-1").get(5, TimeUnit.SECONDS).getState())
+        .isEqualTo("NORMAL");
+    assertThat(listingCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void pollsUntilServerIsStarted() throws Exception {
+    // Seen NORMAL and stopped before MCP reports the start.
+    answer(servers(server("server-1", "NORMAL", false)), servers(server("server-1", "PENDING_CHANGE", false)),
+        servers(server("server-1", "NORMAL", true)));
+    OperationPoller poller = newPoller(SETTINGS);
+
+    assertThat(poller.awaitServer("server-1", "nd-1", "dc-1", true).get(5, TimeUnit.SECONDS).isStarted()).isTrue();
+    assertThat(listingCount.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void pollsUntilServerIsStopped() throws Exception {
+    answer(servers(server("server-1", "NORMAL", true)), servers(server("server-1", "NORMAL", false)));
+    OperationPoller poller = newPoller(SETTINGS);
+
+    assertThat(poller.awaitServer("server-1", "nd-1", "dc-1", false).get(5, TimeUnit.SECONDS).isStarted()).isFalse();
+    assertThat(listingCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void failsServerInFailedState() throws Exception {
+    answer(servers(server("server-1", "FAILED_ADD"), server("server-2", "NORMAL")));
+    OperationPoller poller = newPoller(SETTINGS);
+
+    CompletableFuture<ServerType> failed = poller.awaitServer("server-1", "nd-1", "dc-1");
+    CompletableFuture<ServerType> normal = poller.awaitServer("server-2", "nd-1", "dc-1");
+
+    Throwable failure = failureOf(failed);
+    assertThat(failure instanceof ClientRuntimeException).isTrue();
+    assertThat(failure.getMessage()).isEqualTo("Server 'server-1' entered state FAILED_ADD.");
+    assertThat(normal.get(5, TimeUnit.SECONDS).getId()).isEqualTo("server-2");
+  }
+
+  @Test
+  public void failsEveryServerOfNetworkDomainWhenForbidden() throws Exception {
+    ForbiddenException forbidden = mock(ForbiddenException.class);
+    answer(() -> {
+      throw forbidden;
+    });
+    OperationPoller poller = newPoller(SETTINGS);
+
+    CompletableFuture<ServerType> first = poller.awaitServer("server-1", "nd-1", "dc-1");
+    CompletableFuture<ServerType> second = poller.awaitServer("server-2", "nd-1", "dc-1");
+
+    assertThat(failureOf(first)).isSameAs(forbidden);
+    assertThat(failureOf(second)).isSameAs(forbidden);
+    assertThat(listingCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void retriesListingAfterTransientFailure() throws Exception {
+    answer(() -> {
+      throw new ClientRuntimeException("Service unavailable");
+    }, servers(server("server-1", "NORMAL")));
+    OperationPoller poller = newPoller(SETTINGS);
+
+    assertThat(poller.awaitServer("server-1", "nd-1", "dc-1").get(5, TimeUnit.SECONDS).getId())
+        .isEqualTo("server-1");
+    assertThat(listingCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void timesOutServerThatStaysPending() throws Exception {
+    answer(servers(server("server-1", "PENDING_ADD")));
+    OperationPoller poller = newPoller(new PollingProfile.Settings(1, 10, 3, 0, 10, 90, 0, 0));
+
+    assertThat(failureOf(poller.awaitServer("server-1", "nd-1", "dc-1")) instanceof TimeoutException).isTrue();
+  }
+
+  @Test
+  public void tracksDeletionsOfDatacenterWithOneListing() throws Exception {
+    answer(servers(server("server-2", "PENDING_DELETE")), servers());
+    OperationPoller poller = newPoller(SETTINGS);
+
+    CompletableFuture<ServerType> first = poller.awaitServerDeleted("server-1", "dc-1");
+    CompletableFuture<ServerType> second = poller.awaitServerDeleted("server-2", "dc-1");
+
+    // The first server is gone at the first listing, the second one at the next.
+    assertThat(first.get(5, TimeUnit.SECONDS)).isNull();
+    assertThat(listingCount.get()).isEqualTo(1);
+    assertThat(second.get(5, TimeUnit.SECONDS)).isNull();
+    assertThat(listingCount.get()).isEqualTo(2);
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.DATACENTER;
+import static com.cloudera.director.spi.v1.model.InstanceTemplate.InstanceTemplateConfigurationPropertyToken.INSTANCE_NAME_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.cloudera.director.dimensiondata.compute.DiskProvisioner.DataDisks;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.Claim;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.PendingDeployment;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.ServerDeployment;
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.cloudera.director.spi.v1.model.util.DefaultLocalizationContext;
+import com.cloudera.director.spi.v1.model.util.SimpleConfiguration;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.OrderBy;
+import com.dimensiondata.cloud.client.model.EditServerMetadataType;
+import com.dimensiondata.cloud.client.model.ServerType;
+import com.dimensiondata.cloud.client.model.Servers;
+
+/**
+ * Tests the parking, the adoption and the claims of {@link ParkedServerPool}.
+ */
+public class ParkedServerPoolTest {
+
+  private static final DefaultLocalizationContext DEFAULT_LOCALIZATION_CONTEXT =
+      new DefaultLocalizationContext(Locale.getDefault(), "");
+
+  private static final String NETWORK_DOMAIN_ID = "network-domain";
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+  private Cloud compute;
+  private OperationPoller poller;
+  private ServerDeploymentEngine deploymentEngine;
+  private ParkedServerPool pool;
+  private TemplatePlan plan;
+
+  @Before
+  public void setUp() {
+    DimensionDataCredentials credentials = mock(DimensionDataCredentials.class);
+    compute = mock(Cloud.class, RETURNS_DEEP_STUBS);
+    when(credentials.getCompute()).thenReturn(compute);
+    poller = mock(OperationPoller.class);
+    deploymentEngine = mock(ServerDeploymentEngine.class);
+    when(deploymentEngine.resume(anyString(), anyString(), anyString(), anyString(), any(DataDisks.class)))
+        .thenAnswer(invocation -> new PendingDeployment((String) invocation.getArguments()[0],
+            new CompletableFuture<ServerDeployment>(), new CompletableFuture<ServerDeployment>()));
+    listServers();
+
+    pool = new ParkedServerPool(credentials, poller, executor, true);
+
+    Map<String, String> templateConfig = new HashMap<String, String>();
+    templateConfig.put(INSTANCE_NAME_PREFIX.unwrap().getConfigKey(), "director");
+    templateConfig.put(DATACENTER.unwrap().getConfigKey(), "NA9");
+    DimensionDataComputeInstanceTemplate template = new DimensionDataComputeInstanceTemplate("master",
+        new SimpleConfiguration(templateConfig), new HashMap<String, String>(), DEFAULT_LOCALIZATION_CONTEXT);
+    plan = TemplatePlan.compile(template, DEFAULT_LOCALIZATION_CONTEXT, new FingerprintKey(new byte[32]));
+  }
+
+  @After
+  public void shutdownExecutor() {
+    executor.shutdownNow();
+  }
+
+  private static ServerType server(String id, String name, boolean started) {
+    ServerType server = mock(ServerType.class, RETURNS_DEEP_STUBS);
+    when(server.getId()).thenReturn(id);
+    when(server.getName()).thenReturn(name);
+    when(server.getState()).thenReturn("NORMAL");
+    when(server.isStarted()).thenReturn(started);
+    when(server.getNetworkInfo().getNetworkDomainId()).thenReturn(NETWORK_DOMAIN_ID);
+    return server;
+  }
+
+  /**
+   * Lists the specified servers as the servers parked by a previous run.
+   */
+  private void listServers(ServerType... servers) {
+    Servers page = new Servers();
+    page.getServer().addAll(Arrays.asList(servers));
+    when(compute.server().listServers(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class))).thenReturn(page);
+  }
+
+  private static CompletableFuture<ServerType> completed(ServerType server) {
+    return CompletableFuture.completedFuture(server);
+  }
+
+  /**
+   * A server that did not reach the expected state within the polling timeout.
+   */
+  private static CompletableFuture<ServerType> timedOut() {
+    CompletableFuture<ServerType> future = new CompletableFuture<ServerType>();
+    future.completeExceptionally(new TimeoutException("Exceeded timeout"));
+    return future;
+  }
+
+  /**
+   * Parks the specified running server and returns the name it was parked with.
+   */
+  private String park(String serverId) throws Exception {
+    pool.park(serverId, plan).get(5, TimeUnit.SECONDS);
+    ArgumentCaptor<EditServerMetadataType> metadata = ArgumentCaptor.forClass(EditServerMetadataType.class);
+    verify(compute.server()).editServerMetadata(metadata.capture());
+    assertThat(metadata.getValue().getId()).isEqualTo(serverId);
+    return metadata.getValue().getName();
+  }
+
+  private PendingDeployment claim(String instanceId) {
+    return pool.claim(instanceId, plan, deploymentEngine);
+  }
+
+  @Test
+  public void parkShutsServerDownAndRenamesIt() throws Exception {
+    ServerType running = server("server", "director-1", true);
+    ServerType stopped = server("server", "director-1", false);
+    when(compute.server().getServer("server")).thenReturn(running);
+    when(poller.awaitServer("server", NETWORK_DOMAIN_ID, "NA9", false)).thenReturn(completed(stopped));
+
+    String name = park("server");
+
+    assertThat(name).startsWith(ParkedServerPool.NAME_PREFIX + plan.getFingerprint() + "-");
+    verify(compute.server()).shutdownServer("server");
+    verify(compute.server(), never()).powerOffServer(anyString());
+  }
+
+  @Test
+  public void parkPowersOffServerNotStoppedByShutdown() throws Exception {
+    ServerType running = server("server", "director-1", true);
+    ServerType stopped = server("server", "director-1", false);
+    when(compute.server().getServer("server")).thenReturn(running);
+    when(poller.awaitServer("server", NETWORK_DOMAIN_ID, "NA9", false)).thenReturn(timedOut(), completed(stopped));
+
+    park("server");
+
+    verify(compute.server()).shutdownServer("server");
+    verify(compute.server()).powerOffServer("server");
+  }
+
+  @Test
+  public void parkPowersOffServerThatFailedToShutDown() throws Exception {
+    ServerType running = server("server", "director-1", true);
+    ServerType stopped = server("server", "director-1", false);
+    when(compute.server().getServer("server")).thenReturn(running);
+    when(compute.server().shutdownServer("server")).thenThrow(new RuntimeException("Guest tools missing"));
+    when(poller.awaitServer("server", NETWORK_DOMAIN_ID, "NA9", false)).thenReturn(completed(stopped));
+
+    park("server");
+
+    verify(compute.server()).powerOffServer("server");
+  }
+
+  @Test
+  public void serverNotStoppedByPowerOffIsNotParked() throws Exception {
+    ServerType running = server("server", "director-1", true);
+    when(compute.server().getServer("server")).thenReturn(running);
+    when(poller.awaitServer("server", NETWORK_DOMAIN_ID, "NA9", false)).thenReturn(timedOut());
+
+    try {
+      pool.park("server", plan).get(5, TimeUnit.SECONDS);
+      fail("A running server was parked.");
+    } catch (ExecutionException e) {
+      assertThat(OperationPoller.unwrap(e)).isInstanceOf(TimeoutException.class);
+    }
+    verify(compute.server()).powerOffServer("server");
+    verify(compute.server(), never()).editServerMetadata(any(EditServerMetadataType.class));
+  }
+
+  @Test
+  public void adoptionSkipsStartedServers() {
+    String prefix = ParkedServerPool.NAME_PREFIX + plan.getFingerprint() + "-";
+    listServers(server("running", prefix + "running", true), server("stopped", prefix + "stopped", false));
+    when(deploymentEngine.claim(anyString(), anyString(), anyString())).thenReturn(Claim.CLAIMED);
+
+    assertThat(claim("1")).isNotNull();
+
+    verify(deploymentEngine).claim("stopped", prefix + "stopped", "director-1");
+    verify(deploymentEngine, never()).claim(eq("running"), anyString(), anyString());
+    verify(deploymentEngine).resume("1", "stopped", NETWORK_DOMAIN_ID, "NA9", DataDisks.NONE);
+    assertThat(claim("2")).isNull();
+  }
+
+  @Test
+  public void serverParkedBeforeAdoptionIsOfferedOnce() throws Exception {
+    ServerType stopped = server("server", "director-1", false);
+    when(compute.server().getServer("server")).thenReturn(stopped);
+    String name = park("server");
+    // The first claim adopts the servers of previous runs, whose listing includes the server parked by this run.
+    listServers(server("server", name, false));
+    when(deploymentEngine.claim(anyString(), anyString(), anyString())).thenReturn(Claim.UNAVAILABLE);
+
+    assertThat(claim("1")).isNull();
+
+    verify(deploymentEngine, times(1)).claim("server", name, "director-1");
+  }
+
+  @Test
+  public void returnedServerIsOfferedAgain() throws Exception {
+    ServerType stopped = server("server", "director-1", false);
+    when(compute.server().getServer("server")).thenReturn(stopped);
+    String name = park("server");
+    when(deploymentEngine.claim(anyString(), anyString(), anyString())).thenReturn(Claim.RETURNED, Claim.CLAIMED);
+
+    assertThat(claim("2")).isNull();
+    assertThat(claim("3")).isNotNull();
+
+    verify(deploymentEngine).claim("server", name, "director-3");
+    verify(deploymentEngine).resume("3", "server", NETWORK_DOMAIN_ID, "NA9", DataDisks.NONE);
+  }
+}
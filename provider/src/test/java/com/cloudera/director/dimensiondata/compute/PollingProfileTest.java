@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link PollingProfile}.
+ */
+public class PollingProfileTest {
+
+  private static final long INITIAL_INTERVAL_MILLIS = 1000;
+  private static final long DENSE_INTERVAL_MILLIS = 500;
+  private static final long MAX_INTERVAL_MILLIS = 8000;
+
+  private static PollingProfile newProfile() {
+    // 10 samples kept, learned after 3, first poll at the 10th and dense polling up to the 90th percentile.
+    return new PollingProfile(new PollingProfile.Settings(60, 10, 3, INITIAL_INTERVAL_MILLIS, 10, 90,
+        DENSE_INTERVAL_MILLIS, MAX_INTERVAL_MILLIS));
+  }
+
+  @Test
+  public void backsOffFromInitialIntervalUntilLearned() {
+    PollingProfile profile = newProfile();
+    profile.record(10000);
+    profile.record(20000);
+
+    assertThat(profile.firstPollDelay()).isEqualTo(INITIAL_INTERVAL_MILLIS);
+    assertThat(profile.nextPollDelay(1000, 1000)).isEqualTo(1618);
+    assertThat(profile.nextPollDelay(60000, 6000)).isEqualTo(MAX_INTERVAL_MILLIS);
+  }
+
+  @Test
+  public void schedulesPollsFromPercentilesOnceLearned() {
+    PollingProfile profile = newProfile();
+    for (int i = 1; i <= 10; i++) {
+      profile.record(i * 10000);
+    }
+
+    // The 10th percentile of 10s..100s is 10s and the 90th is 90s.
+    assertThat(profile.firstPollDelay()).isEqualTo(10000);
+    assertThat(profile.nextPollDelay(2000, 10000)).isEqualTo(8000);
+    assertThat(profile.nextPollDelay(9800, 8000)).isEqualTo(DENSE_INTERVAL_MILLIS);
+    assertThat(profile.nextPollDelay(50000, DENSE_INTERVAL_MILLIS)).isEqualTo(DENSE_INTERVAL_MILLIS);
+    assertThat(profile.nextPollDelay(90000, DENSE_INTERVAL_MILLIS)).isEqualTo(DENSE_INTERVAL_MILLIS);
+
+    // Past the dense window, polling backs off from the dense interval.
+    assertThat(profile.nextPollDelay(95000, DENSE_INTERVAL_MILLIS)).isEqualTo(809);
+    assertThat(profile.nextPollDelay(120000, 6000)).isEqualTo(MAX_INTERVAL_MILLIS);
+  }
+
+  @Test
+  public void firstPollIsNeverSoonerThanDenseInterval() {
+    PollingProfile profile = newProfile();
+    for (int i = 0; i < 3; i++) {
+      profile.record(100);
+    }
+
+    assertThat(profile.firstPollDelay()).isEqualTo(DENSE_INTERVAL_MILLIS);
+  }
+
+  @Test
+  public void forgetsOldestCompletionTimes() {
+    PollingProfile profile = newProfile();
+    for (int i = 1; i <= 10; i++) {
+      profile.record(i * 1000);
+    }
+    for (int i = 0; i < 5; i++) {
+      profile.record(100000);
+    }
+
+    // 1s..5s have been overwritten, leaving 6s..10s and five times 100s.
+    assertThat(profile.firstPollDelay()).isEqualTo(6000);
+    assertThat(profile.nextPollDelay(99000, DENSE_INTERVAL_MILLIS)).isEqualTo(DENSE_INTERVAL_MILLIS);
+  }
+
+  @Test
+  public void minSamplesAreCappedAtHistorySize() {
+    PollingProfile profile = new PollingProfile(new PollingProfile.Settings(60, 2, 5, INITIAL_INTERVAL_MILLIS, 50,
+        50, DENSE_INTERVAL_MILLIS, MAX_INTERVAL_MILLIS));
+    profile.record(4000);
+    profile.record(2000);
+
+    assertThat(profile.firstPollDelay()).isEqualTo(2000);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsFirstPollPercentileAboveDensePollPercentile() {
+    new PollingProfile.Settings(60, 10, 3, INITIAL_INTERVAL_MILLIS, 95, 90, DENSE_INTERVAL_MILLIS,
+        MAX_INTERVAL_MILLIS);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEmptyHistory() {
+    new PollingProfile.Settings(60, 0, 3, INITIAL_INTERVAL_MILLIS, 10, 90, DENSE_INTERVAL_MILLIS,
+        MAX_INTERVAL_MILLIS);
+  }
+}
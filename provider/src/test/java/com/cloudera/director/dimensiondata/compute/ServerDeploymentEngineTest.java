@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.director.dimensiondata.compute.DiskProvisioner.DataDisks;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.PendingDeployment;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.ServerDeployment;
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.model.ServerType;
+
+/**
+ * Tests the early completion and the background handling of deployments by
+ * {@link ServerDeploymentEngine}.
+ */
+public class ServerDeploymentEngineTest {
+
+  private static final int STRAGGLER_TIMEOUT_SECONDS = 1;
+
+  private final BlockingQueue<String> deletedServerIds = new LinkedBlockingQueue<String>();
+  private OperationPoller poller;
+  private ServerDeploymentEngine engine;
+
+  @Before
+  public void setUp() {
+    DimensionDataCredentials credentials = mock(DimensionDataCredentials.class);
+    Cloud compute = mock(Cloud.class, RETURNS_DEEP_STUBS);
+    when(credentials.getCompute()).thenReturn(compute);
+    doAnswer(invocation -> {
+      deletedServerIds.add((String) invocation.getArguments()[0]);
+      return null;
+    }).when(compute.server()).deleteServer(anyString());
+
+    poller = mock(OperationPoller.class);
+    engine = new ServerDeploymentEngine(credentials, poller, Runnable::run, STRAGGLER_TIMEOUT_SECONDS);
+  }
+
+  /**
+   * A deployment whose submission and outcome are completed by the test.
+   */
+  private static PendingDeployment pending(String instanceId) {
+    return new PendingDeployment(instanceId, new CompletableFuture<ServerDeployment>(),
+        new CompletableFuture<ServerDeployment>());
+  }
+
+  private static List<PendingDeployment> pending(int count) {
+    List<PendingDeployment> deployments = new ArrayList<PendingDeployment>();
+    for (int i = 1; i <= count; i++) {
+      deployments.add(pending("instance-" + i));
+    }
+    return deployments;
+  }
+
+  private static ServerDeployment submitted(PendingDeployment deployment) {
+    ServerDeployment submitted = new ServerDeployment(deployment.getInstanceId(), null,
+        "server-" + deployment.getInstanceId(), null);
+    deployment.getSubmission().complete(submitted);
+    return submitted;
+  }
+
+  private static void succeed(PendingDeployment deployment) {
+    deployment.getOutcome().complete(submitted(deployment));
+  }
+
+  private static void fail(PendingDeployment deployment) {
+    deployment.getOutcome().complete(submitted(deployment).failed("FAILED_ADD"));
+  }
+
+  @Test
+  public void resumedServerSucceedsOnceStarted() {
+    CompletableFuture<ServerType> started = new CompletableFuture<ServerType>();
+    when(poller.awaitServer("server-1", "nd-1", "dc-1", true)).thenReturn(started);
+
+    PendingDeployment deployment = engine.resume("instance-1", "server-1", "nd-1", "dc-1", DataDisks.NONE);
+    assertThat(deployment.getSubmission().join().isSuccessful()).isTrue();
+    assertThat(deployment.getOutcome().isDone()).isFalse();
+
+    started.complete(new ServerType());
+    assertThat(deployment.getOutcome().join().isSuccessful()).isTrue();
+    verify(poller, never()).awaitServer(anyString(), anyString(), anyString());
+  }
+
+  @Test
+  public void quorumCompletesOnceMinCountSucceeded() {
+    List<PendingDeployment> deployments = pending(3);
+    CompletableFuture<Void> quorum = ServerDeploymentEngine.awaitQuorum(deployments, 2);
+
+    succeed(deployments.get(0));
+    fail(deployments.get(1));
+    assertThat(quorum.isDone()).isFalse();
+
+    succeed(deployments.get(2));
+    assertThat(quorum.isDone()).isTrue();
+  }
+
+  @Test
+  public void quorumCompletesOnceMinCountIsOutOfReach() {
+    List<PendingDeployment> deployments = pending(3);
+    CompletableFuture<Void> quorum = ServerDeploymentEngine.awaitQuorum(deployments, 2);
+
+    fail(deployments.get(0));
+    assertThat(quorum.isDone()).isFalse();
+
+    fail(deployments.get(1));
+    assertThat(quorum.isDone()).isTrue();
+  }
+
+  @Test
+  public void quorumWithoutMinCountWaitsForEveryOutcome() {
+    List<PendingDeployment> deployments = pending(2);
+    CompletableFuture<Void> quorum = ServerDeploymentEngine.awaitQuorum(deployments, 0);
+
+    succeed(deployments.get(0));
+    assertThat(quorum.isDone()).isFalse();
+
+    fail(deployments.get(1));
+    assertThat(quorum.isDone()).isTrue();
+  }
+
+  @Test
+  public void quorumAboveBatchSizeWaitsForEverySuccess() {
+    List<PendingDeployment> deployments = pending(2);
+    CompletableFuture<Void> quorum = ServerDeploymentEngine.awaitQuorum(deployments, 5);
+
+    succeed(deployments.get(0));
+    assertThat(quorum.isDone()).isFalse();
+
+    succeed(deployments.get(1));
+    assertThat(quorum.isDone()).isTrue();
+  }
+
+  @Test
+  public void quorumOfEmptyBatchIsReached() {
+    assertThat(ServerDeploymentEngine.awaitQuorum(Collections.<PendingDeployment>emptyList(), 1).isDone())
+        .isTrue();
+  }
+
+  @Test
+  public void failedStragglerIsDeleted() throws Exception {
+    PendingDeployment straggler = pending("instance-1");
+    engine.finishInBackground(Arrays.asList(straggler));
+
+    fail(straggler);
+
+    assertThat(deletedServerIds.poll(5, TimeUnit.SECONDS)).isEqualTo("server-instance-1");
+  }
+
+  @Test
+  public void stragglerCompletingInTimeIsKept() throws Exception {
+    PendingDeployment straggler = pending("instance-1");
+    engine.finishInBackground(Arrays.asList(straggler));
+
+    succeed(straggler);
+
+    assertThat(deletedServerIds.poll(STRAGGLER_TIMEOUT_SECONDS * 2, TimeUnit.SECONDS)).isNull();
+  }
+
+  @Test
+  public void stragglerIsDeletedOnceTimedOut() throws Exception {
+    PendingDeployment straggler = pending("instance-1");
+    submitted(straggler);
+    engine.finishInBackground(Arrays.asList(straggler));
+
+    assertThat(deletedServerIds.poll(5, TimeUnit.SECONDS)).isEqualTo("server-instance-1");
+
+    // Completing after the timeout does not delete the server again.
+    succeed(straggler);
+    assertThat(deletedServerIds.poll(100, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  @Test
+  public void discardWaitsForServerToBeKnown() throws Exception {
+    PendingDeployment deployment = pending("instance-1");
+    engine.discard(deployment);
+    assertThat(deletedServerIds.isEmpty()).isTrue();
+
+    submitted(deployment);
+
+    assertThat(deletedServerIds.poll(5, TimeUnit.SECONDS)).isEqualTo("server-instance-1");
+  }
+
+  @Test
+  public void discardWithoutServerDeletesNothing() {
+    PendingDeployment deployment = pending("instance-1");
+    deployment.getSubmission().complete(new ServerDeployment("instance-1", null, null, "Forbidden"));
+    engine.discard(deployment);
+
+    assertThat(deletedServerIds.isEmpty()).isTrue();
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.OrderBy;
+import com.dimensiondata.cloud.client.model.ServerType;
+import com.dimensiondata.cloud.client.model.Servers;
+
+/**
+ * Tests the indexes of {@link ServerInventory} and how it orders listings and observations.
+ */
+public class ServerInventoryTest {
+
+  private Cloud compute;
+  private ServerInventory inventory;
+
+  @Before
+  public void setUp() {
+    DimensionDataCredentials credentials = mock(DimensionDataCredentials.class);
+    compute = mock(Cloud.class, RETURNS_DEEP_STUBS);
+    when(credentials.getCompute()).thenReturn(compute);
+    inventory = new ServerInventory(credentials, 0);
+  }
+
+  private static ServerType server(String id, String name) {
+    ServerType server = new ServerType();
+    server.setId(id);
+    server.setName(name);
+    return server;
+  }
+
+  private static ServerType server(String id, String name, String privateIpv4) {
+    ServerType server = mock(ServerType.class, RETURNS_DEEP_STUBS);
+    when(server.getId()).thenReturn(id);
+    when(server.getName()).thenReturn(name);
+    when(server.getNic().getPrivateIpv4()).thenReturn(privateIpv4);
+    return server;
+  }
+
+  private static Servers page(ServerType... servers) {
+    Servers page = new Servers();
+    for (ServerType server : servers) {
+      page.getServer().add(server);
+    }
+    return page;
+  }
+
+  /**
+   * Lists the specified page, after recording the specified server as if it were observed while
+   * the listing is in flight.
+   */
+  private void listDuringObservation(ServerType observed, Servers page) {
+    when(compute.server().listServers(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class)))
+        .thenAnswer(invocation -> {
+          inventory.record(observed);
+          return page;
+        });
+  }
+
+  @Test
+  public void listedServersAreIndexed() {
+    when(compute.server().listServers(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class)))
+        .thenReturn(page(server("server-1", "director-1")));
+
+    inventory.refresh();
+
+    assertThat(inventory.findIdByName("director-1")).isEqualTo("server-1");
+  }
+
+  @Test
+  public void serversAreIndexedByIdAndPrivateIpv4() {
+    ServerType server = server("server-1", "director-1", "10.0.0.5");
+
+    inventory.record(server);
+
+    assertThat(inventory.findById("server-1")).isSameAs(server);
+    assertThat(inventory.findIdByPrivateIpv4("10.0.0.5")).isEqualTo("server-1");
+  }
+
+  @Test
+  public void serversMissingFromListingAreRemoved() {
+    inventory.record(server("server-1", "director-1"));
+    when(compute.server().listServers(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class)))
+        .thenReturn(page());
+
+    inventory.refresh();
+
+    assertThat(inventory.findIdByName("director-1")).isNull();
+  }
+
+  @Test
+  public void serverObservedDuringListingIsKept() {
+    listDuringObservation(server("server-2", "director-2"), page(server("server-1", "director-1")));
+
+    inventory.refresh();
+
+    assertThat(inventory.findIdByName("director-1")).isEqualTo("server-1");
+    assertThat(inventory.findIdByName("director-2")).isEqualTo("server-2");
+  }
+
+  @Test
+  public void listingDoesNotOverwriteNewerObservation() {
+    inventory.record(server("server-1", "director-1"));
+    // Renamed while the listing that still shows the old name is in flight.
+    listDuringObservation(server("server-1", "standby-1"), page(server("server-1", "director-1")));
+
+    inventory.refresh();
+
+    assertThat(inventory.findIdByName("standby-1")).isEqualTo("server-1");
+    assertThat(inventory.findIdByName("director-1")).isNull();
+  }
+
+  @Test
+  public void renamedServerIsReindexed() {
+    inventory.record(server("server-1", "director-1"));
+    inventory.record(server("server-1", "standby-1"));
+
+    assertThat(inventory.findIdByName("standby-1")).isEqualTo("server-1");
+    assertThat(inventory.findIdByName("director-1")).isNull();
+  }
+
+  @Test
+  public void forgottenServerIsRemoved() {
+    inventory.record(server("server-1", "director-1"));
+
+    inventory.forget("server-1");
+
+    assertThat(inventory.findIdByName("director-1")).isNull();
+    assertThat(inventory.findById("server-1")).isNull();
+  }
+
+  @Test
+  public void listingDoesNotIndexServerForgottenMeanwhile() {
+    // Parked, and so renamed, while the listing that still shows the instance name is in flight.
+    when(compute.server().listServers(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class)))
+        .thenAnswer(invocation -> {
+          inventory.forget("server-1");
+          return page(server("server-1", "director-1"));
+        });
+
+    inventory.refresh();
+
+    assertThat(inventory.findIdByName("director-1")).isNull();
+    assertThat(inventory.findById("server-1")).isNull();
+  }
+
+  @Test
+  public void forgottenServerIsIndexedWhenObservedAgain() {
+    inventory.record(server("server-1", "director-1"));
+    inventory.forget("server-1");
+
+    inventory.record(server("server-1", "director-2"));
+
+    assertThat(inventory.findIdByName("director-2")).isEqualTo("server-1");
+  }
+
+  @Test
+  public void forgottenNameIsRemovedOnlyForItsServer() {
+    inventory.record(server("server-1", "director-1"));
+
+    inventory.forgetName("director-1", "server-2");
+    assertThat(inventory.findIdByName("director-1")).isEqualTo("server-1");
+
+    inventory.forgetName("director-1", "server-1");
+    assertThat(inventory.findIdByName("director-1")).isNull();
+  }
+}
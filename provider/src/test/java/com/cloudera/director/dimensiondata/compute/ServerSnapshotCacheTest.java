@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.dimensiondata.cloud.client.model.ServerType;
+import com.google.common.base.Ticker;
+
+/**
+ * Tests {@link ServerSnapshotCache}.
+ */
+public class ServerSnapshotCacheTest {
+
+  private static final long TTL_MILLIS = 5000;
+  private static final long ABSENT_TTL_SECONDS = 60;
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  };
+
+  private final ServerSnapshotCache cache = new ServerSnapshotCache(TTL_MILLIS, ABSENT_TTL_SECONDS, 100, ticker);
+
+  private void advance(long duration, TimeUnit unit) {
+    nanos.addAndGet(unit.toNanos(duration));
+  }
+
+  private static ServerType server(String name) {
+    ServerType server = new ServerType();
+    server.setId("id-" + name);
+    server.setName(name);
+    return server;
+  }
+
+  @Test
+  public void servesSnapshotUntilTtlExpires() {
+    ServerType server = server("director-1");
+    cache.put(server);
+
+    advance(TTL_MILLIS - 1, TimeUnit.MILLISECONDS);
+    assertThat(cache.get("director-1")).isSameAs(server);
+
+    advance(1, TimeUnit.MILLISECONDS);
+    assertThat(cache.get("director-1")).isNull();
+    assertThat(cache.getStats().hitCount()).isEqualTo(1);
+    assertThat(cache.getStats().missCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void zeroTtlServesNoSnapshot() {
+    ServerSnapshotCache disabled = new ServerSnapshotCache(0, ABSENT_TTL_SECONDS, 100, ticker);
+    disabled.put(server("director-1"));
+
+    assertThat(disabled.get("director-1")).isNull();
+  }
+
+  @Test
+  public void remembersAbsentNameUntilTtlExpires() {
+    cache.putAbsent("director-1");
+
+    advance(ABSENT_TTL_SECONDS, TimeUnit.SECONDS);
+    advance(-1, TimeUnit.NANOSECONDS);
+    assertThat(cache.isAbsent("director-1")).isTrue();
+
+    advance(1, TimeUnit.NANOSECONDS);
+    assertThat(cache.isAbsent("director-1")).isFalse();
+  }
+
+  @Test
+  public void observedServerIsNoLongerAbsent() {
+    cache.putAbsent("director-1");
+    cache.put(server("director-1"));
+
+    assertThat(cache.isAbsent("director-1")).isFalse();
+    assertThat(cache.get("director-1")).isNotNull();
+  }
+
+  @Test
+  public void absentNameHasNoSnapshot() {
+    cache.put(server("director-1"));
+    cache.putAbsent("director-1");
+
+    assertThat(cache.get("director-1")).isNull();
+    assertThat(cache.isAbsent("director-1")).isTrue();
+  }
+
+  @Test
+  public void invalidateForgetsSnapshotAndAbsence() {
+    cache.put(server("director-1"));
+    cache.putAbsent("director-2");
+    cache.invalidate("director-1");
+    cache.invalidate("director-2");
+
+    assertThat(cache.get("director-1")).isNull();
+    assertThat(cache.isAbsent("director-2")).isFalse();
+  }
+
+  @Test
+  public void neverRemembersAbsenceWhileDeploying() {
+    cache.putAbsent("director-1");
+    cache.beginDeployment("director-1");
+    assertThat(cache.isAbsent("director-1")).isFalse();
+
+    cache.putAbsent("director-1");
+    assertThat(cache.isAbsent("director-1")).isFalse();
+
+    cache.endDeployment("director-1");
+    assertThat(cache.isAbsent("director-1")).isFalse();
+
+    cache.putAbsent("director-1");
+    assertThat(cache.isAbsent("director-1")).isTrue();
+  }
+
+  @Test
+  public void overlappingDeploymentsKeepNameFromBeingAbsent() {
+    cache.beginDeployment("director-1");
+    cache.beginDeployment("director-1");
+    cache.endDeployment("director-1");
+
+    cache.putAbsent("director-1");
+    assertThat(cache.isAbsent("director-1")).isFalse();
+
+    cache.endDeployment("director-1");
+    cache.putAbsent("director-1");
+    assertThat(cache.isAbsent("director-1")).isTrue();
+  }
+
+  @Test
+  public void endingDeploymentForgetsSnapshot() {
+    cache.beginDeployment("director-1");
+    cache.put(server("director-1"));
+    cache.endDeployment("director-1");
+
+    assertThat(cache.get("director-1")).isNull();
+  }
+}
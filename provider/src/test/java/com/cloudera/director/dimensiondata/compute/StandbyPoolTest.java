@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.director.dimensiondata.compute.DiskProvisioner.DataDisks;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.Claim;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.PendingDeployment;
+import com.cloudera.director.dimensiondata.compute.ServerDeploymentEngine.ServerDeployment;
+import com.cloudera.director.dimensiondata.internal.DimensionDataCredentials;
+import com.dimensiondata.cloud.client.Cloud;
+import com.dimensiondata.cloud.client.Filter;
+import com.dimensiondata.cloud.client.OrderBy;
+import com.dimensiondata.cloud.client.model.DeployServerType;
+import com.dimensiondata.cloud.client.model.NewNicType;
+import com.dimensiondata.cloud.client.model.ServerType;
+import com.dimensiondata.cloud.client.model.Servers;
+
+/**
+ * Tests the adoption and the claims of {@link StandbyPool}.
+ */
+public class StandbyPoolTest {
+
+  private static final String DATACENTER = "NA9";
+  private static final String NETWORK_DOMAIN_ID = "network-domain";
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private Cloud compute;
+  private ServerDeploymentEngine deploymentEngine;
+  private StandbyPool pool;
+
+  @Before
+  public void setUp() {
+    DimensionDataCredentials credentials = mock(DimensionDataCredentials.class);
+    compute = mock(Cloud.class, RETURNS_DEEP_STUBS);
+    when(credentials.getCompute()).thenReturn(compute);
+    deploymentEngine = mock(ServerDeploymentEngine.class);
+    when(deploymentEngine.resume(anyString(), anyString(), anyString(), anyString(), any(DataDisks.class)))
+        .thenAnswer(invocation -> new PendingDeployment((String) invocation.getArguments()[0],
+            new CompletableFuture<ServerDeployment>(), new CompletableFuture<ServerDeployment>()));
+
+    // A single standby server per template, so that adopting one fills the pool.
+    byte[] secret = new byte[32];
+    pool = new StandbyPool(credentials, mock(OperationPoller.class), executor, new FingerprintKey(secret), 1);
+  }
+
+  @After
+  public void shutdownExecutor() {
+    executor.shutdownNow();
+  }
+
+  private static DeployServerType request(String name) {
+    DeployServerType request = new DeployServerType();
+    request.setName(name);
+    request.setImageId("image");
+    request.setMemoryGb((long) 32);
+    request.setAdministratorPassword("secret");
+    DeployServerType.Cpu cpu = new DeployServerType.Cpu();
+    cpu.setCount((long) 4);
+    request.setCpu(cpu);
+    DeployServerType.NetworkInfo networkInfo = new DeployServerType.NetworkInfo();
+    networkInfo.setNetworkDomainId(NETWORK_DOMAIN_ID);
+    NewNicType nic = new NewNicType();
+    nic.setVlanId("vlan");
+    networkInfo.setPrimaryNic(nic);
+    request.setNetworkInfo(networkInfo);
+    return request;
+  }
+
+  private static ServerType server(String id, boolean started) {
+    ServerType server = mock(ServerType.class);
+    when(server.getId()).thenReturn(id);
+    when(server.getName()).thenReturn(StandbyPool.NAME_PREFIX + id);
+    when(server.getState()).thenReturn("NORMAL");
+    when(server.isStarted()).thenReturn(started);
+    return server;
+  }
+
+  /**
+   * Refills the pool from the specified servers of a previous run, and waits for the refill.
+   */
+  private void adopt(ServerType... servers) throws Exception {
+    Servers page = new Servers();
+    page.getServer().addAll(Arrays.asList(servers));
+    when(compute.server().listServers(anyInt(), anyInt(), any(OrderBy.class), any(Filter.class))).thenReturn(page);
+
+    pool.refill(DATACENTER, request("director-1"));
+    // The executor runs one task at a time, so the refill is over once a later task ran.
+    executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+  }
+
+  private PendingDeployment claim(String instanceId) {
+    return pool.claim(instanceId, DATACENTER, request("director-" + instanceId), DataDisks.NONE, deploymentEngine);
+  }
+
+  @Test
+  public void adoptionSkipsStartedServers() throws Exception {
+    adopt(server("running", true), server("stopped", false));
+    when(deploymentEngine.claim(anyString(), anyString(), anyString())).thenReturn(Claim.CLAIMED);
+
+    assertThat(claim("1")).isNotNull();
+
+    verify(deploymentEngine).claim("stopped", StandbyPool.NAME_PREFIX + "stopped", "director-1");
+    verify(deploymentEngine, never()).claim(eq("running"), anyString(), anyString());
+    verify(deploymentEngine).resume("1", "stopped", NETWORK_DOMAIN_ID, DATACENTER, DataDisks.NONE);
+    // The only standby server was claimed.
+    assertThat(claim("2")).isNull();
+  }
+
+  @Test
+  public void returnedServerIsOfferedAgain() throws Exception {
+    adopt(server("stopped", false));
+    when(deploymentEngine.claim(anyString(), anyString(), anyString())).thenReturn(Claim.RETURNED, Claim.CLAIMED);
+
+    assertThat(claim("1")).isNull();
+    assertThat(claim("2")).isNotNull();
+
+    verify(deploymentEngine).claim("stopped", StandbyPool.NAME_PREFIX + "stopped", "director-2");
+    verify(deploymentEngine).resume("2", "stopped", NETWORK_DOMAIN_ID, DATACENTER, DataDisks.NONE);
+  }
+
+  @Test
+  public void unavailableServerIsDropped() throws Exception {
+    adopt(server("stopped", false));
+    when(deploymentEngine.claim(anyString(), anyString(), anyString())).thenReturn(Claim.UNAVAILABLE);
+
+    assertThat(claim("1")).isNull();
+    assertThat(claim("2")).isNull();
+
+    verify(deploymentEngine, times(1)).claim(anyString(), anyString(), anyString());
+    verify(deploymentEngine, never()).resume(anyString(), anyString(), anyString(), anyString(),
+        any(DataDisks.class));
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.DATACENTER;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.DATA_DISK_COUNT;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.DATA_DISK_SIZE_GB;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.DATA_DISK_TYPE;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.IMAGE_NAME;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.NETWORK_NAME;
+import static com.cloudera.director.dimensiondata.compute.DimensionDataComputeInstanceTemplateConfigurationProperty.VLAN_IPV4;
+import static com.cloudera.director.spi.v1.compute.ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken.SSH_PASSWORD;
+import static com.cloudera.director.spi.v1.compute.ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken.SSH_USERNAME;
+import static com.cloudera.director.spi.v1.model.InstanceTemplate.InstanceTemplateConfigurationPropertyToken.INSTANCE_NAME_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cloudera.director.spi.v1.model.util.DefaultLocalizationContext;
+import com.cloudera.director.spi.v1.model.util.SimpleConfiguration;
+
+/**
+ * Tests the fingerprint and the disk settings of {@link TemplatePlan}.
+ */
+public class TemplatePlanTest {
+
+  private static final DefaultLocalizationContext DEFAULT_LOCALIZATION_CONTEXT =
+      new DefaultLocalizationContext(Locale.getDefault(), "");
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static Map<String, String> templateConfig(String sshPassword) {
+    Map<String, String> templateConfig = new HashMap<String, String>();
+    templateConfig.put(INSTANCE_NAME_PREFIX.unwrap().getConfigKey(), "director");
+    templateConfig.put(IMAGE_NAME.unwrap().getConfigKey(), "REDHAT764");
+    templateConfig.put(DATACENTER.unwrap().getConfigKey(), "NA9");
+    templateConfig.put(NETWORK_NAME.unwrap().getConfigKey(), "cluster");
+    templateConfig.put(VLAN_IPV4.unwrap().getConfigKey(), "10.0.1.0");
+    templateConfig.put(SSH_USERNAME.unwrap().getConfigKey(), "root");
+    templateConfig.put(SSH_PASSWORD.unwrap().getConfigKey(), sshPassword);
+    templateConfig.put(DATA_DISK_COUNT.unwrap().getConfigKey(), "2");
+    templateConfig.put(DATA_DISK_SIZE_GB.unwrap().getConfigKey(), "100");
+    return templateConfig;
+  }
+
+  private static TemplatePlan plan(String templateName, Map<String, String> templateConfig,
+      FingerprintKey fingerprintKey) {
+    DimensionDataComputeInstanceTemplate template = new DimensionDataComputeInstanceTemplate(templateName,
+        new SimpleConfiguration(templateConfig), new HashMap<String, String>(), DEFAULT_LOCALIZATION_CONTEXT);
+    return TemplatePlan.compile(template, DEFAULT_LOCALIZATION_CONTEXT, fingerprintKey);
+  }
+
+  private static String fingerprint(String templateName, Map<String, String> templateConfig,
+      FingerprintKey fingerprintKey) {
+    return plan(templateName, templateConfig, fingerprintKey).getFingerprint();
+  }
+
+  private static FingerprintKey key(int seed) {
+    byte[] secret = new byte[32];
+    Arrays.fill(secret, (byte) seed);
+    return new FingerprintKey(secret);
+  }
+
+  @Test
+  public void sameConfigurationHasSameFingerprint() {
+    String fingerprint = fingerprint("master", templateConfig("secret"), key(1));
+
+    assertThat(fingerprint).matches("[0-9a-f]{12}");
+    assertThat(fingerprint("worker", templateConfig("secret"), key(1))).isEqualTo(fingerprint);
+  }
+
+  @Test
+  public void fingerprintChangesWithConfiguration() {
+    String fingerprint = fingerprint("master", templateConfig("secret"), key(1));
+    Map<String, String> moreDisks = templateConfig("secret");
+    moreDisks.put(DATA_DISK_COUNT.unwrap().getConfigKey(), "3");
+
+    assertThat(fingerprint("master", templateConfig("changed"), key(1))).isNotEqualTo(fingerprint);
+    assertThat(fingerprint("master", moreDisks, key(1))).isNotEqualTo(fingerprint);
+  }
+
+  @Test
+  public void fingerprintDependsOnKey() {
+    assertThat(fingerprint("master", templateConfig("secret"), key(1)))
+        .isNotEqualTo(fingerprint("master", templateConfig("secret"), key(2)));
+  }
+
+  @Test
+  public void fingerprintSurvivesRestart() throws Exception {
+    File configurationDirectory = temporaryFolder.newFolder();
+    String fingerprint = fingerprint("master", templateConfig("secret"),
+        FingerprintKey.forDirectory(configurationDirectory));
+
+    // A restarted plugin reads the key kept in the configuration directory.
+    File keyFile = new File(configurationDirectory, FingerprintKey.FILE_NAME);
+    FingerprintKey reloaded = new FingerprintKey(Files.readAllBytes(keyFile.toPath()));
+    assertThat(fingerprint("master", templateConfig("secret"), reloaded)).isEqualTo(fingerprint);
+  }
+
+  @Test
+  public void invalidDiskSettingsOnlyFailDeployments() {
+    Map<String, String> templateConfig = templateConfig("secret");
+    templateConfig.put(DATA_DISK_TYPE.unwrap().getConfigKey(), "Floppy");
+    templateConfig.put(DATA_DISK_COUNT.unwrap().getConfigKey(), "many");
+
+    // Finding and deleting instances only needs the name prefix.
+    TemplatePlan plan = plan("master", templateConfig, key(1));
+    assertThat(plan.isPrefixValid()).isTrue();
+    assertThat(plan.getInstanceName("1")).isEqualTo("director-1");
+    assertThat(plan.getFingerprint()).isNotEqualTo(fingerprint("master", templateConfig("secret"), key(1)));
+
+    try {
+      plan.getDataDisks();
+      fail("Invalid data disk settings were converted.");
+    } catch (IllegalArgumentException e) {
+      // Expected, NumberFormatException included.
+    }
+  }
+}
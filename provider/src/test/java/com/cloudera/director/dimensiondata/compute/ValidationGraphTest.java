@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.junit.Assert.fail;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.cloudera.director.spi.v1.model.exception.PluginExceptionConditionAccumulator;
+
+/**
+ * Tests {@link ValidationGraph}.
+ */
+public class ValidationGraphTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+  private final PluginExceptionConditionAccumulator accumulator = new PluginExceptionConditionAccumulator();
+
+  @After
+  public void shutdownExecutor() {
+    executor.shutdownNow();
+  }
+
+  private static ValidationGraph.Check error(String key) {
+    return conditions -> conditions.addError(key, key + " is invalid");
+  }
+
+  private static ValidationGraph.Check warning(String key) {
+    return conditions -> conditions.addWarning(key, key + " looks odd");
+  }
+
+  private static ValidationGraph.Check flag(AtomicBoolean ran) {
+    return conditions -> ran.set(true);
+  }
+
+  @Test
+  public void mergesConditionsOfEveryCheck() {
+    new ValidationGraph()
+        .add("datacenter", error("datacenter"))
+        .add("prefix", warning("prefix"))
+        .add("image", checks -> { })
+        .run(executor, accumulator);
+
+    assertThat(accumulator.getConditionsByKey().keySet()).containsOnly("datacenter", "prefix");
+    assertThat(accumulator.hasError()).isTrue();
+  }
+
+  @Test
+  public void skipsChecksDependingOnFailedCheck() {
+    AtomicBoolean networkRan = new AtomicBoolean();
+    AtomicBoolean imageRan = new AtomicBoolean();
+    new ValidationGraph()
+        .add("datacenter", error("datacenter"))
+        .add("network", flag(networkRan), "datacenter")
+        .add("image", flag(imageRan))
+        .run(executor, accumulator);
+
+    assertThat(networkRan.get()).isFalse();
+    assertThat(imageRan.get()).isTrue();
+    assertThat(accumulator.getConditionsByKey().keySet()).containsOnly("datacenter");
+  }
+
+  @Test
+  public void skipPropagatesToTransitiveDependents() {
+    AtomicBoolean networkRan = new AtomicBoolean();
+    AtomicBoolean vlanRan = new AtomicBoolean();
+    new ValidationGraph()
+        .add("datacenter", error("datacenter"))
+        .add("network", flag(networkRan), "datacenter")
+        .add("vlan", flag(vlanRan), "network")
+        .run(executor, accumulator);
+
+    assertThat(networkRan.get()).isFalse();
+    assertThat(vlanRan.get()).isFalse();
+  }
+
+  @Test
+  public void skipsChecksWithAnyFailedDependency() {
+    AtomicBoolean vlanRan = new AtomicBoolean();
+    new ValidationGraph()
+        .add("datacenter", checks -> { })
+        .add("network", error("network"))
+        .add("vlan", flag(vlanRan), "datacenter", "network")
+        .run(executor, accumulator);
+
+    assertThat(vlanRan.get()).isFalse();
+  }
+
+  @Test
+  public void runsChecksDependingOnCheckWithWarnings() {
+    AtomicBoolean networkRan = new AtomicBoolean();
+    new ValidationGraph()
+        .add("datacenter", warning("datacenter"))
+        .add("network", flag(networkRan), "datacenter")
+        .run(executor, accumulator);
+
+    assertThat(networkRan.get()).isTrue();
+    assertThat(accumulator.hasError()).isFalse();
+  }
+
+  @Test
+  public void runsIndependentChecksConcurrently() {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    ValidationGraph.Check awaitOther = conditions -> {
+      bothStarted.countDown();
+      try {
+        if (!bothStarted.await(5, TimeUnit.SECONDS)) {
+          conditions.addError("timeout", "Checks did not run concurrently");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    new ValidationGraph()
+        .add("datacenter", awaitOther)
+        .add("image", awaitOther)
+        .run(executor, accumulator);
+
+    assertThat(accumulator.hasError()).isFalse();
+  }
+
+  @Test
+  public void runsLocalChecksWithoutWaitingForExecutor() {
+    // A single busy thread, as if deployments were queued ahead of the validation.
+    ExecutorService busy = Executors.newSingleThreadExecutor();
+    CountDownLatch released = new CountDownLatch(1);
+    busy.execute(() -> {
+      try {
+        released.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    try {
+      Thread caller = Thread.currentThread();
+      AtomicBoolean ranOnCaller = new AtomicBoolean();
+      ValidationGraph.Check local = conditions -> {
+        ranOnCaller.set(Thread.currentThread() == caller);
+        released.countDown();
+      };
+      new ValidationGraph()
+          .add("datacenter", checks -> { })
+          .addLocal("prefix", local)
+          .run(busy, accumulator);
+
+      assertThat(ranOnCaller.get()).isTrue();
+    } finally {
+      busy.shutdownNow();
+    }
+  }
+
+  @Test
+  public void rethrowsFailureOfCheck() {
+    IllegalStateException failure = new IllegalStateException("MCP unavailable");
+    AtomicBoolean networkRan = new AtomicBoolean();
+    try {
+      new ValidationGraph()
+          .add("prefix", error("prefix"))
+          .add("datacenter", conditions -> {
+            throw failure;
+          })
+          .add("network", flag(networkRan), "datacenter")
+          .run(executor, accumulator);
+      fail("Expected the validation to fail.");
+    } catch (IllegalStateException e) {
+      assertThat(e).isSameAs(failure);
+    }
+
+    assertThat(networkRan.get()).isFalse();
+    // Conditions of the checks added before the failed one are kept.
+    assertThat(accumulator.getConditionsByKey().keySet()).containsOnly("prefix");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownDependency() {
+    new ValidationGraph().add("network", checks -> { }, "datacenter");
+  }
+}
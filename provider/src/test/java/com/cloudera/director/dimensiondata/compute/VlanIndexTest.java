@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.compute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.dimensiondata.cloud.client.model.IpRangeCidrType;
+import com.dimensiondata.cloud.client.model.NetworkDomainType;
+import com.dimensiondata.cloud.client.model.VlanType;
+
+/**
+ * Tests {@link VlanIndex}.
+ */
+public class VlanIndexTest {
+
+  private static VlanType vlan(String id, String address, Integer prefixSize, String gateway) {
+    VlanType vlan = new VlanType();
+    vlan.setId(id);
+    vlan.setIpv4GatewayAddress(gateway);
+    if (address != null) {
+      IpRangeCidrType range = new IpRangeCidrType();
+      range.setAddress(address);
+      range.setPrefixSize(prefixSize);
+      vlan.setPrivateIpv4Range(range);
+    }
+    return vlan;
+  }
+
+  private static NetworkDomainType networkDomain(String id, String name) {
+    NetworkDomainType networkDomain = new NetworkDomainType();
+    networkDomain.setId(id);
+    networkDomain.setName(name);
+    return networkDomain;
+  }
+
+  private static VlanType in(String networkDomainId, VlanType vlan) {
+    VlanType.NetworkDomain reference = new VlanType.NetworkDomain();
+    reference.setId(networkDomainId);
+    vlan.setNetworkDomain(reference);
+    return vlan;
+  }
+
+  @Test
+  public void containsAddressesOfRange() {
+    VlanType vlan = vlan("vlan", "10.0.1.0", 24, "10.0.1.1");
+
+    assertThat(VlanIndex.contains(vlan, "10.0.1.0")).isTrue();
+    assertThat(VlanIndex.contains(vlan, "10.0.1.1")).isTrue();
+    assertThat(VlanIndex.contains(vlan, "10.0.1.255")).isTrue();
+    assertThat(VlanIndex.contains(vlan, " 10.0.1.7 ")).isTrue();
+    assertThat(VlanIndex.contains(vlan, "10.0.2.1")).isFalse();
+    assertThat(VlanIndex.contains(vlan, "10.0.0.255")).isFalse();
+  }
+
+  @Test
+  public void masksHostBitsOfRangeAddress() {
+    VlanType vlan = vlan("vlan", "10.0.1.77", 24, null);
+
+    assertThat(VlanIndex.contains(vlan, "10.0.1.200")).isTrue();
+    assertThat(VlanIndex.contains(vlan, "10.0.2.77")).isFalse();
+  }
+
+  @Test
+  public void singleAddressRangeContainsOnlyItsAddress() {
+    VlanType vlan = vlan("vlan", "10.0.0.5", 32, null);
+
+    assertThat(VlanIndex.contains(vlan, "10.0.0.5")).isTrue();
+    assertThat(VlanIndex.contains(vlan, "10.0.0.4")).isFalse();
+    assertThat(VlanIndex.contains(vlan, "10.0.0.6")).isFalse();
+  }
+
+  @Test
+  public void emptyPrefixContainsEveryAddress() {
+    VlanType vlan = vlan("vlan", "0.0.0.0", 0, null);
+
+    assertThat(VlanIndex.contains(vlan, "0.0.0.0")).isTrue();
+    assertThat(VlanIndex.contains(vlan, "192.168.1.1")).isTrue();
+    assertThat(VlanIndex.contains(vlan, "255.255.255.255")).isTrue();
+  }
+
+  @Test
+  public void malformedAddressesAreNotContained() {
+    VlanType vlan = vlan("vlan", "0.0.0.0", 0, "10.0.0.1");
+
+    for (String malformed : new String[] { null, "", "10.0.1", "10.0.1.1.", "10.0.1.1.1", "10..1.1", "10.0.1.256",
+        "10.0.1.-1", "10.0.1.a", "10.0.1.+1", "1000.0.0.1", "10.0.1.0001" }) {
+      assertThat(VlanIndex.contains(vlan, malformed)).isFalse();
+    }
+  }
+
+  @Test
+  public void malformedRangeAddressContainsNothing() {
+    VlanType vlan = vlan("vlan", "10.0.1.999", 24, null);
+
+    assertThat(VlanIndex.contains(vlan, "10.0.1.1")).isFalse();
+  }
+
+  @Test
+  public void withoutRangeOnlyGatewayIsContained() {
+    VlanType vlan = vlan("vlan", null, null, "10.0.1.1");
+
+    assertThat(VlanIndex.contains(vlan, "10.0.1.1")).isTrue();
+    assertThat(VlanIndex.contains(vlan, "10.0.1.2")).isFalse();
+  }
+
+  @Test
+  public void findsVlanOfNetworkDomain() {
+    VlanType web = vlan("web", "10.0.1.0", 24, "10.0.1.1");
+    VlanType other = vlan("other", "10.0.1.0", 24, "10.0.1.1");
+    VlanIndex.Snapshot snapshot = new VlanIndex.Snapshot();
+    snapshot.index("domain", web);
+    snapshot.index("other-domain", other);
+
+    assertThat(snapshot.find("domain", "10.0.1.20")).isSameAs(web);
+    assertThat(snapshot.find("other-domain", "10.0.1.20")).isSameAs(other);
+    assertThat(snapshot.find("domain", "10.0.2.20")).isNull();
+    assertThat(snapshot.find("unknown-domain", "10.0.1.20")).isNull();
+  }
+
+  @Test
+  public void findsMostSpecificRange() {
+    VlanType everything = vlan("everything", "0.0.0.0", 0, null);
+    VlanType wide = vlan("wide", "10.0.0.0", 16, null);
+    VlanType narrow = vlan("narrow", "10.0.1.0", 24, null);
+    VlanType single = vlan("single", "10.0.1.5", 32, null);
+    VlanIndex.Snapshot snapshot = new VlanIndex.Snapshot();
+    snapshot.index("domain", everything);
+    snapshot.index("domain", wide);
+    snapshot.index("domain", narrow);
+    snapshot.index("domain", single);
+
+    assertThat(snapshot.find("domain", "10.0.1.5")).isSameAs(single);
+    assertThat(snapshot.find("domain", "10.0.1.6")).isSameAs(narrow);
+    assertThat(snapshot.find("domain", "10.0.2.6")).isSameAs(wide);
+    assertThat(snapshot.find("domain", "192.168.0.1")).isSameAs(everything);
+  }
+
+  @Test
+  public void findsVlanWithoutRangeByGateway() {
+    VlanType vlan = vlan("vlan", null, null, "10.0.1.1");
+    VlanIndex.Snapshot snapshot = new VlanIndex.Snapshot();
+    snapshot.index("domain", vlan);
+
+    assertThat(snapshot.find("domain", "10.0.1.1")).isSameAs(vlan);
+    assertThat(snapshot.find("domain", " 10.0.1.1")).isSameAs(vlan);
+    assertThat(snapshot.find("domain", "10.0.1.2")).isNull();
+  }
+
+  @Test
+  public void findsNothingForMalformedAddress() {
+    VlanIndex.Snapshot snapshot = new VlanIndex.Snapshot();
+    snapshot.index("domain", vlan("everything", "0.0.0.0", 0, "10.0.0.1"));
+
+    assertThat(snapshot.find("domain", "10.0.1")).isNull();
+    assertThat(snapshot.find("domain", "10.0.1.300")).isNull();
+    assertThat(snapshot.find("domain", null)).isNull();
+  }
+
+  @Test
+  public void indexesVlansByNameOfReferencedNetworkDomain() {
+    VlanType web = in("nd-1", vlan("web", "10.0.1.0", 24, "10.0.1.1"));
+    VlanType other = in("nd-2", vlan("other", "10.0.1.0", 24, "10.0.1.1"));
+    VlanType unlisted = in("nd-3", vlan("unlisted", "10.0.3.0", 24, "10.0.3.1"));
+    VlanType unreferenced = vlan("unreferenced", "10.0.4.0", 24, "10.0.4.1");
+    VlanIndex.Snapshot snapshot = VlanIndex.index("dc",
+        Arrays.asList(networkDomain("nd-1", "domain"), networkDomain("nd-2", "other-domain")),
+        Arrays.asList(web, other, unlisted, unreferenced));
+
+    assertThat(snapshot.find("domain", "10.0.1.20")).isSameAs(web);
+    assertThat(snapshot.find("other-domain", "10.0.1.20")).isSameAs(other);
+    assertThat(snapshot.find("domain", "10.0.3.20")).isNull();
+    assertThat(snapshot.find("domain", "10.0.4.20")).isNull();
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.internal;
+
+import static org.junit.Assert.fail;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.cloudera.director.dimensiondata.internal.ApiThrottle.TokenBucket;
+import com.dimensiondata.cloud.client.http.ServiceUnavailableException;
+
+/**
+ * Tests {@link ApiThrottle}.
+ */
+public class ApiThrottleTest {
+
+  private static ApiThrottle newThrottle(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+    return new ApiThrottle(new TokenBucket(1000, 100), new TokenBucket(1000, 100), maxAttempts, initialBackoffMillis,
+        maxBackoffMillis);
+  }
+
+  private static long elapsedMillis(long startedAt) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+  }
+
+  @Test
+  public void burstIsServedImmediately() throws Exception {
+    TokenBucket bucket = new TokenBucket(1, 3);
+    long startedAt = System.nanoTime();
+    for (int i = 0; i < 3; i++) {
+      bucket.acquire();
+    }
+
+    assertThat(elapsedMillis(startedAt)).isLessThan(500);
+  }
+
+  @Test
+  public void callsBeyondBurstWaitForRefill() throws Exception {
+    TokenBucket bucket = new TokenBucket(20, 2);
+    long startedAt = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      bucket.acquire();
+    }
+
+    // Three calls beyond the burst at 20 calls per second take at least 150 ms.
+    assertThat(elapsedMillis(startedAt)).isGreaterThanOrEqualTo(140);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonPositiveRate() {
+    new TokenBucket(0, 1);
+  }
+
+  @Test
+  public void retriesWhileServiceUnavailable() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    String result = newThrottle(3, 1, 1).call(true, () -> {
+      if (attempts.incrementAndGet() < 3) {
+        throw mock(ServiceUnavailableException.class);
+      }
+      return "done";
+    });
+
+    assertThat(result).isEqualTo("done");
+    assertThat(attempts.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void givesUpAfterMaxAttempts() throws Exception {
+    ServiceUnavailableException unavailable = mock(ServiceUnavailableException.class);
+    AtomicInteger attempts = new AtomicInteger();
+    try {
+      newThrottle(3, 1, 1).call(false, () -> {
+        attempts.incrementAndGet();
+        throw unavailable;
+      });
+      fail("Expected the call to fail.");
+    } catch (ServiceUnavailableException e) {
+      assertThat(e).isSameAs(unavailable);
+    }
+    assertThat(attempts.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void retriesTransportFailuresOfReadsOnly() throws Exception {
+    AtomicInteger reads = new AtomicInteger();
+    AtomicInteger mutations = new AtomicInteger();
+    ApiThrottle throttle = newThrottle(3, 1, 1);
+    try {
+      throttle.call(false, () -> {
+        reads.incrementAndGet();
+        throw new RuntimeException(new IOException("Connection reset"));
+      });
+      fail("Expected the read to fail.");
+    } catch (RuntimeException e) {
+      assertThat(e.getCause() instanceof IOException).isTrue();
+    }
+    try {
+      throttle.call(true, () -> {
+        mutations.incrementAndGet();
+        throw new RuntimeException(new IOException("Connection reset"));
+      });
+      fail("Expected the mutation to fail.");
+    } catch (RuntimeException e) {
+      assertThat(e.getCause() instanceof IOException).isTrue();
+    }
+
+    assertThat(reads.get()).isEqualTo(3);
+    assertThat(mutations.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void doesNotRetryOtherFailures() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    try {
+      newThrottle(3, 1, 1).call(false, () -> {
+        attempts.incrementAndGet();
+        throw new IllegalStateException("Bad request");
+      });
+      fail("Expected the call to fail.");
+    } catch (IllegalStateException e) {
+      assertThat(attempts.get()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void backoffGrowsUpToLimit() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    long startedAt = System.nanoTime();
+    try {
+      newThrottle(4, 10, 20).call(false, () -> {
+        attempts.incrementAndGet();
+        throw mock(ServiceUnavailableException.class);
+      });
+      fail("Expected the call to fail.");
+    } catch (ServiceUnavailableException e) {
+      // Backoffs are drawn from [5, 10], [10, 20] and [10, 20] ms.
+      assertThat(attempts.get()).isEqualTo(4);
+      assertThat(elapsedMillis(startedAt)).isGreaterThanOrEqualTo(25);
+      assertThat(elapsedMillis(startedAt)).isLessThan(1000);
+    }
+  }
+}
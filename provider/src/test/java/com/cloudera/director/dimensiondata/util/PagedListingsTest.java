@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016 Dimension Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.dimensiondata.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.junit.Test;
+
+import com.cloudera.director.dimensiondata.util.PagedListings.Page;
+import com.cloudera.director.dimensiondata.util.PagedListings.PageReader;
+import com.cloudera.director.dimensiondata.util.PagedListings.PagedSpliterator;
+
+/**
+ * Tests {@link PagedListings}.
+ */
+public class PagedListingsTest {
+
+  private static final int PAGE_SIZE = 2;
+
+  /**
+   * The page numbers read, in order.
+   */
+  private final List<Integer> readPages = Collections.synchronizedList(new ArrayList<Integer>());
+
+  /**
+   * Reads runnables queued by the prefetcher only when told to.
+   */
+  private final List<Runnable> queuedReads = new ArrayList<Runnable>();
+  private final Executor queue = queuedReads::add;
+
+  private PageReader<Integer> reader(int count, boolean withTotalCount) {
+    return (pageSize, pageNumber) -> {
+      readPages.add(pageNumber);
+      List<Integer> resources = new ArrayList<Integer>();
+      for (int i = (pageNumber - 1) * pageSize; i < Math.min(count, pageNumber * pageSize); i++) {
+        resources.add(i);
+      }
+      return new Page<Integer>(resources, withTotalCount ? count : null);
+    };
+  }
+
+  private static Stream<Integer> stream(PageReader<Integer> reader, Executor prefetcher) {
+    PagedSpliterator<Integer> spliterator = new PagedSpliterator<Integer>(reader, PAGE_SIZE, prefetcher);
+    return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+  }
+
+  private void runQueuedReads() {
+    List<Runnable> reads = new ArrayList<Runnable>(queuedReads);
+    queuedReads.clear();
+    for (Runnable read : reads) {
+      read.run();
+    }
+  }
+
+  @Test
+  public void readsPagesUntilPageIsNotFull() {
+    List<Integer> resources = stream(reader(5, false), null).collect(Collectors.toList());
+
+    assertThat(resources).containsExactly(0, 1, 2, 3, 4);
+    assertThat(readPages).containsExactly(1, 2, 3);
+  }
+
+  @Test
+  public void readsEmptyPageAfterFullLastPageWithoutTotalCount() {
+    List<Integer> resources = stream(reader(4, false), null).collect(Collectors.toList());
+
+    assertThat(resources).containsExactly(0, 1, 2, 3);
+    assertThat(readPages).containsExactly(1, 2, 3);
+  }
+
+  @Test
+  public void stopsAtTotalCount() {
+    List<Integer> resources = stream(reader(4, true), null).collect(Collectors.toList());
+
+    assertThat(resources).containsExactly(0, 1, 2, 3);
+    assertThat(readPages).containsExactly(1, 2);
+  }
+
+  @Test
+  public void readsNoPageUntilConsumed() {
+    stream(reader(5, false), queue);
+
+    assertThat(readPages).isEmpty();
+    assertThat(queuedReads).isEmpty();
+  }
+
+  @Test
+  public void prefetchesNextPageAsSoonAsPageArrives() {
+    try (Stream<Integer> stream = stream(reader(5, true), queue)) {
+      stream.limit(1).forEach(resource -> {
+        // The second page is queued while the first resource of the first page is processed.
+        assertThat(queuedReads).hasSize(1);
+        runQueuedReads();
+        assertThat(readPages).containsExactly(1, 2);
+      });
+    }
+  }
+
+  @Test
+  public void consumerReadsPageNotStartedByPrefetcher() {
+    List<Integer> resources;
+    try (Stream<Integer> stream = stream(reader(5, true), queue)) {
+      resources = stream.collect(Collectors.toList());
+    }
+    runQueuedReads();
+
+    assertThat(resources).containsExactly(0, 1, 2, 3, 4);
+    assertThat(readPages).containsExactly(1, 2, 3);
+  }
+
+  @Test
+  public void closeAbandonsQueuedRead() {
+    try (Stream<Integer> stream = stream(reader(5, true), queue)) {
+      assertThat(stream.findFirst().get()).isEqualTo(0);
+    }
+    runQueuedReads();
+
+    assertThat(readPages).containsExactly(1);
+  }
+
+  @Test
+  public void doesNotPrefetchAfterLastPage() {
+    try (Stream<Integer> stream = stream(reader(2, true), queue)) {
+      assertThat(stream.count()).isEqualTo(2);
+    }
+
+    assertThat(queuedReads).isEmpty();
+    assertThat(readPages).containsExactly(1);
+  }
+
+  @Test
+  public void rethrowsFailureOfRead() {
+    IllegalStateException failure = new IllegalStateException("MCP unavailable");
+    PageReader<Integer> failing = (pageSize, pageNumber) -> {
+      if (pageNumber > 1) {
+        throw failure;
+      }
+      return reader(5, true).read(pageSize, pageNumber);
+    };
+    try (Stream<Integer> stream = stream(failing, queue)) {
+      stream.forEach(resource -> runQueuedReads());
+      fail("Expected the listing to fail.");
+    } catch (IllegalStateException e) {
+      assertThat(e).isSameAs(failure);
+    }
+  }
+}